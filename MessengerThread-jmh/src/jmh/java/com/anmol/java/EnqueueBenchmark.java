@@ -0,0 +1,87 @@
+package com.anmol.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MessageQueue#enqueueMessage} on its own, without a consumer thread: the benchmark thread is also the consumer.
+ * <ol>
+ *     <li>immediate: enqueue a due message (lock-free inbox) then take it with {@link MessageQueue#next()}.</li>
+ *     <li>delayed: enqueue a message due in the future among the pending ones, then remove it (indexed lookup).</li>
+ * </ol>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class EnqueueBenchmark {
+    private static final long HOUR_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    @Param({"LINKED_LIST", "BINARY_HEAP"})
+    public MessageOrdering ordering;
+
+    @Param({"0", "1000", "100000"})
+    public int pending; // Delayed messages already in the queue.
+
+    private MessageQueue mQueue;
+    private final Object mToken = new Object();
+    private long mBase;
+    private long mSeed = 42;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Created on the benchmark thread, which is then the consumer of the queue.
+        mQueue = new MessageQueue(new QueueConfig().withMessages(ordering.newTimerQueue()).withIndex(true));
+        mBase = SystemClock.uptimeNanos() + HOUR_NANOS;
+        for (int i = 0; i < pending; i++) {
+            mQueue.enqueueMessage(Message.obtain().withData(new Object()), mBase + nextDelay());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mQueue.stop(false);
+    }
+
+    @Benchmark
+    public Message immediate() {
+        mQueue.enqueueMessage(Message.obtain(), SystemClock.uptimeNanos());
+        final Message msg = mQueue.next();
+        msg.recycleUnchecked();
+        return msg;
+    }
+
+    @Benchmark
+    public boolean delayed() {
+        final boolean added = mQueue.enqueueMessage(Message.obtain().withData(mToken), mBase + nextDelay());
+        mQueue.removeMessages(mToken);
+        return added;
+    }
+
+    /**
+     * Random delay within an hour, xorshift so its cheaper than the message operations it is used for.
+     */
+    private long nextDelay() {
+        long x = mSeed;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        mSeed = x;
+        return (x & Long.MAX_VALUE) % HOUR_NANOS;
+    }
+}
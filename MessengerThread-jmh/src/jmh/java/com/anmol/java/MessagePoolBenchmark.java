@@ -0,0 +1,41 @@
+package com.anmol.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Message#obtain()} then recycle, which every send and every dispatch pays.
+ * <br>
+ * With the gc profiler, gc.alloc.rate.norm should be 0 B/op, as the message comes back from the pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessagePoolBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public Message obtainRecycle() {
+        final Message msg = Message.obtain();
+        msg.recycleUnchecked();
+        return msg;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Message obtainRecycleContended() {
+        final Message msg = Message.obtain();
+        msg.recycleUnchecked();
+        return msg;
+    }
+}
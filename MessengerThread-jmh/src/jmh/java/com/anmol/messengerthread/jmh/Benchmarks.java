@@ -0,0 +1,23 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.MessengerThread;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Start the thread, and wait until it accepts messages.
+     */
+    static void start(final MessengerThread thread) {
+        thread.start();
+        while (!thread.post(() -> {
+        })) {
+            Thread.yield(); // Not yet ready to accept messages.
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.Message;
+import com.anmol.java.MessageOrdering;
+import com.anmol.java.MessengerThread;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many producers schedule delayed messages (like timeouts) onto one {@link MessengerThread}, at random delays up to maxDelayMillis.
+ * Measures the time until all of them are processed, so the higher it is over maxDelayMillis, the more the queue costs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class DelayedFanInBenchmark {
+
+    @Param({"LINKED_LIST", "BINARY_HEAP"})
+    public MessageOrdering ordering;
+
+    @Param({"10000", "100000"})
+    public int messages;
+
+    @Param({"4"})
+    public int producers;
+
+    @Param({"10"})
+    public int maxDelayMillis;
+
+    private ExecutorService mProducers;
+    private CountingMessengerThread mThread;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mProducers = Executors.newFixedThreadPool(producers);
+        mThread = new CountingMessengerThread();
+        mThread.withOrdering(ordering);
+        Benchmarks.start(mThread);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        mThread.mDone = new CountDownLatch(messages);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        mProducers.shutdown();
+        mThread.close();
+        mThread.join();
+    }
+
+    @Benchmark
+    public void fanIn() throws Exception {
+        final int perProducer = messages / producers;
+        final Future<?>[] sent = new Future<?>[producers];
+        for (int p = 0; p < producers; p++) {
+            final int count = p == 0 ? messages - perProducer * (producers - 1) : perProducer;
+            sent[p] = mProducers.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < count; i++) {
+                    mThread.sendMessageDelayed(Message.obtain(), random.nextLong(TimeUnit.MILLISECONDS.toNanos(maxDelayMillis)), TimeUnit.NANOSECONDS);
+                }
+            });
+        }
+        for (Future<?> future : sent) {
+            future.get();
+        }
+        mThread.mDone.await();
+    }
+
+    private static final class CountingMessengerThread extends MessengerThread {
+        private volatile CountDownLatch mDone;
+
+        @Override
+        protected void onRun() {
+        }
+
+        @Override
+        protected void onMessage(final Message msg) {
+            mDone.countDown();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.MessengerThread;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fleet of idle {@link MessengerThread}s, and how much CPU they burn while they have nothing to do.
+ * <br>
+ * An idle {@link MessengerThread} should be parked, so the fleet is expected to use close to zero CPU:
+ * the cpuMicros counter is the CPU time the whole fleet used during one idle second, so 10000 is 1% of a core.
+ * The time of the benchmark itself is just the second it waits.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class IdleCpuBenchmark {
+
+    @Param({"500"})
+    public int threads;
+
+    private final ThreadMXBean mMxBean = ManagementFactory.getThreadMXBean();
+    private MessengerThread[] mFleet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (!mMxBean.isThreadCpuTimeSupported()) {
+            throw new IllegalStateException("Thread CPU time is not supported on this JVM.");
+        }
+        mMxBean.setThreadCpuTimeEnabled(true);
+        mFleet = new MessengerThread[threads];
+        for (int i = 0; i < threads; i++) {
+            mFleet[i] = new IdleMessengerThread("idle-" + i);
+            Benchmarks.start(mFleet[i]); // Also warms up the consumer loop with one message.
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (MessengerThread thread : mFleet) {
+            thread.close();
+        }
+        for (MessengerThread thread : mFleet) {
+            thread.join();
+        }
+    }
+
+    @Benchmark
+    public void idleSecond(final Cpu cpu) throws InterruptedException {
+        final long before = cpuTimeNanos();
+        Thread.sleep(1000);
+        cpu.cpuMicros += TimeUnit.NANOSECONDS.toMicros(cpuTimeNanos() - before);
+    }
+
+    private long cpuTimeNanos() {
+        long total = 0;
+        for (MessengerThread thread : mFleet) {
+            final long cpu = mMxBean.getThreadCpuTime(thread.getId());
+            if (cpu > 0) {
+                total += cpu;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * CPU time used by the fleet, reported next to the time of the benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cpu {
+        public long cpuMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuMicros = 0;
+        }
+    }
+
+    private static final class IdleMessengerThread extends MessengerThread {
+
+        IdleMessengerThread(final String name) {
+            super(name);
+        }
+
+        @Override
+        protected void onRun() {
+        }
+    }
+}
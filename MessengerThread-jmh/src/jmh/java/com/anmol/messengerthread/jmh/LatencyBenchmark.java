@@ -0,0 +1,111 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.Message;
+import com.anmol.java.MessengerThread;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency percentiles (p50, p90, p99, p99.9...) of a message, from the send until its processed.
+ * <ol>
+ *     <li>endToEnd: the benchmark thread sends a message, and waits until the {@link MessengerThread} has processed it.
+ *     It includes waking the parked consumer, the dispatch in Consumer.start and the recycle.</li>
+ *     <li>pingPong: round trip between two {@link MessengerThread}s, like the DemoMessengerThreads do:
+ *     the benchmark thread posts to ping, which posts to pong, which posts back to ping.</li>
+ * </ol>
+ * The benchmark thread spins while waiting, so it does not add its own wake up to the measure.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class LatencyBenchmark {
+
+    private MessengerThread mTarget;
+    private MessengerThread mPing;
+    private MessengerThread mPong;
+
+    private volatile long mProcessed; // Messages processed by mTarget.
+    private volatile long mRoundTrips; // Round trips completed by mPing.
+
+    private final Runnable mBack = () -> mRoundTrips++; // Only mPing writes it.
+    private final Runnable mPongRun = () -> mPing.post(mBack);
+    private final Runnable mPingRun = () -> mPong.post(mPongRun);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mTarget = new MessengerThread("target") {
+            @Override
+            protected void onRun() {
+            }
+
+            @Override
+            protected void onMessage(final Message msg) {
+                mProcessed++; // Only the target writes it.
+            }
+        };
+        mPing = new IdleMessengerThread("ping");
+        mPong = new IdleMessengerThread("pong");
+        Benchmarks.start(mTarget);
+        Benchmarks.start(mPing);
+        Benchmarks.start(mPong);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (MessengerThread thread : new MessengerThread[]{mTarget, mPing, mPong}) {
+            thread.close();
+            thread.join();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long endToEnd() {
+        final long expected = mProcessed + 1;
+        mTarget.sendMessage(Message.obtain());
+        long processed;
+        while ((processed = mProcessed) < expected) {
+            // Spin.
+        }
+        return processed;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long pingPong() {
+        final long expected = mRoundTrips + 1;
+        mPing.post(mPingRun);
+        long roundTrips;
+        while ((roundTrips = mRoundTrips) < expected) {
+            // Spin.
+        }
+        return roundTrips;
+    }
+
+    private static final class IdleMessengerThread extends MessengerThread {
+
+        IdleMessengerThread(final String name) {
+            super(name);
+        }
+
+        @Override
+        protected void onRun() {
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.Message;
+import com.anmol.java.MessageOrdering;
+import com.anmol.java.MessengerThread;
+import com.anmol.java.SystemClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link MessageOrdering}s with a lot of pending delayed messages, without and with
+ * {@link MessengerThread#withIndexedLookups(boolean) indexed lookups}.
+ * <ol>
+ *     <li>insert: send pending messages, due at random times in the future.</li>
+ *     <li>remove: remove 1000 of the pending messages, one by one by their data.</li>
+ *     <li>dispatch: send pending messages due at random times in the past, while the consumer is busy, then time until all are processed.</li>
+ * </ol>
+ * Each invocation handles all the messages, so divide the time by pending (or by 1000 for remove) to get the time per message.
+ * <br>
+ * {@link MessageOrdering#LINKED_LIST} is quadratic on random insertions, so the sizes stop at 100000.
+ * Run the larger ones on the heap only, with the JMH options -p ordering=BINARY_HEAP -p pending=1000000
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class MessageOrderingBenchmark {
+
+    private static final int REMOVALS = 1000;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    @Param({"LINKED_LIST", "BINARY_HEAP"})
+    public MessageOrdering ordering;
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    @Param({"1000", "100000"})
+    public int pending;
+
+    private final Random mRandom = new Random(42);
+    private Object[] mTokens;
+    private MessengerThread mThread;
+    private CountDownLatch mBusy;
+    private CountDownLatch mDone;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mTokens = new Object[pending];
+        for (int i = 0; i < pending; i++) {
+            mTokens[i] = new Object();
+        }
+        mThread = new MessengerThread() {
+            @Override
+            protected void onRun() {
+            }
+        };
+        mThread.withOrdering(ordering).withIndexedLookups(indexed);
+        Benchmarks.start(mThread);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        mThread.close();
+        mThread.join();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        mThread.removeMessages();
+    }
+
+    @Benchmark
+    public void insert() {
+        sendInTheFuture();
+    }
+
+    /**
+     * The messages to remove are sent by {@link Pending#setUp}.
+     */
+    @Benchmark
+    public void remove(final Pending messages) {
+        for (int i = 0; i < REMOVALS; i++) {
+            mThread.removeMessages(mTokens[mRandom.nextInt(mTokens.length)]);
+        }
+    }
+
+    /**
+     * The messages to dispatch are sent by {@link Due#setUp}, behind a busy consumer.
+     */
+    @Benchmark
+    public void dispatch(final Due messages) throws InterruptedException {
+        mBusy.countDown();
+        mDone.await();
+    }
+
+    private void sendInTheFuture() {
+        final long base = SystemClock.uptimeMillis() + HOUR_MILLIS;
+        for (Object token : mTokens) {
+            mThread.sendMessageAtTime(Message.obtain().withData(token), base + mRandom.nextInt((int) HOUR_MILLIS));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Pending {
+
+        @Setup(Level.Invocation)
+        public void setUp(final MessageOrderingBenchmark benchmark) {
+            benchmark.sendInTheFuture();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Due {
+
+        @Setup(Level.Invocation)
+        public void setUp(final MessageOrderingBenchmark benchmark) {
+            final CountDownLatch busy = new CountDownLatch(1);
+            benchmark.mBusy = busy;
+            benchmark.mDone = new CountDownLatch(1);
+            benchmark.mThread.post(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            final long now = Math.max(2, SystemClock.uptimeMillis());
+            for (Object token : benchmark.mTokens) {
+                // Between 1 and now-1, as the clock starts when the program does.
+                benchmark.mThread.sendMessageAtTime(Message.obtain().withData(token), now - 1 - benchmark.mRandom.nextInt((int) now - 1));
+            }
+            benchmark.mThread.postAtTime(benchmark.mDone::countDown, now);
+        }
+    }
+}
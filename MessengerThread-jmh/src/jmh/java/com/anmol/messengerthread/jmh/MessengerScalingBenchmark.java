@@ -0,0 +1,152 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.Message;
+import com.anmol.java.MessengerThread;
+import com.anmol.java.VirtualMessenger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares many mostly idle {@link MessengerThread}s with as many {@link VirtualMessenger}s.
+ * <ol>
+ *     <li>create: time to create and start them, until they all accept messages.</li>
+ *     <li>throughput: every messenger gets msgs messages, sent from one thread, time until all are processed.</li>
+ * </ol>
+ * Each invocation handles the whole fleet, so divide by messengers (or messengers * msgs) to get the time per messenger (or message).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class MessengerScalingBenchmark {
+
+    @Param({"MessengerThread", "VirtualMessenger"})
+    public String kind;
+
+    @Param({"10000"})
+    public int messengers;
+
+    @Param({"100"})
+    public int msgs;
+
+    private final AtomicLong mProcessed = new AtomicLong();
+    private MessengerThread[] mThreads;
+    private VirtualMessenger[] mVirtual;
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws InterruptedException {
+        if (mThreads != null) {
+            for (MessengerThread thread : mThreads) {
+                thread.close();
+            }
+            for (MessengerThread thread : mThreads) {
+                thread.join();
+            }
+            mThreads = null;
+        }
+        if (mVirtual != null) {
+            for (VirtualMessenger messenger : mVirtual) {
+                messenger.close();
+            }
+            mVirtual = null;
+        }
+    }
+
+    @Benchmark
+    public void create() {
+        createFleet();
+    }
+
+    /**
+     * The fleet is created by {@link Fleet#setUp}.
+     */
+    @Benchmark
+    public void throughput(final Fleet fleet) throws InterruptedException {
+        mProcessed.set(0);
+        for (int m = 0; m < msgs; m++) {
+            if (mThreads != null) {
+                for (MessengerThread thread : mThreads) {
+                    thread.sendMessage(Message.obtain());
+                }
+            } else {
+                for (VirtualMessenger messenger : mVirtual) {
+                    messenger.sendMessage(Message.obtain());
+                }
+            }
+        }
+        final long total = (long) messengers * msgs;
+        while (mProcessed.get() < total) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void createFleet() {
+        if (kind.equals("MessengerThread")) {
+            mThreads = new MessengerThread[messengers];
+            for (int i = 0; i < messengers; i++) {
+                mThreads[i] = new CountingMessengerThread(mProcessed);
+                Benchmarks.start(mThreads[i]);
+            }
+        } else {
+            mVirtual = new VirtualMessenger[messengers];
+            for (int i = 0; i < messengers; i++) {
+                mVirtual[i] = new CountingVirtualMessenger(mProcessed);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+
+        @Setup(Level.Invocation)
+        public void setUp(final MessengerScalingBenchmark benchmark) {
+            benchmark.createFleet();
+        }
+    }
+
+    private static final class CountingMessengerThread extends MessengerThread {
+        private final AtomicLong mProcessed;
+
+        CountingMessengerThread(final AtomicLong processed) {
+            mProcessed = processed;
+        }
+
+        @Override
+        protected void onRun() {
+        }
+
+        @Override
+        protected void onMessage(final Message msg) {
+            mProcessed.incrementAndGet();
+        }
+    }
+
+    private static final class CountingVirtualMessenger extends VirtualMessenger {
+        private final AtomicLong mProcessed;
+
+        CountingVirtualMessenger(final AtomicLong processed) {
+            mProcessed = processed;
+        }
+
+        @Override
+        protected void onMessage(final Message msg) {
+            mProcessed.incrementAndGet();
+        }
+    }
+}
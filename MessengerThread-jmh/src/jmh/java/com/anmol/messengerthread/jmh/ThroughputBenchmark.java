@@ -0,0 +1,93 @@
+package com.anmol.messengerthread.jmh;
+
+import com.anmol.java.Message;
+import com.anmol.java.MessageOrdering;
+import com.anmol.java.MessengerThread;
+import com.anmol.java.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second through one {@link MessengerThread}, sent by one or by several producer threads.
+ * <br>
+ * The queue has a capacity with {@link OverflowPolicy#BLOCK}, so the producers can not run ahead of the consumer,
+ * and the measured send rate is the rate at which the consumer processes them.
+ * <br>
+ * With a ringCapacity, the due messages go through the {@link MessengerThread#withRingBuffer ring buffer} instead of the inbox.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark {
+
+    @Param({"LINKED_LIST", "BINARY_HEAP"})
+    public MessageOrdering ordering;
+
+    @Param({"false", "true"})
+    public boolean batchDrain;
+
+    @Param({"0", "1024"})
+    public int ringCapacity;
+
+    private MessengerThread mThread;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mThread = new CountingMessengerThread();
+        mThread.withOrdering(ordering)
+                .withBatchDrain(batchDrain)
+                .withCapacity(64 * 1024, OverflowPolicy.BLOCK);
+        if (ringCapacity > 0) {
+            mThread.withRingBuffer(ringCapacity);
+        }
+        Benchmarks.start(mThread);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        mThread.close();
+        mThread.join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean singleProducer() {
+        return mThread.sendMessage(Message.obtain());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean multiProducer() {
+        return mThread.sendMessage(Message.obtain());
+    }
+
+    private static final class CountingMessengerThread extends MessengerThread {
+        private long mCount;
+
+        @Override
+        protected void onRun() {
+        }
+
+        @Override
+        protected void onMessage(final Message msg) {
+            mCount++;
+        }
+    }
+}
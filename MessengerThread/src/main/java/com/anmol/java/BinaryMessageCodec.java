@@ -0,0 +1,378 @@
+package com.anmol.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Built-in {@link MessageCodec}: a fixed binary layout, written and read in place, without Java serialization.
+ * <br>
+ * Layout: [long when][int what][int arg1][int arg2][long longArg][byte priority][byte data type][data], so a message without data
+ * is {@value #HEADER} bytes. The data is the rest of the encoding, its length is never written.
+ * <br>
+ * Built-in data types: byte[], String (in UTF-8, encoded char by char, without a byte[] in between), Integer, Long, and the
+ * {@link PayloadArena} block of the message (its bytes, decoded into a block of {@link #withPayloadArena the arena} if there is one,
+ * else into a byte[]). Other types are encoded by the {@link DataCodec} registered for their class, else with Java serialization
+ * as a last resort, which is slow and must be {@link Serializable}: register them.
+ * <br>
+ * Configure it before its used, then its thread safe. Both ends must have the same types registered with the same ids.
+ */
+public final class BinaryMessageCodec implements MessageCodec {
+
+    static final int HEADER = 30;
+    private static final int WHAT = 8;
+    private static final int ARG1 = 12;
+    private static final int ARG2 = 16;
+    private static final int LONG_ARG = 20;
+    private static final int PRIORITY = 28;
+    private static final int DATA_TYPE = 29;
+
+    private static final byte DATA_NONE = 0;
+    private static final byte DATA_BYTES = 1;
+    private static final byte DATA_STRING = 2;
+    private static final byte DATA_INT = 3;
+    private static final byte DATA_LONG = 4;
+    private static final byte DATA_PAYLOAD = 5;
+    private static final byte DATA_SERIALIZED = 6;
+    private static final int FIRST_REGISTERED_ID = 16;
+    private static final int MAX_ID = 127;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    /**
+     * Data serialized last by {@link #encodedLength} on this thread, so {@link #encode} does not serialize it again.
+     */
+    private static final ThreadLocal<Serialized> sSerialized = ThreadLocal.withInitial(Serialized::new);
+
+    /**
+     * Chars decoded from UTF-8, before they are copied in a String. Grows to the longest String decoded on this thread.
+     */
+    private static final ThreadLocal<char[][]> sChars = ThreadLocal.withInitial(() -> new char[][]{new char[64]});
+
+    private final DataCodec<?>[] mCodecs = new DataCodec<?>[MAX_ID + 1];
+    private final Map<Class<?>, Byte> mIds = new HashMap<>();
+    private PayloadArena mArena;
+
+    BinaryMessageCodec() {
+    }
+
+    /**
+     * Encode the data of this exact class (not its subclasses) with the codec.
+     *
+     * @param id Written in the encoding instead of the class name, between 16 and 127 (the lower ones are the built-in types).
+     */
+    public <T> BinaryMessageCodec register(final int id, final Class<T> type, final DataCodec<? super T> codec) {
+        if (id < FIRST_REGISTERED_ID || id > MAX_ID) {
+            throw new IllegalArgumentException("id must be between 16 and 127: " + id);
+        }
+        if (type == null || codec == null) {
+            throw new IllegalArgumentException("type == null || codec == null");
+        }
+        if (mCodecs[id] != null || mIds.containsKey(type)) {
+            throw new IllegalArgumentException("Already registered: " + id + ", " + type);
+        }
+        mCodecs[id] = codec;
+        mIds.put(type, (byte) id);
+        return this;
+    }
+
+    /**
+     * Decode the {@link PayloadArena} blocks into blocks of this arena, so they create no garbage. Null to decode them into a byte[].
+     * A block which does not fit in a free block of the arena is decoded into a byte[] too.
+     */
+    public BinaryMessageCodec withPayloadArena(final PayloadArena arena) {
+        mArena = arena;
+        return this;
+    }
+
+    @Override
+    public int encodedLength(final Message msg) {
+        if (msg.hasPayload()) {
+            return HEADER + msg.payloadLength();
+        }
+        final Object data = msg.data();
+        if (data == null) {
+            return HEADER;
+        }
+        if (data instanceof byte[]) {
+            return HEADER + ((byte[]) data).length;
+        }
+        if (data instanceof String) {
+            return HEADER + utf8Length((String) data);
+        }
+        if (data instanceof Integer) {
+            return HEADER + 4;
+        }
+        if (data instanceof Long) {
+            return HEADER + 8;
+        }
+        final Byte id = mIds.get(data.getClass());
+        if (id != null) {
+            return HEADER + lengthOf(mCodecs[id], data);
+        }
+        return HEADER + sSerialized.get().serialize(data);
+    }
+
+    @Override
+    public void encode(final Message msg, final long when, final ByteBuffer buffer, final int offset) {
+        buffer.putLong(offset, when);
+        buffer.putInt(offset + WHAT, msg.what());
+        buffer.putInt(offset + ARG1, msg.arg1());
+        buffer.putInt(offset + ARG2, msg.arg2());
+        buffer.putLong(offset + LONG_ARG, msg.longArg());
+        buffer.put(offset + PRIORITY, (byte) msg.priority().ordinal());
+
+        final int dataOffset = offset + HEADER;
+        final Object data = msg.data();
+        if (msg.hasPayload()) {
+            buffer.put(offset + DATA_TYPE, DATA_PAYLOAD);
+            buffer.position(dataOffset);
+            buffer.put(msg.payload());
+        } else if (data == null) {
+            buffer.put(offset + DATA_TYPE, DATA_NONE);
+        } else if (data instanceof byte[]) {
+            buffer.put(offset + DATA_TYPE, DATA_BYTES);
+            buffer.position(dataOffset);
+            buffer.put((byte[]) data);
+        } else if (data instanceof String) {
+            buffer.put(offset + DATA_TYPE, DATA_STRING);
+            writeUtf8((String) data, buffer, dataOffset);
+        } else if (data instanceof Integer) {
+            buffer.put(offset + DATA_TYPE, DATA_INT);
+            buffer.putInt(dataOffset, (Integer) data);
+        } else if (data instanceof Long) {
+            buffer.put(offset + DATA_TYPE, DATA_LONG);
+            buffer.putLong(dataOffset, (Long) data);
+        } else {
+            final Byte id = mIds.get(data.getClass());
+            if (id != null) {
+                buffer.put(offset + DATA_TYPE, id);
+                write(mCodecs[id], data, buffer, dataOffset);
+            } else {
+                buffer.put(offset + DATA_TYPE, DATA_SERIALIZED);
+                sSerialized.get().writeTo(data, buffer, dataOffset);
+            }
+        }
+    }
+
+    @Override
+    public long decodeWhen(final ByteBuffer buffer, final int offset) {
+        return buffer.getLong(offset);
+    }
+
+    @Override
+    public Message decode(final ByteBuffer buffer, final int offset, final int length) {
+        final byte type = buffer.get(offset + DATA_TYPE);
+        final int priority = buffer.get(offset + PRIORITY);
+        if (length < HEADER || priority < 0 || priority >= PRIORITIES.length || type < 0 || type > MAX_ID) {
+            throw new IllegalArgumentException("Not a message encoded by a BinaryMessageCodec");
+        }
+        final Message msg = Message.obtain(buffer.getInt(offset + WHAT), buffer.getInt(offset + ARG1), buffer.getInt(offset + ARG2))
+                .withLongArg(buffer.getLong(offset + LONG_ARG))
+                .withPriority(PRIORITIES[priority]);
+
+        final int dataOffset = offset + HEADER;
+        final int dataLength = length - HEADER;
+        try {
+            switch (type) {
+                case DATA_NONE:
+                    break;
+                case DATA_PAYLOAD:
+                    final PayloadArena arena = mArena;
+                    final int block = arena == null || dataLength == 0 || dataLength > arena.slabSize() ? -1 : arena.allocate(dataLength);
+                    if (block >= 0) {
+                        msg.withPayload(arena, block, dataLength);
+                        buffer.limit(dataOffset + dataLength).position(dataOffset);
+                        msg.payload().put(buffer);
+                        buffer.clear();
+                    } else {
+                        msg.withData(readBytes(buffer, dataOffset, dataLength));
+                    }
+                    break;
+                case DATA_BYTES:
+                    msg.withData(readBytes(buffer, dataOffset, dataLength));
+                    break;
+                case DATA_STRING:
+                    msg.withData(readUtf8(buffer, dataOffset, dataLength));
+                    break;
+                case DATA_INT:
+                    checkLength(dataLength, 4);
+                    msg.withData(buffer.getInt(dataOffset));
+                    break;
+                case DATA_LONG:
+                    checkLength(dataLength, 8);
+                    msg.withData(buffer.getLong(dataOffset));
+                    break;
+                case DATA_SERIALIZED:
+                    msg.withData(deserialize(readBytes(buffer, dataOffset, dataLength)));
+                    break;
+                default:
+                    final DataCodec<?> codec = mCodecs[type];
+                    if (codec == null) {
+                        throw new IllegalArgumentException("No DataCodec registered for the id " + type);
+                    }
+                    msg.withData(codec.read(buffer, dataOffset, dataLength));
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            msg.recycleUnchecked(); // Malformed data, the message is not returned.
+            throw e;
+        }
+        return msg;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> int lengthOf(final DataCodec<T> codec, final Object data) {
+        return codec.length((T) data);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void write(final DataCodec<T> codec, final Object data, final ByteBuffer buffer, final int offset) {
+        codec.write((T) data, buffer, offset);
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.limit(offset + length).position(offset);
+        buffer.get(bytes);
+        buffer.clear();
+        return bytes;
+    }
+
+    /**
+     * @return Length of the String in UTF-8, a surrogate pair in 4 bytes, a lone surrogate in 3 like any other char.
+     */
+    static int utf8Length(final String s) {
+        final int chars = s.length();
+        int length = chars;
+        for (int i = 0; i < chars; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 2; // 4 bytes for 2 chars.
+                    i++;
+                } else {
+                    length += 2;
+                }
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private static void writeUtf8(final String s, final ByteBuffer buffer, int offset) {
+        final int chars = s.length();
+        for (int i = 0; i < chars; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put(offset++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(offset++, (byte) (0xc0 | c >> 6));
+                buffer.put(offset++, (byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put(offset++, (byte) (0xf0 | cp >> 18));
+                buffer.put(offset++, (byte) (0x80 | cp >> 12 & 0x3f));
+                buffer.put(offset++, (byte) (0x80 | cp >> 6 & 0x3f));
+                buffer.put(offset++, (byte) (0x80 | cp & 0x3f));
+            } else {
+                buffer.put(offset++, (byte) (0xe0 | c >> 12));
+                buffer.put(offset++, (byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put(offset++, (byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    private static void checkLength(final int length, final int expected) {
+        if (length != expected) {
+            throw new IllegalArgumentException("Data of " + length + " bytes, expected " + expected);
+        }
+    }
+
+    /**
+     * Reads the UTF-8 written by {@link #writeUtf8}, never past the length: a sequence which is cut, or does not start with
+     * a leading byte, is malformed.
+     */
+    private static String readUtf8(final ByteBuffer buffer, int offset, final int length) {
+        final char[][] holder = sChars.get();
+        if (holder[0].length < length) {
+            holder[0] = new char[Math.max(length, holder[0].length * 2)]; // Never more chars than bytes.
+        }
+        final char[] chars = holder[0];
+        final int end = offset + length;
+        int count = 0;
+        while (offset < end) {
+            final int b = buffer.get(offset++);
+            final int more = b >= 0 ? 0 : (b & 0xe0) == 0xc0 ? 1 : (b & 0xf0) == 0xe0 ? 2 : (b & 0xf8) == 0xf0 ? 3 : -1;
+            if (more < 0 || offset + more > end) {
+                throw new IllegalArgumentException("Malformed UTF-8 at byte " + (offset - 1 - (end - length)));
+            }
+            if (more == 0) {
+                chars[count++] = (char) b;
+            } else if (more == 1) {
+                chars[count++] = (char) ((b & 0x1f) << 6 | buffer.get(offset++) & 0x3f);
+            } else if (more == 2) {
+                chars[count++] = (char) ((b & 0x0f) << 12 | (buffer.get(offset++) & 0x3f) << 6 | buffer.get(offset++) & 0x3f);
+            } else {
+                final int cp = (b & 0x07) << 18 | (buffer.get(offset++) & 0x3f) << 12 | (buffer.get(offset++) & 0x3f) << 6
+                        | buffer.get(offset++) & 0x3f;
+                chars[count++] = Character.highSurrogate(cp);
+                chars[count++] = Character.lowSurrogate(cp);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static Object deserialize(final byte[] bytes) {
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objects.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Can not deserialize the data of the message", e);
+        }
+    }
+
+    /**
+     * Java serialization of the last data of a thread, kept from {@link #encodedLength} to {@link #encode}.
+     */
+    private static final class Serialized extends ByteArrayOutputStream {
+        private Object mData;
+
+        /**
+         * @return Number of bytes.
+         */
+        int serialize(final Object data) {
+            if (!(data instanceof Serializable)) {
+                throw new IllegalArgumentException("The data must be Serializable, or have a DataCodec registered: " + data.getClass());
+            }
+            mData = null;
+            reset();
+            try (ObjectOutputStream objects = new ObjectOutputStream(this)) {
+                objects.writeObject(data);
+            } catch (NotSerializableException e) {
+                throw new IllegalArgumentException("The data must be Serializable, or have a DataCodec registered", e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mData = data;
+            return count;
+        }
+
+        void writeTo(final Object data, final ByteBuffer buffer, final int offset) {
+            if (mData != data) {
+                serialize(data);
+            }
+            buffer.position(offset);
+            buffer.put(buf, 0, count);
+            mData = null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.anmol.java;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Handles the readiness of a channel registered on a {@link MessengerThread} with a selector, see {@link MessengerThread#register}.
+ */
+public interface ChannelHandler {
+
+    /**
+     * Called on the messenger thread, between two messages, when the channel is ready for some of its interest ops.
+     *
+     * @param key Key of the channel, with its ready ops. Its attachment is this handler, do not replace it.
+     *            Its cancelled if this throws, see {@link MessengerThread#withSelector()}.
+     */
+    void onReady(SelectionKey key);
+}
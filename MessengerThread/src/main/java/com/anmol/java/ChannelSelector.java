@@ -0,0 +1,103 @@
+package com.anmol.java;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Selector} the consumer of a {@link MessageQueue} waits in, instead of parking, see {@link MessengerThread#withSelector()}.
+ * <br>
+ * The consumer selects until the head message is due (or forever if there is none), and the producers wake it up with
+ * {@link Selector#wakeup()} instead of unparking it. The ready channels are handled by their {@link ChannelHandler} on the consumer
+ * thread, between two messages, through {@link Consumer#dispatchChannel} like the messages. While messages keep coming, so the consumer never waits, the channels are still checked
+ * every {@value #MESSAGES_PER_POLL} messages, without blocking.
+ */
+final class ChannelSelector {
+
+    /**
+     * Messages taken without checking the channels, at most. A check is a system call, so its not done for every message.
+     */
+    static final int MESSAGES_PER_POLL = 32;
+
+    private final Selector mSelector;
+    private int mTaken; // Messages taken since the channels were checked last.
+    private Consumer mConsumer; // Dispatches the ready channels. Set once the consumer is created, before it first waits.
+
+    ChannelSelector(final Selector selector) {
+        mSelector = selector;
+    }
+
+    Selector selector() {
+        return mSelector;
+    }
+
+    void setConsumer(final Consumer consumer) {
+        mConsumer = consumer;
+    }
+
+    /**
+     * Wait for a channel to be ready, or for a wake up. Then the consumer calls {@link #dispatchSelected()}.
+     *
+     * @param waitNanos Time until the head message is due, -1 to wait until woken up.
+     */
+    void select(final long waitNanos) {
+        try {
+            if (waitNanos < 0 || waitNanos > Long.MAX_VALUE - 999_999) {
+                mSelector.select();
+            } else {
+                // Rounded up, as a timeout of 0 means forever. So a message due in less than 1ms can be up to 1ms late.
+                mSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mTaken = 0;
+    }
+
+    /**
+     * Called for every message taken by the consumer, so the channels are checked now and then even if it never waits.
+     */
+    void onTaken() {
+        if (++mTaken < MESSAGES_PER_POLL) {
+            return;
+        }
+        mTaken = 0;
+        try {
+            if (mSelector.selectNow() == 0) {
+                return;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dispatchSelected();
+    }
+
+    void wakeUp() {
+        mSelector.wakeup();
+    }
+
+    void close() {
+        try {
+            mSelector.close();
+        } catch (IOException ignored) {
+            // Nothing left to release.
+        }
+    }
+
+    /**
+     * Handle the channels found ready by the last select.
+     */
+    void dispatchSelected() {
+        final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+            if (key.isValid()) {
+                mConsumer.dispatchChannel((ChannelHandler) key.attachment(), key);
+            }
+        }
+    }
+}
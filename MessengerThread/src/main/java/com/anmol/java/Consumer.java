@@ -1,18 +1,41 @@
 package com.anmol.java;
 
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Loops through the messageQueue associated with the {@link MessengerThread}, until it is closed.
+ * <br>
+ * A Consumer can also be detached from any thread (see {@link #detached}), then its owner calls {@link #dispatch} itself,
+ * like {@link VirtualMessenger} does.
  */
 final class Consumer {
 
     private static final ThreadLocal<Consumer> sThreadLocal = new ThreadLocal<>();
+    private static final AtomicLongFieldUpdater<Consumer> DISPATCHES = AtomicLongFieldUpdater.newUpdater(Consumer.class, "mDispatches");
 
     private final MessageQueue mQueue; // Queue to loop on.
-    private final Thread mThread; // Thread who's Queue is to read the messages from.
+    private final MessageHandler mHandler; // Handles the messages which are not Runnables.
+    private final boolean mDrainBatch; // If all the due messages are taken from the queue at once, and dispatched outside its lock.
+    private final QueueMetrics mMetrics; // Metrics of the queue, null if they are off.
+    private final boolean mWatched; // If a Watchdog samples this consumer.
 
-    private Consumer() {
-        mQueue = new MessageQueue();
-        mThread = Thread.currentThread();
+    /**
+     * What is being dispatched, for the {@link Watchdog}, only kept if watched. The count goes up when a dispatch starts, and again
+     * when it ends, so its odd while dispatching. The classes describe the dispatch, and are written before the count goes odd,
+     * which publishes them: the count is the only shared write, an ordered one (no fence), and the watchdog times the dispatch itself.
+     * The message itself is not kept, as its recycled (and maybe reused by another sender) once dispatched.
+     */
+    private volatile long mDispatches;
+    private Class<?> mCallbackClass;
+    private Class<?> mDataClass;
+
+    private Consumer(final MessageQueue queue, final MessageHandler handler, final boolean drainBatch, final boolean watched) {
+        mQueue = queue;
+        mHandler = handler;
+        mDrainBatch = drainBatch;
+        mWatched = watched;
+        mMetrics = queue.metrics();
     }
 
     /**
@@ -21,10 +44,50 @@ final class Consumer {
      * Currently its Package protected, as you can directly extend the {@link MessengerThread}, and save yourself from all this stuff.
      */
     static void init() {
+        init(new MessageQueue(new QueueConfig()));
+    }
+
+    /**
+     * Same as {@link #init()}, but consumes from the given queue, which must be created on this thread.
+     */
+    static void init(final MessageQueue queue) {
+        init(queue, false);
+    }
+
+    /**
+     * Same as {@link #init(MessageQueue)}.
+     *
+     * @param drainBatch If true, all the due messages are taken from the queue with one lock acquisition, see {@link MessageQueue#nextBatch()}.
+     */
+    static void init(final MessageQueue queue, final boolean drainBatch) {
+        final Thread thread = Thread.currentThread();
+        init(queue, msg -> ((MessengerThread) thread).onMessage(msg), drainBatch);
+    }
+
+    /**
+     * Same as {@link #init(MessageQueue, boolean)}, with the handler of the messages.
+     */
+    static void init(final MessageQueue queue, final MessageHandler handler, final boolean drainBatch) {
+        init(queue, handler, drainBatch, false);
+    }
+
+    /**
+     * Same as {@link #init(MessageQueue, MessageHandler, boolean)}.
+     *
+     * @param watched If a {@link Watchdog} will sample this consumer, so it has to track the message it dispatches.
+     */
+    static void init(final MessageQueue queue, final MessageHandler handler, final boolean drainBatch, final boolean watched) {
         if (sThreadLocal.get() != null) {
             throw new RuntimeException("Only one Consumer should be created per thread");
         }
-        sThreadLocal.set(new Consumer());
+        sThreadLocal.set(new Consumer(queue, handler, drainBatch, watched));
+    }
+
+    /**
+     * Consumer which is not bound to any thread, and does not loop. Its owner reads the queue, and calls {@link #dispatch} itself.
+     */
+    static Consumer detached(final MessageQueue queue, final MessageHandler handler) {
+        return new Consumer(queue, handler, false, false);
     }
 
     /**
@@ -36,6 +99,11 @@ final class Consumer {
             throw new RuntimeException("Consumer::init() wasn't called on this thread.");
         }
 
+        if (me.mDrainBatch) {
+            me.loopBatches();
+            return;
+        }
+
         while (true) { // Loop infinitely until the consumer is stopped.
             final Message msg = me.mQueue.next(); // Might block
             if (msg == null) {
@@ -43,16 +111,130 @@ final class Consumer {
                 return;
             }
 
-            // Reaching here means the message is read.
+            me.dispatch(msg);
+        }
+    }
+
+    /**
+     * Same as the loop of {@link #start()}, but it takes all the due messages from the queue at once.
+     */
+    private void loopBatches() {
+        while (true) { // Loop infinitely until the consumer is stopped.
+            Message msg = mQueue.nextBatch(); // Might block
+            if (msg == null) {
+                // No message indicates that the message queue is quitting.
+                return;
+            }
+
+            while (msg != null) {
+                final Message n = msg.next;
+                msg.next = null;
+                if (mQueue.isDroppingTaken() && !(msg.callback() instanceof Promise)) {
+                    // Stopped while dispatching this batch, so drop the rest like the queue dropped its messages.
+                    // But not the replies, which the queue would have delivered anyway, see Promise#redeliver().
+                    msg.recycleUnchecked();
+                } else {
+                    dispatch(msg);
+                }
+                msg = n;
+            }
+        }
+    }
+
+    /**
+     * Handle the message read from the queue, then recycle it.
+     * <br>
+     * A message (or Runnable) sent to a {@link Messenger} which is closed is dropped instead: a send racing with its close
+     * can add it after the close removed the pending ones.
+     */
+    void dispatch(final Message msg) {
+        if (msg.target != null && msg.target.isClosed()) {
+            msg.recycleUnchecked(); // Like removed by the close.
+            return;
+        }
+        // Reaching here means the message is read.
+        if (mWatched) {
+            onDispatchStart(msg.callback(), msg.data());
+        }
+        final QueueMetrics metrics = mMetrics;
+        final long start = metrics == null ? 0 : metrics.onDispatch(msg);
+        try {
             if (msg.callback() != null) {
                 msg.callback().run();
             } else {
-                ((MessengerThread) myConsumer().mThread).onMessage(msg);
+                mHandler.handleMessage(msg);
             }
-
-            // Message is handled, so it can be recycled now, to make it reusable in the Message Pool.
+            if (metrics != null) {
+                metrics.onHandled(start);
+            }
+            if (msg.journal != null) {
+                msg.journal.dispatched(msg.journalId);
+                msg.journal = null;
+            }
+        } finally {
+            // Message is handled (or its handler threw, then a request is cancelled), so it can be recycled now,
+            // to make it reusable in the Message Pool.
             msg.recycleUnchecked();
+            if (mWatched) {
+                DISPATCHES.lazySet(this, mDispatches + 1); // Even again, done.
+            }
+        }
+    }
+
+    /**
+     * Handle a channel found ready while the consumer waits in {@link MessageQueue#next()}, like a message: watched and timed.
+     * <br>
+     * But as its handled inside next(), a handler which throws does not stop the consumer: its reported to the uncaught exception handler
+     * of the thread, and its key is cancelled, else it would throw again for the same readiness.
+     */
+    void dispatchChannel(final ChannelHandler handler, final SelectionKey key) {
+        if (mWatched) {
+            onDispatchStart(handler, key.channel());
         }
+        final QueueMetrics metrics = mMetrics;
+        final long start = metrics == null ? 0 : metrics.onDispatchChannel();
+        try {
+            handler.onReady(key);
+            if (metrics != null) {
+                metrics.onHandled(start);
+            }
+        } catch (Throwable t) {
+            key.cancel();
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+        } finally {
+            if (mWatched) {
+                DISPATCHES.lazySet(this, mDispatches + 1); // Even again, done.
+            }
+        }
+    }
+
+    private void onDispatchStart(final Object callback, final Object data) {
+        mCallbackClass = callback == null ? null : callback.getClass();
+        mDataClass = data == null ? null : data.getClass();
+        DISPATCHES.lazySet(this, mDispatches + 1); // Odd, dispatching. Single writer, so no need to be atomic.
+    }
+
+    /**
+     * @return Dispatches started and ended, if watched. Odd while dispatching. Read it before and after the classes,
+     * if it did not change, they describe that dispatch.
+     */
+    long dispatches() {
+        return mDispatches;
+    }
+
+    /**
+     * @return Class of the Runnable (or {@link ChannelHandler}) of the dispatch in progress, null if its a {@link Message} for the handler.
+     */
+    Class<?> dispatchingCallbackClass() {
+        return mCallbackClass;
+    }
+
+    /**
+     * @return Class of the data of the message (or of the channel) being dispatched, null if it has none.
+     */
+    Class<?> dispatchingDataClass() {
+        return mDataClass;
     }
 
     static Consumer myConsumer() {
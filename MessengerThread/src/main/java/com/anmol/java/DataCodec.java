@@ -0,0 +1,28 @@
+package com.anmol.java;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire form of a type of {@link Message#data()}, registered in a {@link BinaryMessageCodec}, so its encoded without Java serialization.
+ * <br>
+ * Like a {@link MessageCodec}, it writes and reads in place with the absolute operations of the buffer, and must be thread safe.
+ *
+ * @param <T> Type of the data.
+ */
+public interface DataCodec<T> {
+
+    /**
+     * @return Number of bytes {@link #write} will write for the value.
+     */
+    int length(T value);
+
+    /**
+     * Write the value at the offset of the buffer, in {@link #length} bytes.
+     */
+    void write(T value, ByteBuffer buffer, int offset);
+
+    /**
+     * @return The value written at the offset, in length bytes.
+     */
+    T read(ByteBuffer buffer, int offset, int length);
+}
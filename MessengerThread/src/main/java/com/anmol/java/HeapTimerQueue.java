@@ -0,0 +1,203 @@
+package com.anmol.java;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * {@link TimerQueue} keeping the messages in a binary min-heap, ordered on their {@link Message#when}, then {@link Message#sequence}.
+ * <br>
+ * Insert and dispatch are O(log n), which keeps enqueueing cheap with a large number of pending delayed messages.
+ * <br>
+ * The sequence is an insertion counter, so messages with the same when are FIFO.
+ * Messages with when=0 get a decreasing sequence instead, so the last one sent at front of queue goes first.
+ * <br>
+ * Every message knows its {@link Message#heapIndex}, so a given message is removed in O(log n) too.
+ */
+final class HeapTimerQueue implements TimerQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Message[] mHeap = new Message[INITIAL_CAPACITY];
+    private int mSize;
+    private long mSequence; // Incremented for every insertion.
+
+    @Override
+    public void insert(final Message msg) {
+        msg.sequence = msg.when() == 0 ? -(++mSequence) : ++mSequence;
+        if (mSize == mHeap.length) {
+            mHeap = Arrays.copyOf(mHeap, mSize << 1);
+        }
+        siftUp(mSize++, msg);
+    }
+
+    @Override
+    public Message peek() {
+        return mSize == 0 ? null : mHeap[0];
+    }
+
+    @Override
+    public Message poll() {
+        if (mSize == 0) {
+            return null;
+        }
+        final Message msg = mHeap[0];
+        removeAt(0);
+        return msg;
+    }
+
+    @Override
+    public Message findFirst(final Predicate<Message> filter) {
+        return findFirst(0, filter, null);
+    }
+
+    /**
+     * Depth first from the index. The subtree of a matching message is skipped, as the children of a message are not before it,
+     * and so are the subtrees which are not before the best match found so far.
+     */
+    private Message findFirst(final int index, final Predicate<Message> filter, final Message best) {
+        if (index >= mSize || (best != null && !before(mHeap[index], best))) {
+            return best;
+        }
+        if (filter.test(mHeap[index])) {
+            return mHeap[index];
+        }
+        return findFirst((index << 1) + 2, filter, findFirst((index << 1) + 1, filter, best));
+    }
+
+    @Override
+    public boolean remove(final Message msg) {
+        final int index = msg.heapIndex;
+        if (index < 0 || index >= mSize || mHeap[index] != msg) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean contains(final Predicate<Message> filter) {
+        for (int i = 0; i < mSize; i++) {
+            if (filter.test(mHeap[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void removeIf(final Predicate<Message> filter) {
+        // Compact the messages to keep, then rebuild the heap in O(n), rather than removing them one by one.
+        int kept = 0;
+        for (int i = 0; i < mSize; i++) {
+            final Message msg = mHeap[i];
+            if (filter.test(msg)) {
+                msg.heapIndex = -1;
+                msg.recycleUnchecked();
+            } else {
+                mHeap[kept++] = msg;
+            }
+        }
+        if (kept == mSize) {
+            return;
+        }
+        Arrays.fill(mHeap, kept, mSize, null);
+        mSize = kept;
+        heapify();
+        shrinkIfSparse();
+    }
+
+    @Override
+    public void removeAfter(final long when) {
+        removeIf(msg -> msg.when() > when);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mHeap[i].heapIndex = -1;
+            mHeap[i].recycleUnchecked();
+        }
+        mHeap = new Message[INITIAL_CAPACITY];
+        mSize = 0;
+    }
+
+    private void removeAt(final int index) {
+        final Message removed = mHeap[index];
+        final int last = --mSize;
+        final Message moved = mHeap[last];
+        mHeap[last] = null;
+        if (index != last) {
+            // Put the last message in the hole, and move it down or up to where it belongs.
+            siftDown(index, moved);
+            if (mHeap[index] == moved) {
+                siftUp(index, moved);
+            }
+        }
+        removed.heapIndex = -1;
+        shrinkIfSparse();
+    }
+
+    private void heapify() {
+        for (int i = (mSize >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, mHeap[i]);
+        }
+    }
+
+    private void siftUp(int index, final Message msg) {
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            final Message p = mHeap[parent];
+            if (!before(msg, p)) {
+                break;
+            }
+            mHeap[index] = p;
+            p.heapIndex = index;
+            index = parent;
+        }
+        mHeap[index] = msg;
+        msg.heapIndex = index;
+    }
+
+    private void siftDown(int index, final Message msg) {
+        final int half = mSize >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            Message c = mHeap[child];
+            final int right = child + 1;
+            if (right < mSize && before(mHeap[right], c)) {
+                child = right;
+                c = mHeap[child];
+            }
+            if (!before(c, msg)) {
+                break;
+            }
+            mHeap[index] = c;
+            c.heapIndex = index;
+            index = child;
+        }
+        mHeap[index] = msg;
+        msg.heapIndex = index;
+    }
+
+    /**
+     * Give the memory back once a burst of messages is dispatched.
+     */
+    private void shrinkIfSparse() {
+        if (mHeap.length > INITIAL_CAPACITY && mSize < (mHeap.length >>> 2)) {
+            mHeap = Arrays.copyOf(mHeap, mHeap.length >>> 1);
+        }
+    }
+
+    private static boolean before(final Message a, final Message b) {
+        return a.when() < b.when() || (a.when() == b.when() && a.sequence < b.sequence);
+    }
+}
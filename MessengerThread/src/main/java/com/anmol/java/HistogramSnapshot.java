@@ -0,0 +1,70 @@
+package com.anmol.java;
+
+/**
+ * Summary of a histogram of durations, at the time it was taken. All the values are in nanoseconds.
+ * <br>
+ * Percentiles are accurate within about 3%, see {@link MessengerMetrics}.
+ */
+public final class HistogramSnapshot {
+    private final long mCount;
+    private final long mMin;
+    private final long mMax;
+    private final double mMean;
+    private final long mP50;
+    private final long mP90;
+    private final long mP99;
+    private final long mP999;
+
+    HistogramSnapshot(final long count, final long min, final long max, final double mean,
+                      final long p50, final long p90, final long p99, final long p999) {
+        mCount = count;
+        mMin = min;
+        mMax = max;
+        mMean = mean;
+        mP50 = p50;
+        mP90 = p90;
+        mP99 = p99;
+        mP999 = p999;
+    }
+
+    /**
+     * Number of values recorded.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMin() {
+        return mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mMean;
+    }
+
+    public long getP50() {
+        return mP50;
+    }
+
+    public long getP90() {
+        return mP90;
+    }
+
+    public long getP99() {
+        return mP99;
+    }
+
+    public long getP999() {
+        return mP999;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount + " min=" + mMin + " p50=" + mP50 + " p90=" + mP90 + " p99=" + mP99
+                + " p99.9=" + mP999 + " max=" + mMax + " mean=" + (long) mMean + " (ns)";
+    }
+}
@@ -0,0 +1,87 @@
+package com.anmol.java;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Implementations of {@link IdleStrategy}.
+ */
+final class IdleStrategies {
+
+    static final IdleStrategy PARK = round -> false;
+
+    static final IdleStrategy BUSY_SPIN = round -> {
+        onSpinWait();
+        return true;
+    };
+
+    /**
+     * Thread.onSpinWait(), which only exists on Java 9+. Null before that, then spinning is a plain loop.
+     */
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+
+    private IdleStrategies() {
+    }
+
+    /**
+     * Spin, yield, then park, with the spins adapting to how long the consumer waits, see {@link IdleStrategy#backoff}.
+     */
+    static final class Backoff implements IdleStrategy {
+        private final int mMinSpins;
+        private final int mMaxSpins;
+        private final int mYields;
+        private int mSpins; // Spins before yielding, between mMinSpins and mMaxSpins.
+
+        Backoff(final int maxSpins, final int yields) {
+            if (maxSpins < 0 || yields < 0) {
+                throw new IllegalArgumentException("maxSpins < 0 || yields < 0");
+            }
+            // Spinning on the only CPU only delays the sender, like the JVM does for its locks, only yield then.
+            mMaxSpins = Runtime.getRuntime().availableProcessors() > 1 ? maxSpins : 0;
+            mMinSpins = mMaxSpins >> 3;
+            mYields = yields;
+            mSpins = mMaxSpins;
+        }
+
+        @Override
+        public boolean idle(final int round) {
+            if (round < mSpins) {
+                onSpinWait();
+                return true;
+            }
+            if (round - mSpins < mYields) {
+                Thread.yield();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onIdleEnd(final boolean parked) {
+            if (parked) {
+                mSpins = Math.max(mMinSpins, mSpins >> 1);
+            } else {
+                mSpins = (int) Math.min(mMaxSpins, Math.max(1L, (long) mSpins << 1));
+            }
+        }
+    }
+
+    private static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable neverThrown) {
+                throw new AssertionError(neverThrown);
+            }
+        }
+    }
+
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException notOnThisJvm) {
+            return null;
+        }
+    }
+}
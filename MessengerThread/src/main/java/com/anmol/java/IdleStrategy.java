@@ -0,0 +1,61 @@
+package com.anmol.java;
+
+/**
+ * What the consumer of a {@link MessengerThread} does while it has nothing due, before parking, see {@link MessengerThread#withIdleStrategy}.
+ * <br>
+ * Parking costs a few microseconds of wake up latency on the next message (the sender unparks the consumer, then the OS schedules it).
+ * Spinning saves that latency, at the cost of a CPU kept busy while idle. Each messenger picks its trade off:
+ * <ol>
+ *     <li>{@link #park()}: park right away. The default, no CPU used while idle.</li>
+ *     <li>{@link #backoff(int, int)}: spin, then yield, then park. The spins adapt to how long the consumer usually waits.</li>
+ *     <li>{@link #busySpin()}: never park. Lowest latency, but burns a whole core, even with nothing to do.</li>
+ * </ol>
+ * Spinning only pays off with a spare core for the consumer: on a single CPU it takes the time of the sender instead.
+ * The consumer stops idling as soon as a message is sent (or the head message is due), whatever the strategy.
+ * An instance keeps state, so it must not be shared by several messengers.
+ */
+public interface IdleStrategy {
+
+    /**
+     * Called in a loop by the consumer, while it has nothing due.
+     *
+     * @param round Number of times it was already called since the consumer had nothing to do, 0 the first time.
+     * @return True if it idled (spin, yield...) and the consumer should check again, false if the consumer should park now.
+     */
+    boolean idle(int round);
+
+    /**
+     * Called once the consumer stopped idling.
+     *
+     * @param parked False if a message came while idling, true if it gave up and parked.
+     */
+    default void onIdleEnd(final boolean parked) {
+    }
+
+    /**
+     * @return A strategy which parks right away.
+     */
+    static IdleStrategy park() {
+        return IdleStrategies.PARK;
+    }
+
+    /**
+     * @return A strategy which never parks.
+     */
+    static IdleStrategy busySpin() {
+        return IdleStrategies.BUSY_SPIN;
+    }
+
+    /**
+     * Spin, then yield the CPU, then park. The number of spins adapts between 1/8 of maxSpins and maxSpins:
+     * it doubles when a message came while spinning or yielding, and halves when the consumer had to park,
+     * so a messenger which is fed in bursts spins, and one which is mostly idle parks quickly. On a single CPU it never spins, only yields.
+     *
+     * @param maxSpins  Max times to spin before yielding.
+     * @param maxYields Times to yield before parking.
+     * @return A new strategy, for one messenger.
+     */
+    static IdleStrategy backoff(final int maxSpins, final int maxYields) {
+        return new IdleStrategies.Backoff(maxSpins, maxYields);
+    }
+}
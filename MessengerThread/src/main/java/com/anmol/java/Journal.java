@@ -0,0 +1,394 @@
+package com.anmol.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the delayed messages of a {@link MessengerThread}, so they survive a restart, see {@link MessengerThread#withJournal}.
+ * <br>
+ * Its a directory of fixed size segment files, each memory-mapped. Records are appended to the last segment:
+ * an ADD record when a message is sent, a DONE record once its dispatched or removed. Appending is a copy into the mapping,
+ * the segments are forced to disk by a shared flusher thread every flush interval, so all the records of an interval share one
+ * fsync (group commit) and the senders never wait for the disk. A crash loses at most the last interval.
+ * <br>
+ * Record: [int length][int crc32 of the body][body], body: [byte type][long id][payload]. A length of 0 is the end of a segment.
+ * The payload of an ADD is the message encoded by the {@link MessageCodec} of the journal, with its time as a wall-clock deadline
+ * (uptime restarts with the process).
+ * <br>
+ * Compaction: a DONE record only refers to an ADD of the same or an older segment, so the oldest segment is deleted once all its
+ * messages are done. When a new segment is started, the messages still pending in the oldest one are copied into it,
+ * so a message delayed by hours does not keep all the segments written since.
+ */
+final class Journal {
+    static final int SEGMENT_SIZE = 4 << 20;
+    private static final int MAGIC = 0x4d544a32; // MTJ2, the payloads are encoded by a MessageCodec.
+    private static final int RECORD_HEADER = 8; // length, crc.
+    private static final byte ADD = 1;
+    private static final byte DONE = 2;
+    private static final int DONE_LENGTH = 9;
+    private static final String SUFFIX = ".journal";
+
+    private static final ScheduledExecutorService sFlusher = newFlusher();
+
+    private final File mDirectory;
+    private final long mFlushIntervalMillis;
+    private final MessageCodec mCodec;
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<>(); // Oldest first, the last one is appended to.
+    private final HashMap<Long, Entry> mPending = new HashMap<>(); // ADD records not yet done, by id.
+    private final CRC32 mCrc = new CRC32();
+    private long mNextId = 1;
+    private long mNextSegment = 1;
+    private ScheduledFuture<?> mFlush;
+    private volatile boolean mClosing; // Messages dropped from now on are kept pending, so they are replayed.
+
+    Journal(final File directory, final long flushIntervalMillis, final MessageCodec codec) {
+        mDirectory = directory;
+        mFlushIntervalMillis = flushIntervalMillis;
+        mCodec = codec;
+    }
+
+    /**
+     * Read the segments left by the previous run, and start a new segment. Called by the consumer thread, before any message is sent.
+     *
+     * @return The pending messages, in the order they were sent, with their time in {@link SystemClock#uptimeNanos()}
+     * (in {@link Message#when}). They are journaled already.
+     */
+    synchronized List<Message> open() {
+        final List<Message> messages;
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can not create " + mDirectory);
+            }
+            final File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+            if (files == null) {
+                throw new IOException("Can not list " + mDirectory);
+            }
+            Arrays.sort(files); // Names are zero padded numbers.
+            for (File file : files) {
+                final Segment segment = new Segment(file, map(file));
+                mSegments.add(segment);
+                mNextSegment = Math.max(mNextSegment, segment.number + 1);
+                readSegment(segment);
+            }
+            deleteDoneSegments();
+            roll(0);
+
+            messages = new ArrayList<>(mPending.size());
+            for (Map.Entry<Long, Entry> pending : new TreeMap<>(mPending).entrySet()) {
+                final Entry entry = pending.getValue();
+                final Message msg = decode(entry);
+                msg.journal = this;
+                msg.journalId = pending.getKey();
+                messages.add(msg);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Can not open the journal in " + mDirectory, e);
+        }
+        mFlush = sFlusher.scheduleWithFixedDelay(this::flush, mFlushIntervalMillis, mFlushIntervalMillis, TimeUnit.MILLISECONDS);
+        return messages;
+    }
+
+    /**
+     * Journal the message, before its sent with this time. Called by any sender.
+     *
+     * @throws IllegalArgumentException If the codec can not encode its data.
+     */
+    void append(final Message msg, final long when) {
+        final long deadlineMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(when - SystemClock.uptimeNanos());
+        final int length = mCodec.encodedLength(msg); // Out of the lock, its the slow part if the codec has one.
+        if (RECORD_HEADER + DONE_LENGTH + length > SEGMENT_SIZE - 8) { // A segment starts with its magic, and ends with a 0 length.
+            throw new IllegalArgumentException("Message too large for the journal: " + length + " bytes");
+        }
+        synchronized (this) {
+            if (mClosing) {
+                return; // Not journaled, it would not be dispatched anyway.
+            }
+            final long id = mNextId++;
+            final Entry entry = write(ADD, id, msg, deadlineMillis, length);
+            mPending.put(id, entry);
+            entry.segment.pending++;
+            msg.journal = this;
+            msg.journalId = id;
+        }
+    }
+
+    /**
+     * The journaled message was dispatched, so its not replayed anymore.
+     */
+    void dispatched(final long id) {
+        done(id);
+    }
+
+    /**
+     * The journaled message was removed (or not added). Unless the messenger is closing, its not replayed anymore.
+     */
+    void dropped(final long id) {
+        if (!mClosing) {
+            done(id);
+        }
+    }
+
+    private synchronized void done(final long id) {
+        final Entry entry = mPending.remove(id);
+        if (entry == null || mSegments.isEmpty()) {
+            return;
+        }
+        write(DONE, id, null, 0, 0);
+        entry.segment.pending--;
+        deleteDoneSegments();
+    }
+
+    /**
+     * From now on, the messages dropped are kept pending, as they are dropped by the close of the messenger.
+     */
+    void close() {
+        mClosing = true;
+    }
+
+    /**
+     * Force everything to disk, and stop the flushes. Called by the consumer thread once its done.
+     */
+    void shutdown() {
+        final ScheduledFuture<?> flush;
+        synchronized (this) {
+            mClosing = true;
+            flush = mFlush;
+        }
+        if (flush != null) {
+            flush.cancel(false);
+        }
+        flush();
+        synchronized (this) {
+            mSegments.clear();
+            mPending.clear();
+        }
+    }
+
+    /**
+     * Group commit: force the segments written since the last flush. Run on the flusher thread, out of the lock.
+     */
+    private void flush() {
+        final List<Segment> dirty = new ArrayList<>(2);
+        synchronized (this) {
+            for (Segment segment : mSegments) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+        }
+        for (Segment segment : dirty) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Append a record to the last segment, starting a new one if its full. The message is encoded in place.
+     *
+     * @param msg           Message of an ADD, null for a DONE.
+     * @param payloadLength Its {@link MessageCodec#encodedLength(Message)}.
+     */
+    private Entry write(final byte type, final long id, final Message msg, final long deadlineMillis, final int payloadLength) {
+        Segment segment = mSegments.peekLast();
+        final int length = RECORD_HEADER + DONE_LENGTH + payloadLength;
+        while (segment.position + length > SEGMENT_SIZE - 4) { // Keep room for the 0 length which ends the segment.
+            roll(length);
+            segment = mSegments.peekLast();
+        }
+        final int offset = segment.position;
+        final ByteBuffer buffer = segment.buffer;
+        buffer.put(offset + RECORD_HEADER, type);
+        buffer.putLong(offset + RECORD_HEADER + 1, id);
+        if (msg != null) {
+            mCodec.encode(msg, deadlineMillis, buffer, offset + RECORD_HEADER + DONE_LENGTH);
+        }
+        buffer.putInt(offset + 4, crc(buffer, offset, length));
+        buffer.putInt(offset, length); // Last, so a record is never read before its written.
+        segment.position = offset + length;
+        segment.dirty = true;
+        return new Entry(segment, offset, length);
+    }
+
+    /**
+     * Start a new segment, then move the pending messages of the oldest one into it, so the oldest can be deleted.
+     * The ones which do not fit are moved by the next roll.
+     *
+     * @param reserve Room to keep in the new segment, for the record which made it roll.
+     */
+    private void roll(final int reserve) {
+        try {
+            final File file = new File(mDirectory, String.format("%019d%s", mNextSegment, SUFFIX));
+            final Segment segment = new Segment(file, map(file));
+            mNextSegment++;
+            segment.buffer.putInt(0, MAGIC);
+            segment.position = 4;
+            mSegments.add(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Segment oldest = mSegments.peekFirst();
+        final Segment last = mSegments.peekLast();
+        if (oldest == last || oldest.pending == 0) {
+            return;
+        }
+        for (Map.Entry<Long, Entry> pending : mPending.entrySet()) {
+            final Entry entry = pending.getValue();
+            if (entry.segment != oldest) {
+                continue;
+            }
+            if (last.position + entry.length > SEGMENT_SIZE - 4 - reserve) {
+                break; // Does not fit, the next roll carries on.
+            }
+            // Copy the record as is. Replayed twice if we crash before the oldest is deleted, with the same id, so only once.
+            final int offset = last.position;
+            for (int i = 0; i < entry.length; i++) {
+                last.buffer.put(offset + i, entry.segment.buffer.get(entry.offset + i));
+            }
+            last.position = offset + entry.length;
+            last.dirty = true;
+            oldest.pending--;
+            last.pending++;
+            pending.setValue(new Entry(last, offset, entry.length));
+        }
+        last.buffer.force(); // The copies must be on disk before the oldest segment is gone.
+        deleteDoneSegments();
+    }
+
+    /**
+     * Delete the oldest segments, as long as they have no pending message.
+     */
+    private void deleteDoneSegments() {
+        while (mSegments.size() > 1 && mSegments.peekFirst().pending == 0) {
+            final Segment segment = mSegments.pollFirst();
+            if (!segment.file.delete()) {
+                segment.file.deleteOnExit();
+            }
+        }
+    }
+
+    private void readSegment(final Segment segment) {
+        final ByteBuffer buffer = segment.buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            return; // Not written yet, or not ours.
+        }
+        int offset = 4;
+        while (offset + RECORD_HEADER + DONE_LENGTH <= SEGMENT_SIZE) {
+            final int length = buffer.getInt(offset);
+            if (length < RECORD_HEADER + DONE_LENGTH || offset + length > SEGMENT_SIZE || !checkCrc(buffer, offset, length)) {
+                break; // End of the segment, or a record torn by a crash.
+            }
+            final byte type = buffer.get(offset + RECORD_HEADER);
+            final long id = buffer.getLong(offset + RECORD_HEADER + 1);
+            mNextId = Math.max(mNextId, id + 1);
+            if (type == ADD) {
+                final Entry previous = mPending.put(id, new Entry(segment, offset, length));
+                if (previous != null) {
+                    previous.segment.pending--; // Copied by a roll.
+                }
+                segment.pending++;
+            } else if (type == DONE) {
+                final Entry entry = mPending.remove(id);
+                if (entry != null) {
+                    entry.segment.pending--;
+                }
+            }
+            offset += length;
+        }
+        segment.position = offset;
+    }
+
+    private boolean checkCrc(final ByteBuffer buffer, final int offset, final int length) {
+        return crc(buffer, offset, length) == buffer.getInt(offset + 4);
+    }
+
+    /**
+     * @return crc32 of the body of the record.
+     */
+    private int crc(final ByteBuffer buffer, final int offset, final int length) {
+        mCrc.reset();
+        buffer.limit(offset + length).position(offset + RECORD_HEADER);
+        mCrc.update(buffer);
+        buffer.clear();
+        return (int) mCrc.getValue();
+    }
+
+    private static MappedByteBuffer map(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE); // Stays valid once the channel is closed.
+        }
+    }
+
+    /**
+     * @return The message of the ADD record, with its time in {@link SystemClock#uptimeNanos()}.
+     */
+    private Message decode(final Entry entry) {
+        final int offset = entry.offset + RECORD_HEADER + DONE_LENGTH;
+        final ByteBuffer buffer = entry.segment.buffer;
+        final long deadlineMillis = mCodec.decodeWhen(buffer, offset);
+        final Message msg = mCodec.decode(buffer, offset, entry.length - RECORD_HEADER - DONE_LENGTH);
+        buffer.clear();
+        final long when = SystemClock.uptimeNanos() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis - System.currentTimeMillis());
+        msg.setWhen(Math.max(when, 1)); // Overdue ones are due right away, but not at front of queue.
+        return msg;
+    }
+
+    private static ScheduledExecutorService newFlusher() {
+        final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "MessengerThread-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.setRemoveOnCancelPolicy(true);
+        return flusher;
+    }
+
+    private static final class Segment {
+        final File file;
+        final long number;
+        final MappedByteBuffer buffer;
+        int position; // Where the next record goes.
+        int pending; // ADD records of this segment not yet done.
+        boolean dirty; // Written since the last flush.
+
+        Segment(final File file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            final String name = file.getName();
+            this.number = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        }
+    }
+
+    /**
+     * Where the ADD record of a pending message is.
+     */
+    private static final class Entry {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Entry(final Segment segment, final int offset, final int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.anmol.java;
+
+import java.util.function.Predicate;
+
+/**
+ * {@link TimerQueue} with one lane per {@link Priority}, each lane being a {@link TimerQueue} of the chosen {@link MessageOrdering}.
+ * <br>
+ * The head is chosen among the lanes whose head is due, with weighted rounds: every lane has a credit of its weight,
+ * the highest lane with a due head and some credit goes first and spends one. Once no lane with a due head has credit,
+ * or nothing is due at all, every credit is refilled. If nothing is due, the head is the earliest of all the lanes,
+ * so the consumer still waits for the right time.
+ * <br>
+ * Only {@link #poll()} spends credit: {@link #peek()} is called by the senders and by the waiting consumer, as often as they like,
+ * so it only looks. The lane it picks is kept for the next poll, so both return the same message, until the lanes change
+ * (or a head becomes due, if none was).
+ */
+final class LaneTimerQueue implements TimerQueue {
+    private final TimerQueue[] mLanes;
+    private final int[] mWeights;
+    private final int[] mCredits;
+    private int mPicked = -1; // Lane picked by the last peek(), -1 if it has to be picked again.
+    private boolean mPickedDue; // If the head of the picked lane was due, else it stays picked only until something is due.
+
+    /**
+     * @param weights Weight of every lane, in the order of {@link Priority}.
+     */
+    LaneTimerQueue(final MessageOrdering ordering, final int[] weights) {
+        final int lanes = Priority.values().length;
+        mLanes = new TimerQueue[lanes];
+        for (int i = 0; i < lanes; i++) {
+            mLanes[i] = ordering.newTimerQueue();
+        }
+        mWeights = weights.clone();
+        mCredits = weights.clone();
+    }
+
+    @Override
+    public void insert(final Message msg) {
+        mLanes[msg.priority().ordinal()].insert(msg);
+        mPicked = -1;
+    }
+
+    @Override
+    public Message peek() {
+        final int lane = picked();
+        return lane < 0 ? null : mLanes[lane].peek();
+    }
+
+    @Override
+    public Message poll() {
+        final int lane = picked();
+        if (lane < 0) {
+            return null;
+        }
+        mPicked = -1;
+        if (!mPickedDue || mCredits[lane] == 0) {
+            // The round is over: either the due lanes spent their credit, or nothing is due (the lanes start afresh when busy again).
+            System.arraycopy(mWeights, 0, mCredits, 0, mCredits.length);
+        }
+        mCredits[lane]--;
+        return mLanes[lane].poll();
+    }
+
+    /**
+     * @return The earliest match of all the lanes, the one of the highest lane if they are due at the same time.
+     */
+    @Override
+    public Message findFirst(final Predicate<Message> filter) {
+        Message first = null;
+        for (TimerQueue lane : mLanes) {
+            final Message found = lane.findFirst(filter);
+            if (found != null && (first == null || found.when() < first.when())) {
+                first = found;
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public boolean remove(final Message msg) {
+        mPicked = -1;
+        return mLanes[msg.priority().ordinal()].remove(msg);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (TimerQueue lane : mLanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (TimerQueue lane : mLanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean contains(final Predicate<Message> filter) {
+        for (TimerQueue lane : mLanes) {
+            if (lane.contains(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void removeIf(final Predicate<Message> filter) {
+        mPicked = -1;
+        for (TimerQueue lane : mLanes) {
+            lane.removeIf(filter);
+        }
+    }
+
+    @Override
+    public void removeAfter(final long when) {
+        mPicked = -1;
+        for (TimerQueue lane : mLanes) {
+            lane.removeAfter(when);
+        }
+    }
+
+    @Override
+    public void clear() {
+        mPicked = -1;
+        for (TimerQueue lane : mLanes) {
+            lane.clear();
+        }
+    }
+
+    /**
+     * @return The lane picked last, if its still right, else the one picked now.
+     */
+    private int picked() {
+        if (mPicked < 0 || (!mPickedDue && mLanes[mPicked].peek().when() <= SystemClock.uptimeNanos())) {
+            mPicked = pick();
+        }
+        return mPicked;
+    }
+
+    /**
+     * Pick the lane of the message to dispatch first, without spending its credit. Sets {@link #mPickedDue}.
+     *
+     * @return The lane, -1 if all the lanes are empty.
+     */
+    private int pick() {
+        final long now = SystemClock.uptimeNanos();
+        int spent = -1; // Highest lane with a due head, but no credit left. It goes first once the credits are refilled.
+        int earliest = -1;
+        long earliestWhen = Long.MAX_VALUE;
+        for (int i = 0; i < mLanes.length; i++) {
+            final Message head = mLanes[i].peek();
+            if (head == null) {
+                continue;
+            }
+            if (head.when() <= now) {
+                if (mCredits[i] > 0) {
+                    mPickedDue = true;
+                    return i;
+                }
+                if (spent < 0) {
+                    spent = i;
+                }
+            } else if (earliest < 0 || head.when() < earliestWhen) {
+                earliest = i;
+                earliestWhen = head.when();
+            }
+        }
+        mPickedDue = spent >= 0;
+        return spent >= 0 ? spent : earliest;
+    }
+}
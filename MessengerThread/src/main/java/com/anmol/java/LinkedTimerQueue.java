@@ -0,0 +1,202 @@
+package com.anmol.java;
+
+import java.util.function.Predicate;
+
+/**
+ * {@link TimerQueue} keeping the messages in a linked list(linked by {@link Message#next}), sorted on their {@link Message#when}.
+ * <br>
+ * Insert is O(n) as it walks the list to find the slot, dispatch is O(1).
+ * It is the cheapest for short queues, and for messages inserted in increasing when, as the walk continues from the last inserted message.
+ * <br>
+ * Removing a given message walks the list up to it, as its singly linked.
+ */
+final class LinkedTimerQueue implements TimerQueue {
+    private Message mMessages; // All the messages(its a linked list).
+    private Message mLastInserted; // Where to continue the search from, if the next message is not before it.
+    private int mSize;
+
+    @Override
+    public void insert(final Message msg) {
+        mSize++;
+        final long when = msg.when();
+        Message p = mMessages;
+        if (p == null || when == 0 || when < p.when()) {
+            msg.next = p; // as it has when before the first msg, add it at the head
+            mMessages = msg; // and reset head to this.
+            mLastInserted = msg;
+            return;
+        }
+
+        if (mLastInserted != null && mLastInserted.when() <= when) {
+            p = mLastInserted;
+        }
+
+        // Find the appropriate slot to place this message, based on its when.
+        Message prev;
+        do {
+            prev = p;
+            p = p.next;
+        } while (p != null && when >= p.when());
+        msg.next = p;
+        prev.next = msg;
+        mLastInserted = msg;
+    }
+
+    @Override
+    public Message peek() {
+        return mMessages;
+    }
+
+    @Override
+    public Message poll() {
+        final Message msg = mMessages;
+        if (msg != null) {
+            mMessages = msg.next;
+            msg.next = null;
+            mSize--;
+            if (msg == mLastInserted) {
+                mLastInserted = null;
+            }
+        }
+        return msg;
+    }
+
+    @Override
+    public Message findFirst(final Predicate<Message> filter) {
+        for (Message p = mMessages; p != null; p = p.next) {
+            if (filter.test(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(final Message msg) {
+        Message prev = null;
+        Message p = mMessages;
+        while (p != null && p != msg) {
+            prev = p;
+            p = p.next;
+        }
+        if (p == null) {
+            return false;
+        }
+
+        if (prev == null) {
+            mMessages = p.next;
+        } else {
+            prev.next = p.next;
+        }
+        p.next = null;
+        mSize--;
+        if (p == mLastInserted) {
+            mLastInserted = prev;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mMessages == null;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean contains(final Predicate<Message> filter) {
+        Message p = mMessages;
+        while (p != null) {
+            if (filter.test(p)) {
+                return true;
+            }
+            p = p.next;
+        }
+        return false;
+    }
+
+    @Override
+    public void removeIf(final Predicate<Message> filter) {
+        Message p = mMessages;
+
+        // Remove all messages at front.
+        while (p != null && filter.test(p)) {
+            Message n = p.next;
+            mMessages = n;
+            recycle(p);
+            p = n;
+        }
+
+        // Remove all messages after front.
+        while (p != null) {
+            Message n = p.next;
+            if (n != null) {
+                if (filter.test(n)) {
+                    Message nn = n.next;
+                    recycle(n);
+                    p.next = nn;
+                    continue;
+                }
+            }
+            p = n;
+        }
+    }
+
+    @Override
+    public void removeAfter(final long when) {
+        Message p = mMessages;
+        if (p == null) {
+            return;
+        }
+        if (p.when() > when) {
+            // All messages to the next of p are added after this p, so they can be removed.
+            clear();
+            return;
+        }
+
+        Message n;
+        while (true) { // Keep iterating until we find the message to be processed in the future.
+            n = p.next;
+            if (n == null) {
+                // Reached end, no more messages.
+                return;
+            }
+            if (n.when() > when) {
+                break;
+            }
+            p = n;
+        }
+        p.next = null; // p is the last message which should be processed. So do not remove them.
+
+        // Recycled/remove all messages after n(n being the first message to be processed in the future).
+        do {
+            p = n;
+            n = p.next;
+            recycle(p);
+        } while (n != null);
+    }
+
+    @Override
+    public void clear() {
+        Message p = mMessages; // Iterate over the LinkedList and remove one message at a time.
+        while (p != null) {
+            final Message n = p.next;
+            p.recycleUnchecked();
+            p = n;
+        }
+        mMessages = null;
+        mLastInserted = null;
+        mSize = 0;
+    }
+
+    private void recycle(final Message msg) {
+        if (msg == mLastInserted) {
+            mLastInserted = null;
+        }
+        mSize--;
+        msg.recycleUnchecked();
+    }
+}
@@ -0,0 +1,113 @@
+package com.anmol.java;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, with buckets growing log-linearly like HdrHistogram: every power of 2 is split in
+ * {@value #HALF} linear buckets, so a value is known within about 3%, from 1ns up to {@link #MAX_VALUE} (about 18 minutes).
+ * Larger values are counted as {@link #MAX_VALUE}.
+ * <br>
+ * It is written by a single thread (the consumer), and {@link #record} does not allocate nor take a lock.
+ * Other threads can take a {@link #snapshot()} at any time, which might miss the values being recorded at the same time.
+ */
+final class LogLinearHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int HALF = 1 << (SUB_BITS - 1); // Buckets per power of 2.
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray mStats = new AtomicLongArray(3); // COUNT, SUM, MAX.
+
+    /**
+     * Count the value. Must only be called by the writer thread.
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        // Single writer, so no CAS is needed, and lazySet is enough for the readers to see it soon.
+        final int index = index(value);
+        mBuckets.lazySet(index, mBuckets.get(index) + 1);
+        mStats.lazySet(COUNT, mStats.get(COUNT) + 1);
+        mStats.lazySet(SUM, mStats.get(SUM) + value);
+        if (value > mStats.get(MAX)) {
+            mStats.lazySet(MAX, value);
+        }
+    }
+
+    long count() {
+        return mStats.get(COUNT);
+    }
+
+    /**
+     * Clear all the values. A value recorded at the same time might be partly kept.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mStats.set(COUNT, 0);
+        mStats.set(SUM, 0);
+        mStats.set(MAX, 0);
+    }
+
+    HistogramSnapshot snapshot() {
+        final double[] percentiles = {50, 90, 99, 99.9};
+        final long[] values = new long[percentiles.length];
+
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mBuckets.get(i);
+        }
+        final long max = mStats.get(MAX);
+        final long sum = mStats.get(SUM);
+        if (total == 0) {
+            return new HistogramSnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+        }
+
+        long min = -1;
+        long seen = 0;
+        int p = 0;
+        for (int i = 0; i < BUCKETS && p < percentiles.length; i++) {
+            final long count = mBuckets.get(i);
+            if (count == 0) {
+                continue;
+            }
+            if (min < 0) {
+                min = lowerBound(i);
+            }
+            seen += count;
+            while (p < percentiles.length && seen >= Math.ceil(total * percentiles[p] / 100)) {
+                values[p++] = Math.min(upperBound(i), max);
+            }
+        }
+        return new HistogramSnapshot(total, Math.max(min, 0), max, sum / (double) total, values[0], values[1], values[2], values[3]);
+    }
+
+    private static int index(final long value) {
+        if (value < 2 * HALF) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long lowerBound(final int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        final int shift = index / HALF - 1;
+        return (long) (index - shift * HALF) << shift;
+    }
+
+    private static long upperBound(final int index) {
+        return lowerBound(index + 1) - 1;
+    }
+}
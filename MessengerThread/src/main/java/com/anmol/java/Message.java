@@ -1,6 +1,7 @@
 package com.anmol.java;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Message packets which are send across the Threads.
@@ -11,57 +12,159 @@ import java.io.Serializable;
 public final class Message implements Serializable {
 
     private static final int FLAG_IN_USE = 1;
-    private static final int FLAGS_TO_CLEAR_ON_COPY_FROM = FLAG_IN_USE;
-    private int flags;
+    private static final int FLAG_PINNED = 1 << 1; // Sent with a key to a MessengerGroup, so it must not be stolen by another member.
+    private static final int FLAG_SLOT = 1 << 2; // Slot of a MessageRing, so it is never pooled.
+    private static final int FLAGS_TO_CLEAR_ON_COPY_FROM = FLAG_IN_USE | FLAG_PINNED | FLAG_SLOT;
+    private transient int flags;
 
     /**
-     * Time at which this message should be processed.
+     * Time at which this message should be processed, in {@link SystemClock#uptimeNanos()}.
      * This message will not be dispatched by the consumer before this time.
      */
-    long when;
+    transient long when;
 
     /**
      * Actual data this message contains.
      */
     private Object data;
 
+    /**
+     * Code of the message, so the receiver can tell what it is about without boxing anything. 0 by default.
+     */
+    private int what;
+
+    /**
+     * Primitive arguments, cheaper than boxing them in {@link #data}.
+     */
+    private int arg1, arg2;
+    private long longArg;
+
     /**
      * Callback who can handle this message after its read by the consumer.
      */
-    private Runnable callback;
+    private transient Runnable callback;
+
+    /**
+     * Lane of this message, with {@link MessengerThread#withPriorityLanes() priority lanes}. {@link Priority#NORMAL} by default.
+     */
+    private Priority priority = Priority.NORMAL;
+
+    /**
+     * Block of a {@link PayloadArena} this message owns, if it was obtained from one. Released when its recycled.
+     */
+    private transient PayloadArena payloadArena;
+    private transient int payloadOffset, payloadLength;
+
+    /**
+     * Link to the next message in the {@link MessageQueue} inbox, or in a {@link LinkedTimerQueue}.
+     */
+    transient Message next;
+
+    /**
+     * Insertion order in a {@link HeapTimerQueue}, to order the messages with the same {@link #when}.
+     */
+    transient long sequence;
+
+    /**
+     * Position in a {@link HeapTimerQueue}, -1 if its not in any.
+     */
+    transient int heapIndex = -1;
+
+    /**
+     * Links of the {@link MessageIndex} chains, of the pending messages with the same {@link #data} and the same {@link #callback}.
+     */
+    transient Message prevByData, nextByData, prevByCallback, nextByCallback;
+
+    /**
+     * Links of the {@link MessageIndex} chain of the pending messages (without callback) with the same {@link #what}.
+     */
+    transient Message prevByWhat, nextByWhat;
+
+    /**
+     * {@link Messenger} of a {@link MessengerLoop} it is sent to, null if its sent to a messenger which has its own thread.
+     * Its pending messages are chained through the links of the {@link MessageIndex}.
+     */
+    transient Messenger target;
+    transient Message prevByTarget, nextByTarget;
 
     /**
-     * Linked list to maintain a pool of messages.
+     * Key it was sent with by a coalescing send, while its pending in a {@link MessageQueue}. Null otherwise.
      */
-    Message next;
+    transient Object coalesceKey;
 
-    private static final Object sPoolSync = new Object();
-    private static Message sPool; // Pool to avoid unnecessary object creations.
-    private static int sPoolSize = 0;
+    /**
+     * Result the sender waits for, if its a request (see {@link MessengerThread#sendForResult}), with the generation it was sent with.
+     */
+    transient Promise promise;
+    transient long promiseGeneration;
 
-    private static final int MAX_POOL_SIZE = 50;
+    /**
+     * Journal it is written to, if its a delayed message of a {@link MessengerThread#withJournal durable} messenger, with its id there.
+     */
+    transient Journal journal;
+    transient long journalId;
 
     /**
      * Get the empty message which you can set data/callback on.
      * <br>
      * Private Constructor so that the message is always reused, and pulled from the pool.
+     * The pool is lock-free, see {@link MessagePool}.
      */
     public static Message obtain() {
-        synchronized (sPoolSync) {
-            if (sPool != null) {
-                Message m = sPool;
-                sPool = m.next;
-                m.next = null;
-                m.flags = 0; // clear in-use flag
-                sPoolSize--;
-                return m;
-            }
+        final Message m = MessagePool.obtain();
+        if (m != null) {
+            m.flags = 0; // clear in-use flag
+            return m;
         }
         return new Message(); // No message in the pool? Create a new one then.
     }
 
     /**
-     * Clones the Message.
+     * Same as {@link #obtain()}, with the {@link #what()} set.
+     */
+    public static Message obtain(final int what) {
+        final Message m = obtain();
+        m.what = what;
+        return m;
+    }
+
+    /**
+     * Same as {@link #obtain()}, with the {@link #what()} and the int arguments set.
+     */
+    public static Message obtain(final int what, final int arg1, final int arg2) {
+        final Message m = obtain();
+        m.what = what;
+        m.arg1 = arg1;
+        m.arg2 = arg2;
+        return m;
+    }
+
+    /**
+     * Change the number of recycled messages shared by all the threads, on top of the small cache every thread has.
+     * <br>
+     * The messages pooled so far are dropped. 0 disables the shared pool.
+     * Default can also be set with the system property {@value MessagePool#PROPERTY_POOL_SIZE}.
+     */
+    public static void setPoolSize(final int size) {
+        MessagePool.setPoolSize(size);
+    }
+
+    /**
+     * Number of times {@link #obtain()} reused a recycled message.
+     */
+    public static long poolHits() {
+        return MessagePool.hits();
+    }
+
+    /**
+     * Number of times {@link #obtain()} had to create a new message, as the pool was empty.
+     */
+    public static long poolMisses() {
+        return MessagePool.misses();
+    }
+
+    /**
+     * Clones the Message. Not its {@link #payload()}, which has only one owner, see {@link #takePayload(Message)}.
      */
     public static Message obtain(final Message orig) {
         final Message m = obtain();
@@ -69,6 +172,11 @@ public final class Message implements Serializable {
         if (orig.data != null) {
             m.data = orig.data;
         }
+        m.what = orig.what;
+        m.arg1 = orig.arg1;
+        m.arg2 = orig.arg2;
+        m.longArg = orig.longArg;
+        m.priority = orig.priority;
         return m;
     }
 
@@ -88,27 +196,130 @@ public final class Message implements Serializable {
      * Useful when we want to clear the messages explicitly.
      */
     void recycleUnchecked() {
-        flags = FLAG_IN_USE;
+        final boolean slot = isSlot();
+        flags = slot ? FLAG_IN_USE | FLAG_SLOT : FLAG_IN_USE;
         when = 0;
         callback = null;
         data = null;
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        longArg = 0;
+        priority = Priority.NORMAL;
+        prevByData = null;
+        nextByData = null;
+        prevByCallback = null;
+        nextByCallback = null;
+        prevByWhat = null;
+        nextByWhat = null;
+        target = null;
+        prevByTarget = null;
+        nextByTarget = null;
+        coalesceKey = null;
+        next = null;
+        if (journal != null) {
+            journal.dropped(journalId);
+            journal = null;
+        }
+        if (promise != null) {
+            // Dropped, or handled without a reply.
+            promise.cancel(promiseGeneration, "Request not replied: dropped, or handled without a reply");
+            promise = null;
+        }
+        if (payloadArena != null) {
+            payloadArena.release(payloadOffset);
+            payloadArena = null;
+        }
 
-        synchronized (sPoolSync) {
-            if (sPoolSize < MAX_POOL_SIZE)
-                next = sPool;
-            sPool = this;
-            sPoolSize++;
+        if (!slot) {
+            MessagePool.recycle(this); // A slot stays in its ring.
         }
     }
 
     public void copyFrom(Message o) {
-        this.flags = o.flags & ~FLAGS_TO_CLEAR_ON_COPY_FROM;
+        this.flags = (o.flags & ~FLAGS_TO_CLEAR_ON_COPY_FROM) | (this.flags & FLAG_SLOT);
 
         if (o.data != null) {
             this.data = o.data;
         } else {
             this.data = null;
         }
+        this.what = o.what;
+        this.arg1 = o.arg1;
+        this.arg2 = o.arg2;
+        this.longArg = o.longArg;
+        this.priority = o.priority;
+    }
+
+    /**
+     * Take the content of the other message: its data, callback, what, arguments, target and priority. Not its time nor its flags.
+     * As the priority picks the lane, a queued message must be taken out of its {@link TimerQueue} while it changes.
+     * <br>
+     * If the other one is a request, its promise moves here. The promise this one had is cancelled, as it will never be replied.
+     * Same for the {@link PayloadArena} block: the one of the other message moves here, the one this message had is released.
+     */
+    void replacePayload(final Message o) {
+        if (promise != null) {
+            promise.cancel(promiseGeneration, "Request replaced by a newer message");
+        }
+        promise = o.promise;
+        promiseGeneration = o.promiseGeneration;
+        o.promise = null;
+        if (payloadArena != null) {
+            payloadArena.release(payloadOffset);
+        }
+        payloadArena = o.payloadArena;
+        payloadOffset = o.payloadOffset;
+        payloadLength = o.payloadLength;
+        o.payloadArena = null;
+        data = o.data;
+        callback = o.callback;
+        target = o.target;
+        what = o.what;
+        arg1 = o.arg1;
+        arg2 = o.arg2;
+        longArg = o.longArg;
+        priority = o.priority;
+    }
+
+    /**
+     * Reply to this request, from {@link MessengerThread#onMessage}. The sender gets the result on its own messenger, if it has one.
+     * <br>
+     * A request must be replied before onMessage returns, else the sender gets a {@link java.util.concurrent.CancellationException}.
+     *
+     * @return False if this message is not a request, or is already replied.
+     */
+    public boolean reply(final Object result) {
+        return promise != null && promise.settle(promiseGeneration, result, null);
+    }
+
+    /**
+     * Same as {@link #reply(Object)}, but the request failed.
+     */
+    public boolean replyError(final Throwable error) {
+        if (error == null) {
+            throw new IllegalArgumentException("error == null");
+        }
+        return promise != null && promise.settle(promiseGeneration, null, error);
+    }
+
+    /**
+     * @return True if the sender waits for a {@link #reply(Object)}.
+     */
+    public boolean expectsReply() {
+        return promise != null;
+    }
+
+    /**
+     * Make this message a request, before its sent.
+     */
+    Message withPromise(final Promise promise) {
+        if (isInUse()) {
+            throw new IllegalStateException(this + " This message is already in use.");
+        }
+        this.promise = promise;
+        this.promiseGeneration = promise.generation();
+        return this;
     }
 
     public Object data() {
@@ -120,6 +331,110 @@ public final class Message implements Serializable {
         return this;
     }
 
+    public int what() {
+        return what;
+    }
+
+    public Message withWhat(final int what) {
+        this.what = what;
+        return this;
+    }
+
+    public int arg1() {
+        return arg1;
+    }
+
+    public int arg2() {
+        return arg2;
+    }
+
+    public Message withArgs(final int arg1, final int arg2) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        return this;
+    }
+
+    public long longArg() {
+        return longArg;
+    }
+
+    public Message withLongArg(final long longArg) {
+        this.longArg = longArg;
+        return this;
+    }
+
+    /**
+     * @return True if this message owns a block of a {@link PayloadArena}.
+     */
+    public boolean hasPayload() {
+        return payloadArena != null;
+    }
+
+    /**
+     * The block of the {@link PayloadArena} this message owns, to write or read in place. Null if it has none.
+     * <br>
+     * Its the view of the arena of the calling thread, with the position at the start of the block and the limit at its end,
+     * so its not allocated, but its only valid until the next call on this thread. Use its absolute operations from
+     * {@link #payloadOffset()}, or its relative ones.
+     */
+    public ByteBuffer payload() {
+        return payloadArena == null ? null : payloadArena.view(payloadOffset, payloadLength);
+    }
+
+    /**
+     * Offset of the payload block in its {@link PayloadArena}, for the absolute operations of {@link #payload()}.
+     */
+    public int payloadOffset() {
+        return payloadOffset;
+    }
+
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Move the payload block of the other message to this one, like to forward it from onMessage without copying it.
+     * The other message no longer has a payload, and the block this one had is released.
+     */
+    public Message takePayload(final Message from) {
+        if (from == this || from.payloadArena == null) {
+            return this;
+        }
+        if (payloadArena != null) {
+            payloadArena.release(payloadOffset);
+        }
+        payloadArena = from.payloadArena;
+        payloadOffset = from.payloadOffset;
+        payloadLength = from.payloadLength;
+        from.payloadArena = null;
+        return this;
+    }
+
+    /**
+     * Give the block to this message, which then owns it.
+     */
+    Message withPayload(final PayloadArena arena, final int offset, final int length) {
+        payloadArena = arena;
+        payloadOffset = offset;
+        payloadLength = length;
+        return this;
+    }
+
+    public Priority priority() {
+        return priority;
+    }
+
+    /**
+     * Set the lane of this message, before sending it. Only used by a {@link MessengerThread} with {@link MessengerThread#withPriorityLanes() priority lanes}.
+     */
+    public Message withPriority(final Priority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority == null");
+        }
+        this.priority = priority;
+        return this;
+    }
+
     long when() {
         return when;
     }
@@ -145,6 +460,39 @@ public final class Message implements Serializable {
         flags |= FLAG_IN_USE;
     }
 
+    void markNotInUse() {
+        flags &= ~FLAG_IN_USE;
+    }
+
+    boolean isPinned() {
+        return ((flags & FLAG_PINNED) == FLAG_PINNED);
+    }
+
+    void markPinned() {
+        flags |= FLAG_PINNED;
+    }
+
+    boolean isSlot() {
+        return ((flags & FLAG_SLOT) == FLAG_SLOT);
+    }
+
+    /**
+     * @return A message for a slot of a {@link MessageRing}. Its always in use, so its never recycled to the pool.
+     */
+    static Message newSlot() {
+        final Message m = new Message();
+        m.flags = FLAG_IN_USE | FLAG_SLOT;
+        return m;
+    }
+
+    /**
+     * A deserialized message is replaced by one from the pool, with the same content. Only the content is serialized,
+     * not its time, its links to a queue, its flags nor its Runnable. Prefer a {@link MessageCodec}, which is much cheaper.
+     */
+    private Object readResolve() {
+        return obtain(this);
+    }
+
     private Message() {
     }
 }
@@ -0,0 +1,49 @@
+package com.anmol.java;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire form of a {@link Message}, for the journal of the delayed messages (see {@link MessengerThread#withJournal(java.io.File, long, MessageCodec)})
+ * and the messengers of another process (see {@link RemoteMessenger}).
+ * <br>
+ * A message is encoded with a time, its when in the form the caller needs (a deadline, a delay...), and its content:
+ * what, arguments, priority and data. Never its links to a queue, its flags nor its Runnable.
+ * <br>
+ * The encoding is written in place, at an offset of a buffer which the caller sized with {@link #encodedLength(Message)},
+ * so the buffer can be a memory mapping. A codec may move the position and the limit of the buffer, so a buffer must only be used by
+ * one thread at a time. The codecs themselves are thread safe.
+ * <br>
+ * Default is {@link #binary()}.
+ */
+public interface MessageCodec {
+
+    /**
+     * @return Number of bytes {@link #encode} will write for the message. Called first, so it can do the slow part (if any),
+     * out of the locks of the caller.
+     * @throws IllegalArgumentException If the data of the message can not be encoded.
+     */
+    int encodedLength(Message msg);
+
+    /**
+     * Write the message and the time at the offset of the buffer, in {@link #encodedLength(Message)} bytes.
+     */
+    void encode(Message msg, long when, ByteBuffer buffer, int offset);
+
+    /**
+     * @return The time the message at the offset was encoded with.
+     */
+    long decodeWhen(ByteBuffer buffer, int offset);
+
+    /**
+     * @param length Number of bytes of the encoding, as given by {@link #encodedLength(Message)}.
+     * @return A new message (from the pool) with the content of the encoded one.
+     */
+    Message decode(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * @return A new codec with the built-in binary format, see {@link BinaryMessageCodec}.
+     */
+    static BinaryMessageCodec binary() {
+        return new BinaryMessageCodec();
+    }
+}
@@ -0,0 +1,9 @@
+package com.anmol.java;
+
+/**
+ * Receives the messages (without a {@link Runnable}) dispatched by a {@link Consumer}, like {@link MessengerThread#onMessage}.
+ */
+interface MessageHandler {
+
+    void handleMessage(Message msg);
+}
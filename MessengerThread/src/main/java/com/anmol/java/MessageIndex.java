@@ -0,0 +1,270 @@
+package com.anmol.java;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Identity index of the pending messages of a {@link MessageQueue}, by their {@link Message#data} and by their {@link Message#callback}.
+ * Messages without callback are also indexed by their {@link Message#what()}, in an int keyed table so nothing is boxed.
+ * Messages sent to a {@link Messenger} of a {@link MessengerLoop} are also indexed by their {@link Message#target}.
+ * <br>
+ * Messages with the same data (or callback) are chained through their own links ({@link Message#nextByData} etc.),
+ * so finding them costs the number of matches instead of the queue length, and unlinking one is O(1).
+ * <br>
+ * The data and callback of a message must not change while its pending, else it can not be unlinked.
+ * It is not thread safe, {@link MessageQueue} only calls it while holding its lock.
+ */
+final class MessageIndex {
+    private final IdentityHashMap<Object, Message> mByData = new IdentityHashMap<>(); // Head of the chain of every data.
+    private final IdentityHashMap<Runnable, Message> mByCallback = new IdentityHashMap<>(); // Head of the chain of every callback.
+    private final WhatHeads mByWhat = new WhatHeads(); // Head of the chain of every what.
+    private final IdentityHashMap<Messenger, Message> mByTarget = new IdentityHashMap<>(); // Head of the chain of every target.
+
+    void add(final Message msg) {
+        final Object data = msg.data();
+        if (data != null) {
+            final Message head = mByData.put(data, msg);
+            msg.prevByData = null;
+            msg.nextByData = head;
+            if (head != null) {
+                head.prevByData = msg;
+            }
+        }
+
+        final Runnable callback = msg.callback();
+        if (callback != null) {
+            final Message head = mByCallback.put(callback, msg);
+            msg.prevByCallback = null;
+            msg.nextByCallback = head;
+            if (head != null) {
+                head.prevByCallback = msg;
+            }
+        } else {
+            final Message head = mByWhat.put(msg.what(), msg);
+            msg.prevByWhat = null;
+            msg.nextByWhat = head;
+            if (head != null) {
+                head.prevByWhat = msg;
+            }
+        }
+
+        final Messenger target = msg.target;
+        if (target != null) {
+            final Message head = mByTarget.put(target, msg);
+            msg.prevByTarget = null;
+            msg.nextByTarget = head;
+            if (head != null) {
+                head.prevByTarget = msg;
+            }
+        }
+    }
+
+    void remove(final Message msg) {
+        final Object data = msg.data();
+        if (data != null) {
+            final Message prev = msg.prevByData;
+            final Message next = msg.nextByData;
+            if (prev != null) {
+                prev.nextByData = next;
+            } else if (next != null) {
+                mByData.put(data, next);
+            } else {
+                mByData.remove(data);
+            }
+            if (next != null) {
+                next.prevByData = prev;
+            }
+            msg.prevByData = null;
+            msg.nextByData = null;
+        }
+
+        final Runnable callback = msg.callback();
+        if (callback != null) {
+            final Message prev = msg.prevByCallback;
+            final Message next = msg.nextByCallback;
+            if (prev != null) {
+                prev.nextByCallback = next;
+            } else if (next != null) {
+                mByCallback.put(callback, next);
+            } else {
+                mByCallback.remove(callback);
+            }
+            if (next != null) {
+                next.prevByCallback = prev;
+            }
+            msg.prevByCallback = null;
+            msg.nextByCallback = null;
+        } else {
+            final Message prev = msg.prevByWhat;
+            final Message next = msg.nextByWhat;
+            if (prev != null) {
+                prev.nextByWhat = next;
+            } else if (next != null) {
+                mByWhat.put(msg.what(), next);
+            } else {
+                mByWhat.remove(msg.what());
+            }
+            if (next != null) {
+                next.prevByWhat = prev;
+            }
+            msg.prevByWhat = null;
+            msg.nextByWhat = null;
+        }
+
+        final Messenger target = msg.target;
+        if (target != null) {
+            final Message prev = msg.prevByTarget;
+            final Message next = msg.nextByTarget;
+            if (prev != null) {
+                prev.nextByTarget = next;
+            } else if (next != null) {
+                mByTarget.put(target, next);
+            } else {
+                mByTarget.remove(target);
+            }
+            if (next != null) {
+                next.prevByTarget = prev;
+            }
+            msg.prevByTarget = null;
+            msg.nextByTarget = null;
+        }
+    }
+
+    /**
+     * @return First of the pending messages with this data, the others follow through {@link Message#nextByData}. Null if none.
+     */
+    Message firstByData(final Object data) {
+        return mByData.get(data);
+    }
+
+    /**
+     * @return First of the pending messages with this callback, the others follow through {@link Message#nextByCallback}. Null if none.
+     */
+    Message firstByCallback(final Runnable callback) {
+        return mByCallback.get(callback);
+    }
+
+    /**
+     * @return First of the pending messages without callback with this what, the others follow through {@link Message#nextByWhat}. Null if none.
+     */
+    Message firstByWhat(final int what) {
+        return mByWhat.get(what);
+    }
+
+    /**
+     * @return First of the pending messages sent to this messenger, the others follow through {@link Message#nextByTarget}. Null if none.
+     */
+    Message firstByTarget(final Messenger target) {
+        return mByTarget.get(target);
+    }
+
+    /**
+     * Forget all the messages. Their links are cleared when they are recycled.
+     */
+    void clear() {
+        mByData.clear();
+        mByCallback.clear();
+        mByWhat.clear();
+        mByTarget.clear();
+    }
+
+    /**
+     * Open addressing hash table from a what to the head of its chain, with linear probing, so the keys are not boxed.
+     */
+    private static final class WhatHeads {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private int[] mKeys = new int[INITIAL_CAPACITY];
+        private Message[] mHeads = new Message[INITIAL_CAPACITY]; // Null for a free slot.
+        private int mSize;
+
+        Message get(final int key) {
+            final int mask = mHeads.length - 1;
+            for (int i = slot(key, mask); mHeads[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return mHeads[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The previous head of the key, null if none.
+         */
+        Message put(final int key, final Message head) {
+            final int mask = mHeads.length - 1;
+            int i = slot(key, mask);
+            for (; mHeads[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    final Message previous = mHeads[i];
+                    mHeads[i] = head;
+                    return previous;
+                }
+            }
+            mKeys[i] = key;
+            mHeads[i] = head;
+            if (++mSize * 2 > mHeads.length) {
+                resize(mHeads.length << 1);
+            }
+            return null;
+        }
+
+        void remove(final int key) {
+            final int mask = mHeads.length - 1;
+            int hole = slot(key, mask);
+            while (mHeads[hole] != null && mKeys[hole] != key) {
+                hole = (hole + 1) & mask;
+            }
+            if (mHeads[hole] == null) {
+                return;
+            }
+            mHeads[hole] = null;
+            mSize--;
+
+            // Move back the following entries which can not be found anymore past the hole.
+            for (int i = (hole + 1) & mask; mHeads[i] != null; i = (i + 1) & mask) {
+                final int home = slot(mKeys[i], mask);
+                final boolean reachable = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+                if (!reachable) {
+                    mKeys[hole] = mKeys[i];
+                    mHeads[hole] = mHeads[i];
+                    mHeads[i] = null;
+                    hole = i;
+                }
+            }
+        }
+
+        void clear() {
+            if (mHeads.length > INITIAL_CAPACITY) {
+                mKeys = new int[INITIAL_CAPACITY];
+                mHeads = new Message[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(mHeads, null);
+            }
+            mSize = 0;
+        }
+
+        private void resize(final int capacity) {
+            final int[] keys = mKeys;
+            final Message[] heads = mHeads;
+            mKeys = new int[capacity];
+            mHeads = new Message[capacity];
+            final int mask = capacity - 1;
+            for (int j = 0; j < heads.length; j++) {
+                if (heads[j] != null) {
+                    int i = slot(keys[j], mask);
+                    while (mHeads[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    mKeys[i] = keys[j];
+                    mHeads[i] = heads[j];
+                }
+            }
+        }
+
+        private static int slot(final int key, final int mask) {
+            final int h = key * 0x9E3779B9; // Fibonacci hashing, as whats are often small consecutive ints.
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
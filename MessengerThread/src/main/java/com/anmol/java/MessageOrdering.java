@@ -0,0 +1,36 @@
+package com.anmol.java;
+
+/**
+ * Structure used by the {@link MessageQueue} of a {@link MessengerThread} to keep its messages sorted on their time.
+ * <br>
+ * Both keep the same order: messages with the same time are processed in the order they were sent,
+ * and messages sent at front of queue are processed before all the others.
+ *
+ * @see MessengerThread#withOrdering(MessageOrdering)
+ */
+public enum MessageOrdering {
+
+    /**
+     * Sorted linked list. Sending a delayed message is O(n) in the number of pending messages, processing it is O(1).
+     * <br>Best when only a few messages are pending at a time.
+     */
+    LINKED_LIST {
+        @Override
+        TimerQueue newTimerQueue() {
+            return new LinkedTimerQueue();
+        }
+    },
+
+    /**
+     * Binary heap. Sending and processing a message are O(log n) in the number of pending messages.
+     * <br>Best when a lot of delayed messages (like timeouts) are pending.
+     */
+    BINARY_HEAP {
+        @Override
+        TimerQueue newTimerQueue() {
+            return new HeapTimerQueue();
+        }
+    };
+
+    abstract TimerQueue newTimerQueue();
+}
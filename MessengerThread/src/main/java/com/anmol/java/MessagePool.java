@@ -0,0 +1,216 @@
+package com.anmol.java;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of recycled {@link Message}s, so that sending messages does not create garbage.
+ * <br>
+ * Every thread keeps a small cache of its own, and overflows to a shared pool when it is full (or refills a few from it when empty).
+ * Nothing takes a lock: the thread cache is only touched by its thread, and the shared pool is a lock-free bounded array.
+ * <br>
+ * Sizes can be set with the system properties {@value #PROPERTY_POOL_SIZE} (shared pool, default {@value #DEFAULT_POOL_SIZE})
+ * and {@value #PROPERTY_THREAD_CACHE_SIZE} (cache of every thread, default {@value #DEFAULT_THREAD_CACHE_SIZE}).
+ * The shared pool size can also be changed with {@link Message#setPoolSize(int)}.
+ * <br>
+ * When both are full, the recycled message is left to the garbage collector, so the pool never grows over its bounds.
+ */
+final class MessagePool {
+    static final String PROPERTY_POOL_SIZE = "com.anmol.java.Message.poolSize";
+    static final String PROPERTY_THREAD_CACHE_SIZE = "com.anmol.java.Message.threadCacheSize";
+    static final int DEFAULT_POOL_SIZE = 1024;
+    static final int DEFAULT_THREAD_CACHE_SIZE = 64;
+
+    private static final int THREAD_CACHE_SIZE = Math.max(1, Integer.getInteger(PROPERTY_THREAD_CACHE_SIZE, DEFAULT_THREAD_CACHE_SIZE));
+    static final int REFILL_BATCH = Math.min(8, THREAD_CACHE_SIZE); // Messages taken from the shared pool when the thread cache is empty.
+
+    private static final ThreadLocal<ThreadCache> sThreadCache = ThreadLocal.withInitial(ThreadCache::new);
+    private static volatile SharedPool sShared = new SharedPool(Integer.getInteger(PROPERTY_POOL_SIZE, DEFAULT_POOL_SIZE));
+
+    private static final LongAdder sHits = new LongAdder(); // obtain() which found a message in the pool.
+    private static final LongAdder sMisses = new LongAdder(); // obtain() which had to create a message.
+
+    private MessagePool() {
+    }
+
+    /**
+     * @return A recycled message, or null if the pool is empty.
+     */
+    static Message obtain() {
+        final ThreadCache cache = sThreadCache.get();
+        Message m = cache.pop();
+        if (m == null) {
+            m = cache.refillFrom(sShared);
+        }
+        if (m == null) {
+            sMisses.increment();
+        } else {
+            sHits.increment();
+        }
+        return m;
+    }
+
+    /**
+     * Keep the (already cleared) message to be reused.
+     */
+    static void recycle(final Message m) {
+        final ThreadCache cache = sThreadCache.get();
+        if (!cache.push(m)) {
+            // Thread cache is full, give half of it to the other threads.
+            cache.spillTo(sShared);
+            cache.push(m);
+        }
+    }
+
+    /**
+     * Replace the shared pool with an empty one of this size. The messages in the old one are left to the garbage collector.
+     */
+    static void setPoolSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0");
+        }
+        sShared = new SharedPool(size);
+    }
+
+    static long hits() {
+        return sHits.sum();
+    }
+
+    static long misses() {
+        return sMisses.sum();
+    }
+
+    /**
+     * Stack of messages only used by its own thread.
+     */
+    private static final class ThreadCache {
+        private final Message[] mMessages = new Message[THREAD_CACHE_SIZE];
+        private int mSize;
+
+        Message pop() {
+            if (mSize == 0) {
+                return null;
+            }
+            final Message m = mMessages[--mSize];
+            mMessages[mSize] = null;
+            return m;
+        }
+
+        boolean push(final Message m) {
+            if (mSize == mMessages.length) {
+                return false;
+            }
+            mMessages[mSize++] = m;
+            return true;
+        }
+
+        /**
+         * @return A message of the shared pool, or null if its empty. A few more are kept in this (empty) cache,
+         * so the next obtains do not touch the shared pool.
+         */
+        Message refillFrom(final SharedPool shared) {
+            final Message m = shared.poll();
+            for (int i = 1; m != null && i < REFILL_BATCH; i++) {
+                final Message more = shared.poll();
+                if (more == null) {
+                    break;
+                }
+                mMessages[mSize++] = more;
+            }
+            return m;
+        }
+
+        void spillTo(final SharedPool shared) {
+            final int keep = mSize >>> 1;
+            while (mSize > keep) {
+                final Message m = mMessages[--mSize];
+                mMessages[mSize] = null;
+                if (!shared.offer(m)) {
+                    return; // Shared pool is full too, let the rest be garbage collected.
+                }
+            }
+        }
+    }
+
+    /**
+     * Bounded lock-free multi producer/multi consumer array of messages.
+     * <br>
+     * The array is a power of two, but never holds more than the size it was created with.
+     * <br>
+     * Every slot has a sequence telling if its ready to be written or read for the current lap, so a slot is never reused
+     * before its read (which a linked lock-free stack of recycled nodes would not guarantee, because of ABA).
+     */
+    private static final class SharedPool {
+        private final int mSize; // Bound, the array might be larger.
+        private final int mMask;
+        private final Message[] mSlots;
+        private final AtomicLongArray mSequences;
+        private final AtomicLong mTail = new AtomicLong(); // Next position to offer at.
+        private final AtomicLong mHead = new AtomicLong(); // Next position to poll from.
+
+        SharedPool(final int size) {
+            int capacity = 1;
+            while (capacity < size) {
+                capacity <<= 1;
+            }
+            mSize = size;
+            mMask = size == 0 ? -1 : capacity - 1;
+            mSlots = new Message[capacity];
+            mSequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                mSequences.set(i, i);
+            }
+        }
+
+        boolean offer(final Message m) {
+            if (mMask < 0) {
+                return false; // Pooling is disabled.
+            }
+            long pos = mTail.get();
+            while (true) {
+                final int index = (int) pos & mMask;
+                final long diff = mSequences.get(index) - pos;
+                if (diff == 0) {
+                    if (pos - mHead.get() >= mSize) {
+                        return false; // Full up to the bound. A stale head only makes it look fuller.
+                    }
+                    if (mTail.compareAndSet(pos, pos + 1)) {
+                        mSlots[index] = m;
+                        mSequences.lazySet(index, pos + 1); // Publishes the slot to the readers.
+                        return true;
+                    }
+                    pos = mTail.get();
+                } else if (diff < 0) {
+                    return false; // Full.
+                } else {
+                    pos = mTail.get(); // Another producer took this slot.
+                }
+            }
+        }
+
+        Message poll() {
+            if (mMask < 0) {
+                return null;
+            }
+            long pos = mHead.get();
+            while (true) {
+                final int index = (int) pos & mMask;
+                final long diff = mSequences.get(index) - (pos + 1);
+                if (diff == 0) {
+                    if (mHead.compareAndSet(pos, pos + 1)) {
+                        final Message m = mSlots[index];
+                        mSlots[index] = null;
+                        mSequences.lazySet(index, pos + mMask + 1); // Slot can be written in the next lap.
+                        return m;
+                    }
+                    pos = mHead.get();
+                } else if (diff < 0) {
+                    return null; // Empty.
+                } else {
+                    pos = mHead.get(); // Another consumer took this slot.
+                }
+            }
+        }
+    }
+}
@@ -1,32 +1,311 @@
 package com.anmol.java;
 
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
 /**
  * The Queue of messages associated with every {@link MessengerThread}.
+ * <br>
+ * Messages which are already due when they are sent (i.e. {@link MessengerThread#post}/{@link MessengerThread#sendMessage})
+ * are pushed lock-free on the {@link #mInbox}, which is a multi producer/single consumer stack linked by {@link Message#next}.
+ * The consumer drains the inbox into the sorted {@link #mMessages} under the lock, so uncontended producers never block.
+ * <br>
+ * How the messages are kept sorted depends on the {@link TimerQueue} it is created with.
+ * If its created with a {@link MessageIndex}, the lookups by data and by callback do not scan the queue.
+ * <br>
+ * Delayed and front of queue messages still take the lock, and before inserting they drain the inbox,
+ * so a message is never ordered before a message which was sent earlier with the same {@link Message#when}.
+ * <br>
+ * If its created with {@link QueueLimits}, the pending messages (including the inbox) are counted, and a message is counted in
+ * before its added, so the count never goes over the capacity. When its full, the {@link OverflowPolicy} decides what happens.
+ * <br>
+ * Messages sent with a coalescing key are kept in {@link #mCoalesced}, so a newer message with the same key replaces the pending one.
+ * Every path which removes a message from {@link #mMessages} also forgets its key.
+ * <br>
+ * If its created with a {@link MessageRing}, the due messages are copied into the ring instead of the inbox, and only the delayed ones
+ * (and the front of queue ones) go to {@link #mMessages}, which then acts as a side timer. The consumer takes whichever is due first.
+ * Messages in the ring can not be looked up: the remove/has operations by data, callback or what only see {@link #mMessages}.
+ * <br>
+ * If its given a {@link ChannelSelector}, the consumer waits in its selector instead of parking, and the producers wake it up
+ * through the selector. The ready channels are handled in {@link #next()}, outside the lock.
  */
 final class MessageQueue {
-    private Message mMessages; // All the messages(its a linked list).
-    private boolean mStopping; // If queue is asked to stop.
+
+    private static final AtomicReferenceFieldUpdater<MessageQueue, Message> INBOX =
+            AtomicReferenceFieldUpdater.newUpdater(MessageQueue.class, Message.class, "mInbox");
+    private static final AtomicIntegerFieldUpdater<MessageQueue> COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(MessageQueue.class, "mCount");
+    private static final Predicate<Message> STEALABLE = msg -> !msg.isPinned();
+    private static final int RING_FULL_SPINS = 64; // Times a sender retries a full ring, before its message goes to the queue.
+    // Front of queue and control messages must not wait behind the others, so they are not dropped for them either.
+    // Nor the replies, as their request was already processed.
+    private static final Predicate<Message> DROPPABLE =
+            msg -> msg.when() != 0 && msg.priority() != Priority.CONTROL && !(msg.callback() instanceof Promise);
+
+    private final Thread mThread; // Consumer thread which reads from this queue, and is parked while it waits. Null with a waker.
+    private final Runnable mWaker; // Called instead of unparking mThread, for consumers which poll(). Null with a thread.
+    private final TimerQueue mMessages; // All the messages, sorted on their when.
+    private final MessageIndex mIndex; // Index of mMessages by data and by callback, null if lookups scan mMessages.
+    private final QueueLimits mLimits; // Capacity and watermark, null if the queue has neither, then messages are not counted.
+    private final QueueMetrics mMetrics; // Null if the metrics are off.
+    private final MessageRing mRing; // Where the due messages go instead of the inbox, null without a ring.
+    private HashMap<Object, Message> mCoalesced; // Pending message of every coalescing key, null until the first coalescing send.
+    private volatile int mCount; // Pending messages, including the inbox. Only counted with mLimits.
+    private int mWaitingSenders; // Senders waiting for room, with OverflowPolicy.BLOCK. Guarded by the lock.
+    private volatile boolean mStopping; // If queue is asked to stop.
+    private volatile boolean mDropTaken; // If queue is stopped without being safe, so messages taken in a batch should not be dispatched.
+
+    /**
+     * Messages which were due when they were sent, and not yet moved to {@link #mMessages}.
+     * <br>
+     * Its a stack(newest first), pushed with a CAS by the producers, and taken as a whole by whoever holds the lock.
+     */
+    private volatile Message mInbox;
+
+    /**
+     * If the consumer is parked in {@link #next()}, waiting for the head message (or any message if the queue is empty).
+     * <br>
+     * Producers only unpark the consumer when this is set, and their message becomes the new head (or the inbox becomes non empty),
+     * so the consumer is never woken if the time it is waiting for did not change.
+     */
+    private volatile boolean mBlocked;
+
+    /**
+     * Queues of the other members of the {@link MessengerGroup} this queue belongs to, null if it does not.
+     * When this queue has nothing due, it steals a due message from one of them instead of parking.
+     */
+    private volatile MessageQueue[] mSiblings;
+
+    private IdleStrategy mIdleStrategy; // What the consumer does before parking in next(), null to park right away.
+    private ChannelSelector mChannels; // Selector the consumer waits in instead of parking, null to park.
+    private long mWaitUntilNanos = -1; // Set by poll(), when it finds nothing due.
+    private boolean mInterrupted; // Interrupt of the consumer taken before waiting, given back once next() returns.
+    private int mNextSibling; // Sibling to try stealing from first, rotated to spread the stealing.
+    private long mSiblingDeadline = -1; // Earliest time a message of a sibling is due, found while stealing. -1 if none.
+
+    /**
+     * @param config How to build the queue, only read here.
+     */
+    MessageQueue(final QueueConfig config) {
+        final QueueLimits limits = config.limits;
+        final Runnable waker = config.waker;
+        final int ringCapacity = config.ringCapacity;
+        if (ringCapacity != 0 && limits != null && limits.policy == OverflowPolicy.DROP_OLDEST) {
+            throw new IllegalArgumentException("A ring has no oldest message to drop");
+        }
+        if (ringCapacity != 0 && waker != null) {
+            throw new IllegalArgumentException("A ring is only read by next(), not by poll()");
+        }
+        mRing = ringCapacity == 0 ? null : new MessageRing(ringCapacity);
+        mLimits = limits == null && config.metrics ? QueueLimits.COUNT_ONLY : limits;
+        mMetrics = config.metrics ? new QueueMetrics(this) : null;
+        mThread = waker == null ? Thread.currentThread() : null;
+        mWaker = waker;
+        mMessages = config.messages == null ? new LinkedTimerQueue() : config.messages;
+        mIndex = config.indexed ? new MessageIndex() : null;
+        mBlocked = waker != null; // Nobody polled yet, so the first message has to call the waker.
+    }
 
     /**
      * Read the next message in the Queue. It blocks until the message arrives.
+     * <br>
+     * The consumer is parked until the {@link Message#when} of the head message, or until a message with an earlier
+     * {@link Message#when} is enqueued. It does not hold the lock while it is parked.
      */
     Message next() {
+        return next(false);
+    }
+
+    /**
+     * Same as {@link #next()}, but takes all the messages which are due at once, under a single lock acquisition.
+     *
+     * @return Due messages in the order to dispatch them, linked by {@link Message#next}. Null if the queue is stopping.
+     */
+    Message nextBatch() {
+        return next(true);
+    }
+
+    private Message next(final boolean batch) {
+        if (mChannels != null) {
+            mChannels.onTaken(); // Check the channels now and then, even if messages keep coming.
+        }
+        final Message msg = awaitNext(batch);
+        if (mInterrupted) {
+            // The handler (or another thread) interrupted the consumer, let the next handler see it.
+            mInterrupted = false;
+            Thread.currentThread().interrupt();
+        }
+        return msg;
+    }
+
+    private Message awaitNext(final boolean batch) {
         while (true) {
-            synchronized (this) {
-                // Try to retrieve the next message.  Return if found.
-                final long now = System.currentTimeMillis();
-                final Message msg = mMessages;
-                if (msg != null) {
-                    if (now >= msg.when()) {
-                        // Got a message.
-                        mMessages = msg.next;
-                        msg.next = null;
-                        msg.markInUse();
-                        return msg;
+            long waitNanos;
+            final boolean stealing = mSiblings != null;
+            final boolean ring = mRing != null;
+            if (ring) {
+                mRing.releaseTaken(); // The messages taken last time are dispatched by now.
+                Promise.holdCancels(); // Dropped slots are recycled under the lock, see peekLocked().
+            }
+            try {
+                synchronized (this) {
+                    drainInboxLocked();
+
+                    // Try to retrieve the next message.  Return if found.
+                    final long now = SystemClock.uptimeNanos();
+                    final Message msg = peekLocked();
+                    if (msg != null) {
+                        if (now >= msg.when()) {
+                            // Got a message.
+                            final Message first = takeLocked(msg);
+                            Message last = first;
+                            while (batch && (last.next = peekLocked()) != null && now >= last.next.when()) {
+                                last = takeLocked(last.next);
+                            }
+                            last.next = null;
+                            return first;
+                        }
+                    }
+
+                    if (mStopping) {
+                        return null;
+                    }
+
+                    // Nothing to dispatch yet, wait for the head message to be due, or forever if there is none.
+                    waitNanos = msg == null ? -1 : msg.when() - now;
+                    if (!stealing) {
+                        mBlocked = true;
+                    }
+                }
+            } finally {
+                if (ring) {
+                    Promise.deliverHeld();
+                }
+            }
+
+            if (stealing) {
+                // Out of the lock, so two members stealing from each other never wait on each other.
+                final Message stolen = stealFromSiblings();
+                if (stolen != null) {
+                    return stolen;
+                }
+
+                synchronized (this) {
+                    // Messages might have been added while we were not holding the lock, and nobody would wake us for them.
+                    drainInboxLocked();
+                    final long now = SystemClock.uptimeNanos();
+                    final Message msg = peekLocked();
+                    if (mStopping || (msg != null && now >= msg.when())) {
+                        continue;
+                    }
+                    waitNanos = msg == null ? -1 : msg.when() - now;
+                    if (mSiblingDeadline >= 0 && (waitNanos < 0 || mSiblingDeadline - now < waitNanos)) {
+                        // Steal again when a message of a sibling is due, in case its consumer is busy then.
+                        waitNanos = Math.max(0, mSiblingDeadline - now);
                     }
+                    mBlocked = true;
                 }
+            }
+
+            // A producer might have pushed on the inbox after we drained it, but before it could see mBlocked.
+            if (hasPushed()) {
+                mBlocked = false;
+                continue;
+            }
+
+            // Interrupts are not used to stop the consumer (see stop()), but park and select return right away while its set,
+            // so take it until next() returns.
+            takeInterrupt();
+
+            if (mIdleStrategy != null && idleUntilWoken(waitNanos)) {
+                mBlocked = false;
+                continue;
+            }
 
+            if (mChannels != null) {
+                // A wakeup in between is kept too, and makes the select return right away.
+                mChannels.select(waitNanos);
+                mBlocked = false;
+                mChannels.dispatchSelected();
+                takeInterrupt();
+                continue;
+            }
+
+            // If a producer unparks us in between, the permit is kept and the park below returns right away.
+            if (waitNanos < 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, waitNanos);
+            }
+            mBlocked = false;
+            takeInterrupt();
+        }
+    }
+
+    private void takeInterrupt() {
+        if (Thread.interrupted()) {
+            mInterrupted = true;
+        }
+    }
+
+    /**
+     * Idle with the {@link #mIdleStrategy} before parking, while {@link #mBlocked} is set.
+     * <br>
+     * Producers do not know the consumer is spinning: they still clear {@link #mBlocked} and unpark it, which ends the spin.
+     * The permit left by such unpark only makes the next park return right away once.
+     *
+     * @param waitNanos Time until the head message is due, -1 if there is none.
+     * @return True if a message came (or the head is due) while idling, false if the consumer has to park.
+     */
+    private boolean idleUntilWoken(final long waitNanos) {
+        final IdleStrategy idle = mIdleStrategy;
+        final long deadline = waitNanos < 0 ? Long.MAX_VALUE : SystemClock.uptimeNanos() + waitNanos;
+        for (int round = 0; ; ) {
+            if (!mBlocked || hasPushed() || (waitNanos >= 0 && SystemClock.uptimeNanos() >= deadline)) {
+                idle.onIdleEnd(false);
+                return true;
+            }
+            if (!idle.idle(round)) {
+                idle.onIdleEnd(true);
+                return false;
+            }
+            if (round < Integer.MAX_VALUE) {
+                round++;
+            }
+        }
+    }
+
+    /**
+     * Non blocking {@link #next()}, for the consumers created with a waker.
+     * <br>
+     * If nothing is due, the waker is called once a message is added which is due before {@link #waitUntilNanos()}.
+     * The consumer has to poll again at that time itself.
+     *
+     * @return A due message, or null if there is none or the queue is stopping.
+     */
+    Message poll() {
+        synchronized (this) {
+            while (true) {
+                drainInboxLocked();
+                final Message msg = mMessages.peek();
+                if (msg != null && SystemClock.uptimeNanos() >= msg.when()) {
+                    mBlocked = false;
+                    return takeLocked();
+                }
                 if (mStopping) {
+                    mBlocked = false;
+                    mWaitUntilNanos = -1;
+                    return null;
+                }
+
+                mWaitUntilNanos = msg == null ? -1 : msg.when();
+                mBlocked = true;
+                // A producer might have pushed on the inbox after we drained it, but before it could see mBlocked.
+                if (mInbox == null) {
                     return null;
                 }
             }
@@ -34,118 +313,1002 @@ final class MessageQueue {
     }
 
     /**
-     * Stops the Queue, and prevent adding or reading more msgs into/from it.
+     * @return After {@link #poll()} returned null, the time of the next message to poll, in {@link SystemClock#uptimeNanos()}. -1 if none.
      */
-    void stop(final boolean safe) {
+    long waitUntilNanos() {
+        return mWaitUntilNanos;
+    }
+
+    /**
+     * @return True if a producer pushed a message on the inbox or the ring, which the consumer did not see yet.
+     */
+    private boolean hasPushed() {
+        return mInbox != null || (mRing != null && !mRing.isEmpty());
+    }
+
+    /**
+     * @return The message to dispatch first: the head of {@link #mMessages}, or of the ring if its not later. Null if both are empty.
+     */
+    private Message peekLocked() {
+        final Message head = mMessages.peek();
+        if (mRing == null) {
+            return head;
+        }
+        releaseLocked(mRing.skipDropped());
+        final Message slot = mRing.peek();
+        return slot != null && (head == null || slot.when() <= head.when()) ? slot : head;
+    }
+
+    /**
+     * Remove the message returned by {@link #peekLocked()} to dispatch it.
+     */
+    private Message takeLocked(final Message head) {
+        if (!head.isSlot()) {
+            return takeLocked();
+        }
+        releaseLocked(1);
+        return mRing.take(); // Released to the producers on the next call to next().
+    }
+
+    /**
+     * Remove the head message of {@link #mMessages} to dispatch it.
+     */
+    private Message takeLocked() {
+        final Message msg = mMessages.poll();
+        if (mIndex != null) {
+            mIndex.remove(msg);
+        }
+        forgetCoalesced(msg);
+        msg.markInUse();
+        releaseLocked(1);
+        return msg;
+    }
+
+    /**
+     * @return A due message of one of the {@link #mSiblings}, or null if none of them has one.
+     * Then {@link #mSiblingDeadline} is the earliest time one of their messages is due.
+     */
+    private Message stealFromSiblings() {
+        mSiblingDeadline = -1;
+        final MessageQueue[] siblings = mSiblings;
+        if (siblings == null) {
+            return null;
+        }
+        for (int i = 0; i < siblings.length; i++) {
+            if (++mNextSibling >= siblings.length) {
+                mNextSibling = 0;
+            }
+            final Message msg = siblings[mNextSibling].stealDue(this);
+            if (msg != null) {
+                return msg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take a due message which is not pinned to this queue, for another member of the group. Messages pinned by a key are skipped,
+     * not only the head, so they do not hold back the others.
+     * <br>
+     * If there is none, tell the thief when the next one is due, so it tries again then, even if this consumer is busy.
+     */
+    private Message stealDue(final MessageQueue thief) {
         synchronized (this) {
-            if (mStopping) {
-                return;
+            drainInboxLocked();
+            final Message msg = mMessages.findFirst(STEALABLE);
+            if (msg == null) {
+                return null;
+            }
+            if (msg.when() > SystemClock.uptimeNanos()) {
+                if (thief.mSiblingDeadline < 0 || msg.when() < thief.mSiblingDeadline) {
+                    thief.mSiblingDeadline = msg.when();
+                }
+                return null;
             }
-            mStopping = true;
+            mMessages.remove(msg);
+            if (mIndex != null) {
+                mIndex.remove(msg);
+            }
+            forgetCoalesced(msg);
+            msg.markInUse();
+            releaseLocked(1);
+            return msg;
+        }
+    }
 
-            if (safe) {
-                removeAllFutureMessagesLocked();
-            } else {
-                removeAllMessagesLocked();
+    /**
+     * The head of {@link #mMessages} changed: wake the consumer, so it waits for the new head. If its busy, wake an idle sibling
+     * instead, so it waits for the new head too, in case the consumer is still busy when its due.
+     */
+    private void onHeadChangedLocked(final Message head) {
+        if (mBlocked) {
+            wakeLocked();
+        } else if (!head.isPinned()) {
+            wakeIdleSibling();
+        }
+    }
+
+    /**
+     * Called when a due message is added while the consumer is busy: if another member of the group is parked,
+     * wake it so it steals the message, instead of letting it wait behind the busy consumer.
+     */
+    private void wakeIdleSibling() {
+        final MessageQueue[] siblings = mSiblings;
+        if (siblings == null || mBlocked) {
+            return;
+        }
+        for (MessageQueue sibling : siblings) {
+            if (sibling.mBlocked) {
+                sibling.mBlocked = false;
+                sibling.unpark();
+                return;
             }
+        }
+    }
+
+    /**
+     * Must be called by the consumer thread, before the queue is published to the producers.
+     *
+     * @param idleStrategy What the consumer does before parking, null to park right away.
+     */
+    void setIdleStrategy(final IdleStrategy idleStrategy) {
+        mIdleStrategy = idleStrategy;
+    }
+
+    /**
+     * Must be called by the consumer thread, before the queue is published to the producers.
+     *
+     * @param channels Selector to wait in instead of parking, null to park.
+     */
+    void setChannelSelector(final ChannelSelector channels) {
+        mChannels = channels;
+    }
 
-            notifyAll();
+    /**
+     * @param siblings Queues of the other members of the group, see {@link #mSiblings}. Not with a ring, as its slots can not be stolen.
+     */
+    void setSiblings(final MessageQueue[] siblings) {
+        if (mRing != null && siblings != null) {
+            throw new IllegalStateException("The messages of a ring can not be stolen");
+        }
+        mSiblings = siblings;
+    }
+
+    /**
+     * @return True if the consumer is parked, waiting for messages.
+     */
+    boolean isIdle() {
+        return mBlocked;
+    }
+
+    /**
+     * Wakes up the consumer thread if its parked in {@link #next()}.
+     */
+    private void wakeLocked() {
+        if (mBlocked) {
+            mBlocked = false;
+            unpark();
+        }
+    }
+
+    private void unpark() {
+        if (mWaker != null) {
+            mWaker.run();
+        } else if (mChannels != null) {
+            mChannels.wakeUp();
+        } else {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Stops the Queue, and prevent adding or reading more msgs into/from it.
+     * <br>
+     * A producer racing with the stop on the lock-free path might still push its message after this, then it drops it itself
+     * (see {@link #dropLatePushes()}), so a request is still cancelled.
+     */
+    void stop(final boolean safe) {
+        Promise.holdCancels(); // Requests dropped under the lock are cancelled once its released.
+        try {
+            synchronized (this) {
+                if (mStopping) {
+                    return;
+                }
+                mStopping = true;
+                mDropTaken = !safe;
+
+                drainInboxLocked();
+                final int size = mMessages.size();
+                if (safe) {
+                    removeAllFutureMessagesLocked();
+                } else {
+                    removeAllMessagesLocked();
+                }
+                releaseLocked(size - mMessages.size());
+                if (mWaitingSenders > 0) {
+                    notifyAll(); // Senders waiting for room give up.
+                }
+
+                wakeLocked();
+            }
+        } finally {
+            Promise.deliverHeld();
         }
     }
 
     /**
      * Add the message into the queue.
      * <br>
-     * It will iterate the queue(sorted on its when), and find the slot to place this into, such that the queue is still sorted.
+     * If the message is already due, its pushed on the inbox without taking the lock.
+     * Else it is inserted in the {@link TimerQueue} at its slot, such that the queue is still sorted.
      *
      * @param msg  Message to add.
-     * @param when The time to process it.
+     * @param when The time to process it, in {@link SystemClock#uptimeNanos()}.
      * @return True if it is added, false otherwise like if queue was stopping etc.
      */
     boolean enqueueMessage(final Message msg, final long when) {
+        return enqueueMessage(msg, when, false);
+    }
+
+    /**
+     * Same as {@link #enqueueMessage(Message, long)}, but never waits for room: with {@link OverflowPolicy#BLOCK}
+     * the message is not added if the queue is full.
+     */
+    boolean offerMessage(final Message msg, final long when) {
+        return enqueueMessage(msg, when, true);
+    }
+
+    private boolean enqueueMessage(final Message msg, final long when, final boolean offer) {
         if (msg.isInUse()) {
             throw new IllegalStateException(msg + " This message is already in use.");
         }
 
+        if (mLimits != null) {
+            if (!acquireSlot(msg, offer)) {
+                if (mMetrics != null && !mStopping) {
+                    mMetrics.onDropped(1);
+                }
+                msg.recycle();
+                return false;
+            }
+            if (mMetrics != null) {
+                mMetrics.onEnqueued();
+            }
+        }
+
+        if (when != 0 && when <= SystemClock.uptimeNanos()) {
+            // Not a request in the ring: a slot published once the consumer stopped is never dropped, nor would cancel the request.
+            return mRing != null && !msg.expectsReply() ? pushRing(msg, when) : pushInbox(msg, when);
+        }
+        return insertMessage(msg, when);
+    }
+
+    /**
+     * Add the reply of a {@link Promise}, lock-free on the inbox. It never waits for room nor is refused for it, whatever the
+     * {@link OverflowPolicy}: whoever settles the promise (the replying messenger, or a queue dropping the request) must not
+     * wait on the requester, nor run its listener. So a queue can go over its capacity by the replies to its own requests.
+     *
+     * @return False if the queue is stopping.
+     */
+    boolean enqueueReply(final Message msg) {
+        if (mLimits != null) {
+            COUNT.incrementAndGet(this); // Released when taken, like the others.
+            if (mMetrics != null) {
+                mMetrics.onEnqueued();
+            }
+        }
+        return pushInbox(msg, SystemClock.uptimeNanos());
+    }
+
+    /**
+     * Add a message replayed from the {@link Journal}, by the consumer before it starts. Its counted, but never waits for room
+     * nor is refused, whatever the {@link OverflowPolicy}: the consumer would wait for itself, and a refused one would be lost,
+     * as its marked done in the journal. So a queue can start over its capacity, by the messages of the previous run.
+     *
+     * @return False if the queue is stopping.
+     */
+    boolean enqueueReplayed(final Message msg, final long when) {
+        if (mLimits != null) {
+            COUNT.incrementAndGet(this); // Released when taken, like the others.
+            if (mMetrics != null) {
+                mMetrics.onEnqueued();
+            }
+        }
+        return insertMessage(msg, when);
+    }
+
+    /**
+     * Locked path of {@link #enqueueMessage}, for the messages which are not due yet, once counted in.
+     */
+    private boolean insertMessage(final Message msg, final long when) {
         synchronized (this) {
+            if (!mStopping) {
+                // Messages sent earlier on the inbox have to be ordered before this one.
+                drainInboxLocked();
+
+                msg.markInUse();
+                msg.setWhen(when);
+                insertLocked(msg);
+                if (mMessages.peek() == msg) {
+                    onHeadChangedLocked(msg); // The consumer has to re-compute how long it should wait.
+                }
+                return true;
+            }
+            // Do not add further msgs after the close is executed.
+            releaseLocked(1);
+        }
+        msg.recycle(); // Out of the lock, as it cancels its request.
+        return false;
+    }
+
+    /**
+     * Add several messages at once, with a single CAS on the inbox if they are already due, else under a single lock acquisition.
+     *
+     * @param first Messages to add, in the order to dispatch them, linked by {@link Message#next}. They must already be marked in use.
+     * @param when  The time to process them, in {@link SystemClock#uptimeNanos()}.
+     * @return True if they are added, false otherwise like if queue was stopping etc.
+     * With {@link QueueLimits} (but for {@link QueueLimits#countsOnly()}, like for the metrics), they are added one by one,
+     * so the {@link OverflowPolicy} applies to each of them, and false means that at least one of them was not added.
+     * With a {@link MessageRing} too, as each is copied into its own slot.
+     */
+    boolean enqueueMessages(final Message first, final long when) {
+        if (mStopping) {
+            // Do not add further msgs after the close is executed.
+            recycleChain(first);
+            return false;
+        }
+
+        final boolean counted = mLimits != null && mLimits.countsOnly();
+        if ((mLimits != null && !counted) || mRing != null) {
+            boolean added = true;
+            Message p = first;
+            while (p != null) {
+                final Message n = p.next;
+                p.next = null;
+                p.markNotInUse();
+                added &= enqueueMessage(p, when, false);
+                p = n;
+            }
+            return added;
+        }
+
+        final int count = counted ? chainLength(first) : 0;
+        if (counted) {
+            // Nothing to refuse, so the whole batch is counted at once.
+            COUNT.addAndGet(this, count);
+            if (mMetrics != null) {
+                mMetrics.onEnqueued(count);
+            }
+        }
+
+        if (when != 0 && when <= SystemClock.uptimeNanos()) {
+            // Inbox is newest first, so push the chain reversed.
+            Message reversed = null;
+            Message p = first;
+            while (p != null) {
+                final Message n = p.next;
+                p.setWhen(when);
+                p.next = reversed;
+                reversed = p;
+                p = n;
+            }
+            Message head;
+            do {
+                head = mInbox;
+                first.next = head; // first is the oldest, so at the bottom of the pushed chain.
+            } while (!INBOX.compareAndSet(this, head, reversed));
+
+            if (mStopping) {
+                dropLatePushes();
+            } else if (head == null && mBlocked) {
+                mBlocked = false;
+                unpark();
+            } else {
+                wakeIdleSibling();
+            }
+            return true;
+        }
+
+        synchronized (this) {
+            if (!mStopping) {
+                drainInboxLocked();
+                final Message oldHead = mMessages.peek();
+                Message p = first;
+                while (p != null) {
+                    final Message n = p.next;
+                    p.next = null;
+                    p.setWhen(when);
+                    insertLocked(p);
+                    p = n;
+                }
+                final Message head = mMessages.peek();
+                if (head != oldHead) {
+                    onHeadChangedLocked(head);
+                }
+                return true;
+            }
+            releaseLocked(count);
+        }
+        recycleChain(first); // Out of the lock, as it cancels their requests.
+        return false;
+    }
+
+    /**
+     * @return True if the queue is stopped without being safe, so the messages taken by {@link #nextBatch()} should be dropped.
+     */
+    boolean isDroppingTaken() {
+        return mDropTaken;
+    }
+
+    private static int chainLength(Message p) {
+        int length = 0;
+        for (; p != null; p = p.next) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void recycleChain(Message p) {
+        while (p != null) {
+            final Message n = p.next;
+            p.recycleUnchecked();
+            p = n;
+        }
+    }
+
+    /**
+     * Lock-free path of {@link #enqueueMessage} for the messages which are already due.
+     */
+    private boolean pushInbox(final Message msg, final long when) {
+        if (mStopping) {
+            // Do not add further msgs after the close is executed.
+            if (mLimits != null) {
+                COUNT.decrementAndGet(this); // No sender waits for room anymore, so nobody to notify.
+            }
+            msg.recycle();
+            return false;
+        }
+
+        msg.markInUse();
+        msg.setWhen(when);
+        Message head;
+        do {
+            head = mInbox;
+            msg.next = head;
+        } while (!INBOX.compareAndSet(this, head, msg));
+
+        if (mStopping) {
+            // Stopped while we pushed, maybe after the stop drained the inbox.
+            dropLatePushes();
+            return true; // Added, then dropped by the stop like the other pending messages.
+        }
+        // Only the producer which made the inbox non empty has to wake the consumer, the others would find it awake.
+        if (head == null && mBlocked) {
+            mBlocked = false;
+            unpark();
+        } else if (!msg.isPinned()) {
+            wakeIdleSibling();
+        }
+        return true;
+    }
+
+    /**
+     * Path of {@link #enqueueMessage} for the messages which are already due, with a {@link MessageRing}.
+     * The message is copied into a slot, then recycled.
+     * <br>
+     * If the ring is full, the sender spins a little for the consumer to make room, like a Disruptor producer.
+     * Then (or right away for the consumer itself, which would wait forever) its message goes to {@link #mMessages} instead,
+     * already counted in the {@link QueueLimits}, so the sender never waits longer than the policy lets it.
+     */
+    private boolean pushRing(final Message msg, final long when) {
+        int spins = Thread.currentThread() == mThread ? 0 : RING_FULL_SPINS;
+        while (true) {
             if (mStopping) {
                 // Do not add further msgs after the close is executed.
+                if (mLimits != null) {
+                    COUNT.decrementAndGet(this); // No sender waits for room anymore, so nobody to notify.
+                }
                 msg.recycle();
                 return false;
             }
+            if (mRing.offer(msg, when)) {
+                break;
+            }
+            if (spins-- == 0) {
+                return insertMessage(msg, when);
+            }
+            Thread.yield();
+        }
+        msg.recycle();
 
-            msg.markInUse();
-            msg.setWhen(when);
-            Message p = mMessages;
-            if (p == null || when == 0 || when < p.when()) {
-                msg.next = p; // as it has when before the first msg, add it at the head
-                mMessages = msg; // and reset head to this.
-            } else {
-                // Find the appropriate slot to place this message, based on its when.
-                Message prev;
-                do {
-                    prev = p;
-                    p = p.next;
-                } while (p != null && when >= p.when());
-                msg.next = p;
-                prev.next = msg;
+        if (mBlocked) {
+            mBlocked = false;
+            unpark();
+        }
+        return true;
+    }
+
+    /**
+     * Drop the messages pushed on the inbox once the queue is stopping, as the consumer might never read it again,
+     * like {@link #stop} dropped the pending ones: the requests are cancelled, and the replies delivered again.
+     */
+    private void dropLatePushes() {
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                Message p = INBOX.getAndSet(this, null);
+                int dropped = 0;
+                while (p != null) {
+                    final Message n = p.next;
+                    p.next = null;
+                    redeliverReply(p);
+                    p.recycleUnchecked();
+                    dropped++;
+                    p = n;
+                }
+                releaseLocked(dropped);
             }
-            notifyAll();
+        } finally {
+            Promise.deliverHeld();
+        }
+    }
+
+    /**
+     * Called for a message which is dropped: if its the reply of a request sent from this queue, it must not be lost,
+     * so its {@link Promise} is delivered again once the lock is released. Returns true, to be used in the filters which remove.
+     */
+    private static boolean redeliverReply(final Message msg) {
+        if (msg.callback() instanceof Promise) {
+            ((Promise) msg.callback()).redeliver();
         }
         return true;
     }
 
-    boolean hasMessages(final Object data) {
+    /**
+     * Move all the messages from the inbox into {@link #mMessages}, in the order they were pushed.
+     */
+    private void drainInboxLocked() {
+        Message p = INBOX.getAndSet(this, null);
+        if (p == null) {
+            return;
+        }
+
+        // Inbox is newest first, so reverse it.
+        Message reversed = null;
+        while (p != null) {
+            final Message n = p.next;
+            p.next = reversed;
+            reversed = p;
+            p = n;
+        }
+
+        while (reversed != null) {
+            final Message n = reversed.next;
+            reversed.next = null;
+            insertLocked(reversed);
+            reversed = n;
+        }
+    }
+
+    /**
+     * Count the message in, before its added. If the queue is full, apply the {@link OverflowPolicy}.
+     *
+     * @param offer If true, do not wait for room.
+     * @return False if the message must not be added.
+     */
+    private boolean acquireSlot(final Message msg, final boolean offer) {
+        final QueueLimits limits = mLimits;
+        long deadline = 0;
+        while (true) {
+            final int count = mCount;
+            if (count < limits.capacity) {
+                if (!COUNT.compareAndSet(this, count, count + 1)) {
+                    continue;
+                }
+                if (count == limits.watermark) {
+                    limits.listener.onWatermarkExceeded(count + 1);
+                }
+                return true;
+            }
+
+            if (mStopping) {
+                return false;
+            }
+            switch (limits.policy) {
+                case BLOCK:
+                    if (offer) {
+                        return false;
+                    }
+                    if (deadline == 0) {
+                        deadline = SystemClock.uptimeNanos() + limits.blockTimeoutNanos;
+                        if (deadline < 0) {
+                            deadline = Long.MAX_VALUE; // Waits forever.
+                        }
+                    }
+                    if (!awaitRoom(deadline)) {
+                        return false;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    final int dropped = dropOldest();
+                    if (dropped > 0) {
+                        return true; // The message takes the slot of the dropped one.
+                    }
+                    if (dropped < 0) {
+                        return false; // Only messages which are never dropped are pending, so its like REJECT.
+                    }
+                    // The pending messages are all being pushed by other senders, they will be there in a moment.
+                    Thread.yield();
+                    break;
+                case COALESCE:
+                    return coalesce(msg);
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Wait until the queue is not full anymore.
+     *
+     * @param deadline Time to give up, in {@link SystemClock#uptimeNanos()}.
+     * @return False if the queue is still full at the deadline, or stopping, or the sender is interrupted.
+     */
+    private boolean awaitRoom(final long deadline) {
         synchronized (this) {
-            Message p = mMessages;
-            while (p != null) {
-                if ((data == null || p.data() == data)) {
-                    return true;
+            mWaitingSenders++;
+            try {
+                while (mCount >= mLimits.capacity) {
+                    final long left = deadline - SystemClock.uptimeNanos();
+                    if (mStopping || left <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
                 }
-                p = p.next;
+                return !mStopping;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Let the sender see it.
+                return false;
+            } finally {
+                mWaitingSenders--;
             }
+        }
+    }
+
+    /**
+     * Drop the earliest message, without processing it. Front of queue and {@link Priority#CONTROL} messages are never dropped.
+     * A queue with a {@link MessageRing} has no such policy, as the producers can not take from the ring.
+     *
+     * @return 1 if a message was dropped, 0 if none is pending yet, -1 if none of the pending ones can be dropped.
+     */
+    private int dropOldest() {
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                drainInboxLocked();
+                final Message oldest = mMessages.findFirst(DROPPABLE);
+                if (oldest == null) {
+                    return mMessages.isEmpty() ? 0 : -1;
+                }
+                mMessages.remove(oldest);
+                if (mIndex != null) {
+                    mIndex.remove(oldest);
+                }
+                forgetCoalesced(oldest);
+                oldest.recycleUnchecked();
+                if (mMetrics != null) {
+                    mMetrics.onDropped(1);
+                }
+                return 1;
+            }
+        } finally {
+            Promise.deliverHeld();
+        }
+    }
+
+    /**
+     * Drop the pending messages with the same data as msg, so it takes their place.
+     *
+     * @return False if there was none.
+     */
+    private boolean coalesce(final Message msg) {
+        final Object data = msg.data();
+        if (data == null) {
             return false;
         }
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                drainInboxLocked();
+                final int size = mMessages.size();
+                removeMessagesLocked(data);
+                final int removed = size - mMessages.size();
+                if (removed == 0) {
+                    return false;
+                }
+                if (mMetrics != null) {
+                    mMetrics.onDropped(removed);
+                }
+                releaseLocked(removed - 1); // The message takes one of the slots.
+                return true;
+            }
+        } finally {
+            Promise.deliverHeld();
+        }
+    }
+
+    /**
+     * @return Number of pending messages, including the inbox. Only counted if the queue has {@link QueueLimits} or metrics, else 0.
+     */
+    int pendingCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Metrics of this queue, null if they are off.
+     */
+    QueueMetrics metrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Count out messages which left the queue, and let the senders waiting for room know.
+     */
+    private void releaseLocked(final int removed) {
+        if (mLimits == null || removed == 0) {
+            return;
+        }
+        COUNT.addAndGet(this, -removed);
+        if (mWaitingSenders > 0) {
+            if (removed == 1) {
+                notify();
+            } else {
+                notifyAll();
+            }
+        }
+    }
+
+    private void insertLocked(final Message msg) {
+        mMessages.insert(msg);
+        if (mIndex != null) {
+            mIndex.add(msg);
+        }
+    }
+
+    /**
+     * Remove the message found through the {@link #mIndex}, and recycle it.
+     */
+    private void removeIndexedLocked(final Message msg) {
+        mMessages.remove(msg);
+        mIndex.remove(msg);
+        forgetCoalesced(msg);
+        msg.recycleUnchecked();
+    }
+
+    /**
+     * Add the message, or if a message with the same coalescing key is pending, give its content to that message instead.
+     *
+     * @param key        Coalescing key, compared with {@link Object#equals}.
+     * @param msg        Message to add.
+     * @param when       The time to process it, in {@link SystemClock#uptimeNanos()}.
+     * @param reschedule If a pending message is replaced, if it moves to when too. Else it keeps its time and its place.
+     * @return True if it is added or replaced the pending one, false otherwise like if queue was stopping etc.
+     */
+    boolean enqueueCoalesced(final Object key, final Message msg, final long when, final boolean reschedule) {
+        if (msg.isInUse()) {
+            throw new IllegalStateException(msg + " This message is already in use.");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("key == null");
+        }
+
+        boolean counted = false;
+        while (true) {
+            Promise.holdCancels();
+            try {
+                synchronized (this) {
+                    if (mStopping) {
+                        releaseLocked(counted ? 1 : 0);
+                        msg.recycle();
+                        return false;
+                    }
+                    drainInboxLocked();
+
+                    final Message pending = mCoalesced == null ? null : mCoalesced.get(key);
+                    if (pending != null) {
+                        replaceLocked(pending, msg, when, reschedule);
+                        releaseLocked(counted ? 1 : 0);
+                        msg.recycle();
+                        if (mMetrics != null) {
+                            mMetrics.onCoalesced();
+                        }
+                        return true;
+                    }
+
+                    if (mLimits == null || counted) {
+                        if (mCoalesced == null) {
+                            mCoalesced = new HashMap<>();
+                        }
+                        msg.markInUse();
+                        msg.setWhen(when);
+                        msg.coalesceKey = key;
+                        mCoalesced.put(key, msg);
+                        insertLocked(msg);
+                        if (mMessages.peek() == msg) {
+                            onHeadChangedLocked(msg);
+                        }
+                        return true;
+                    }
+                }
+            } finally {
+                Promise.deliverHeld();
+            }
+
+            // Out of the lock, as the policy might wait for room. Then check again, the key might be pending by now.
+            if (!acquireSlot(msg, false)) {
+                if (mMetrics != null && !mStopping) {
+                    mMetrics.onDropped(1);
+                }
+                msg.recycle();
+                return false;
+            }
+            if (mMetrics != null) {
+                mMetrics.onEnqueued();
+            }
+            counted = true;
+        }
+    }
+
+    /**
+     * Give the content of msg to the pending message, keeping the index right. The pending message moves if its time
+     * or its priority (so its lane) changes.
+     */
+    private void replaceLocked(final Message pending, final Message msg, final long when, final boolean reschedule) {
+        if (mIndex != null) {
+            mIndex.remove(pending);
+        }
+        final boolean moved = (reschedule && pending.when() != when) || pending.priority() != msg.priority();
+        if (moved) {
+            final Message oldHead = mMessages.peek();
+            mMessages.remove(pending);
+            pending.replacePayload(msg);
+            if (reschedule) {
+                pending.setWhen(when);
+            }
+            mMessages.insert(pending);
+            final Message head = mMessages.peek();
+            if (head != oldHead || head == pending) { // Same head, but maybe at a new time.
+                onHeadChangedLocked(head);
+            }
+        } else {
+            pending.replacePayload(msg);
+        }
+        if (mIndex != null) {
+            mIndex.add(pending);
+        }
+    }
+
+    /**
+     * Called for every message which leaves {@link #mMessages}.
+     */
+    private void forgetCoalesced(final Message msg) {
+        if (msg.coalesceKey != null) {
+            mCoalesced.remove(msg.coalesceKey);
+            msg.coalesceKey = null;
+        }
+    }
+
+    /**
+     * @return The filter, which also forgets the coalescing keys of the messages it removes, if there are any.
+     */
+    private Predicate<Message> forgetting(final Predicate<Message> filter) {
+        if (mCoalesced == null || mCoalesced.isEmpty()) {
+            return filter;
+        }
+        return p -> {
+            if (filter.test(p)) {
+                forgetCoalesced(p);
+                return true;
+            }
+            return false;
+        };
+    }
+
+    boolean hasMessages(final Object data) {
+        synchronized (this) {
+            drainInboxLocked();
+            if (data == null) {
+                return !mMessages.isEmpty() || (mRing != null && mRing.hasPending());
+            }
+            if (mIndex != null) {
+                return mIndex.firstByData(data) != null;
+            }
+            return mMessages.contains(p -> p.data() == data);
+        }
     }
 
     boolean hasMessages(final Runnable r, final Object data) {
         synchronized (this) {
-            Message p = mMessages;
-            while (p != null) {
-                if (p.callback() == r && (data == null || p.data() == data)) {
-                    return true;
+            drainInboxLocked();
+            if (mIndex != null && r != null) {
+                for (Message p = mIndex.firstByCallback(r); p != null; p = p.nextByCallback) {
+                    if (data == null || p.data() == data) {
+                        return true;
+                    }
                 }
-                p = p.next;
+                return false;
             }
-            return false;
+            return mMessages.contains(p -> p.callback() == r && (data == null || p.data() == data));
         }
     }
 
     void removeMessages(final Object dataToRemove) {
-        synchronized (this) {
-            Message p = mMessages;
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                drainInboxLocked();
+                final int size = mMessages.size();
+                if (dataToRemove == null) {
+                    removeAllMessagesLocked();
+                } else {
+                    removeMessagesLocked(dataToRemove);
+                }
+                releaseLocked(size - mMessages.size());
+            }
+        } finally {
+            Promise.deliverHeld();
+        }
+    }
 
-            // Remove all messages at front.
-            while (p != null && (dataToRemove == null || p.data() == dataToRemove)) {
-                Message n = p.next;
-                mMessages = n;
-                p.recycleUnchecked();
+    private void removeMessagesLocked(final Object dataToRemove) {
+        if (mIndex != null) {
+            Message p = mIndex.firstByData(dataToRemove);
+            while (p != null) {
+                final Message n = p.nextByData;
+                removeIndexedLocked(p);
                 p = n;
             }
+        } else {
+            mMessages.removeIf(forgetting(p -> p.data() == dataToRemove));
+        }
+    }
 
-            // Remove all messages after front.
-            while (p != null) {
-                Message n = p.next;
-                if (n != null) {
-                    if (n.data() == dataToRemove) {
-                        Message nn = n.next;
-                        n.recycleUnchecked();
-                        p.next = nn;
-                        continue;
+    /**
+     * @return True if a pending message without callback has this what.
+     */
+    boolean hasMessages(final int what) {
+        synchronized (this) {
+            drainInboxLocked();
+            if (mIndex != null) {
+                return mIndex.firstByWhat(what) != null;
+            }
+            return mMessages.contains(p -> p.what() == what && p.callback() == null);
+        }
+    }
+
+    /**
+     * Remove the pending messages without callback which have this what.
+     */
+    void removeMessages(final int what) {
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                drainInboxLocked();
+                final int size = mMessages.size();
+                if (mIndex != null) {
+                    Message p = mIndex.firstByWhat(what);
+                    while (p != null) {
+                        final Message n = p.nextByWhat;
+                        removeIndexedLocked(p);
+                        p = n;
                     }
+                } else {
+                    mMessages.removeIf(forgetting(p -> p.what() == what && p.callback() == null));
                 }
-                p = n;
+                releaseLocked(size - mMessages.size());
             }
+        } finally {
+            Promise.deliverHeld();
         }
     }
 
@@ -154,78 +1317,110 @@ final class MessageQueue {
             return;
         }
 
-        synchronized (this) {
-            Message p = mMessages;
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                drainInboxLocked();
+                final int size = mMessages.size();
+                if (mIndex != null) {
+                    Message p = mIndex.firstByCallback(r);
+                    while (p != null) {
+                        final Message n = p.nextByCallback;
+                        if (data == null || p.data() == data) {
+                            removeIndexedLocked(p);
+                        }
+                        p = n;
+                    }
+                } else {
+                    mMessages.removeIf(forgetting(p -> p.callback() == r && (data == null || p.data() == data)));
+                }
+                releaseLocked(size - mMessages.size());
+            }
+        } finally {
+            Promise.deliverHeld();
+        }
+    }
 
-            // Remove all messages at front.
-            while (p != null && p.callback() == r && (data == null || p.data() == data)) {
-                Message n = p.next;
-                mMessages = n;
-                p.recycleUnchecked();
-                p = n;
+    /**
+     * @return True if a pending message sent to the messenger of a {@link MessengerLoop} matches the filter.
+     */
+    boolean hasMessages(final Messenger target, final Predicate<Message> filter) {
+        synchronized (this) {
+            drainInboxLocked();
+            if (mIndex != null) {
+                for (Message p = mIndex.firstByTarget(target); p != null; p = p.nextByTarget) {
+                    if (filter.test(p)) {
+                        return true;
+                    }
+                }
+                return false;
             }
+            return mMessages.contains(p -> p.target == target && filter.test(p));
+        }
+    }
 
-            // Remove all messages after front.
-            while (p != null) {
-                Message n = p.next;
-                if (n != null) {
-                    if (n.callback() == r && (data == null || n.data() == data)) {
-                        Message nn = n.next;
-                        n.recycleUnchecked();
-                        p.next = nn;
-                        continue;
+    /**
+     * Remove the pending messages sent to the messenger of a {@link MessengerLoop} which match the filter.
+     */
+    void removeMessages(final Messenger target, final Predicate<Message> filter) {
+        Promise.holdCancels();
+        try {
+            synchronized (this) {
+                drainInboxLocked();
+                final int size = mMessages.size();
+                if (mIndex != null) {
+                    Message p = mIndex.firstByTarget(target);
+                    while (p != null) {
+                        final Message n = p.nextByTarget;
+                        if (filter.test(p)) {
+                            removeIndexedLocked(p);
+                        }
+                        p = n;
                     }
+                } else {
+                    mMessages.removeIf(forgetting(p -> p.target == target && filter.test(p)));
                 }
-                p = n;
+                releaseLocked(size - mMessages.size());
             }
+        } finally {
+            Promise.deliverHeld();
         }
     }
 
     /**
      * Remove all the messages in the queue,  so they wont be read and dispatched by the consumer.
+     * The replies are delivered again, see {@link Promise#redeliver()}: back in this queue, or right away if its stopping.
      */
     private void removeAllMessagesLocked() {
-        Message p = mMessages; // Iterate over the LinkedList and remove one message at a time.
-        while (p != null) {
-            final Message n = p.next;
-            p.recycleUnchecked();
-            p = n;
+        mMessages.removeIf(MessageQueue::redeliverReply);
+        if (mIndex != null) {
+            mIndex.clear();
+        }
+        if (mCoalesced != null) {
+            mCoalesced.clear();
+        }
+        if (mRing != null) {
+            mRing.dropAll(); // Dropped by the consumer when it gets to them.
         }
-        mMessages = null;
     }
 
     /**
      * Remove all messages with their {@link Message#when} after the current time. All messages before this will not be removed.
      */
     private void removeAllFutureMessagesLocked() {
-        final long now = System.currentTimeMillis();
-        Message p = mMessages;
-        if (p != null) {
+        final long now = SystemClock.uptimeNanos();
+        if (mIndex == null && (mCoalesced == null || mCoalesced.isEmpty())) {
+            mMessages.removeAfter(now);
+            return;
+        }
+        mMessages.removeIf(forgetting(p -> {
             if (p.when() > now) {
-                // All messages to the next of p are added after this p, so they can be removed.
-                removeAllMessagesLocked();
-            } else {
-                Message n;
-                while (true) { // Keep iterating until we find the message to be processed in the future.
-                    n = p.next;
-                    if (n == null) {
-                        // Reached end, no more messages.
-                        return;
-                    }
-                    if (n.when() > now) {
-                        break;
-                    }
-                    p = n;
+                if (mIndex != null) {
+                    mIndex.remove(p);
                 }
-                p.next = null; // p is the last message which should be processed. So do not remove them.
-
-                // Recycled/remove all messages after n(n being the first message to be processed in the future).
-                do {
-                    p = n;
-                    n = p.next;
-                    p.recycleUnchecked();
-                } while (n != null);
+                return true;
             }
-        }
+            return false;
+        }));
     }
-}
\ No newline at end of file
+}
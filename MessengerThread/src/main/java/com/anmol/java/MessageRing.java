@@ -0,0 +1,164 @@
+package com.anmol.java;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Bounded multi producer/single consumer ring of preallocated {@link Message} slots, like the Disruptor.
+ * <br>
+ * A producer claims a sequence with a CAS on the claim cursor, copies its message into the slot of that sequence, then publishes it
+ * by setting the sequence of the slot. The consumer reads the slots in sequence order. A slot taken by the consumer is only given
+ * back to the producers by {@link #releaseTaken()}, once its message is dispatched.
+ * <br>
+ * The sequence of slot i is: lap*capacity+i while its free for that lap, +1 once its published.
+ * <br>
+ * The claim cursor is padded on its own cache lines (see {@link MessageRingClaim}), as all the producers write it,
+ * and it must not slow down the consumer reading the other fields.
+ */
+final class MessageRing extends MessageRingPadding {
+
+    private static final AtomicLongFieldUpdater<MessageRingClaim> CLAIM =
+            AtomicLongFieldUpdater.newUpdater(MessageRingClaim.class, "mClaim");
+    private static final AtomicLongFieldUpdater<MessageRing> TAKEN =
+            AtomicLongFieldUpdater.newUpdater(MessageRing.class, "mTaken");
+
+    private final Message[] mSlots;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private volatile long mTaken; // Next sequence to take. Only written by the consumer, read by the others to tell if its empty.
+    private long mReleased; // Sequences below it are given back to the producers. Consumer only.
+    private volatile long mDropUntil; // Sequences below it are dropped instead of being taken, see dropAll().
+
+    /**
+     * @param capacity Number of slots, a power of 2.
+     */
+    MessageRing(final int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        mSlots = new Message[capacity];
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = Message.newSlot();
+            mSequences.lazySet(i, i);
+        }
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Copy the message into the next free slot. Called by any producer.
+     *
+     * @param when The time to process it, in {@link SystemClock#uptimeNanos()}.
+     * @return False if the ring is full, then the message is not copied.
+     */
+    boolean offer(final Message msg, final long when) {
+        while (true) {
+            final long claim = mClaim;
+            final int index = (int) claim & mMask;
+            final long sequence = mSequences.get(index);
+            if (sequence == claim) {
+                if (CLAIM.compareAndSet(this, claim, claim + 1)) {
+                    final Message slot = mSlots[index];
+                    slot.replacePayload(msg);
+                    slot.setWhen(when);
+                    // Volatile, so the check of MessageQueue#mBlocked which follows is not ordered before it.
+                    mSequences.set(index, claim + 1);
+                    return true;
+                }
+            } else if (sequence < claim) {
+                return false; // The slot is not released yet from the previous lap.
+            }
+            // Else another producer claimed it meanwhile, try the next one.
+        }
+    }
+
+    /**
+     * @return The message of the next published slot, without taking it. Null if there is none. Consumer only.
+     */
+    Message peek() {
+        final long taken = mTaken;
+        final int index = (int) taken & mMask;
+        return mSequences.get(index) == taken + 1 ? mSlots[index] : null;
+    }
+
+    /**
+     * Take the message returned by {@link #peek()}. Consumer only.
+     */
+    Message take() {
+        final long taken = mTaken;
+        TAKEN.lazySet(this, taken + 1);
+        return mSlots[(int) taken & mMask];
+    }
+
+    /**
+     * Give the slots taken so far back to the producers. Consumer only, once their messages are dispatched and recycled.
+     */
+    void releaseTaken() {
+        final long taken = mTaken;
+        final int capacity = mSlots.length;
+        for (long released = mReleased; released < taken; released++) {
+            mSequences.lazySet((int) released & mMask, released + capacity);
+        }
+        mReleased = taken;
+    }
+
+    /**
+     * Drop all the messages claimed so far, when the consumer gets to them. Called by any thread.
+     */
+    void dropAll() {
+        mDropUntil = mClaim;
+    }
+
+    /**
+     * Skip the published messages which were dropped by {@link #dropAll()}. Consumer only.
+     *
+     * @return Number of messages skipped.
+     */
+    int skipDropped() {
+        int skipped = 0;
+        while (mTaken < mDropUntil) {
+            final Message slot = peek();
+            if (slot == null) {
+                break; // Not published yet.
+            }
+            take().recycleUnchecked();
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return True if no published message is left to take. Consumer only.
+     */
+    boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * @return True if some messages were claimed, and are not yet taken nor dropped. Called by any thread.
+     */
+    boolean hasPending() {
+        return mClaim > Math.max(mTaken, mDropUntil);
+    }
+}
+
+/**
+ * Cache line before {@link MessageRingClaim#mClaim}.
+ */
+abstract class MessageRingClaimPadding {
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+/**
+ * Claim cursor of a {@link MessageRing}: the next sequence a producer can claim.
+ */
+abstract class MessageRingClaim extends MessageRingClaimPadding {
+    volatile long mClaim;
+}
+
+/**
+ * Cache line after {@link MessageRingClaim#mClaim}.
+ */
+abstract class MessageRingPadding extends MessageRingClaim {
+    long p11, p12, p13, p14, p15, p16, p17;
+}
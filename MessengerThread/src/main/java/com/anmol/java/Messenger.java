@@ -0,0 +1,284 @@
+package com.anmol.java;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lightweight messenger hosted by a {@link MessengerLoop}: it has its own handler and its own pending messages,
+ * but no queue nor thread of its own. Its messages are processed on the thread of the loop, one at a time, in order,
+ * interleaved with the messages of the other messengers of the loop.
+ * <br>
+ * The remove/has operations only see the messages of this messenger. {@link #close()} removes them,
+ * and stops it from sending any more, so a messenger can be dropped at any time without stopping the loop.
+ * <br>
+ * The loop must be started before sending, else the sends return false.
+ */
+public abstract class Messenger {
+
+    private final MessengerLoop mLoop;
+    private volatile boolean mClosed;
+
+    /**
+     * @param loop Loop which processes the messages of this messenger.
+     */
+    public Messenger(final MessengerLoop loop) {
+        if (loop == null) {
+            throw new IllegalArgumentException("loop == null");
+        }
+        mLoop = loop;
+    }
+
+    /**
+     * @param group Group of loops, this messenger goes on the {@link MessengerLoopGroup#next() next} one.
+     */
+    public Messenger(final MessengerLoopGroup group) {
+        this(group.next());
+    }
+
+    /**
+     * To handle the messages send onto this {@link Messenger}. Called on the thread of its loop.
+     *
+     * @param msg Message read.
+     */
+    protected void onMessage(final Message msg) {
+    }
+
+    public final MessengerLoop loop() {
+        return mLoop;
+    }
+
+    /**
+     * Remove the pending messages of this messenger, and stop accepting new ones. A message already being dispatched by the loop
+     * still runs. The loop keeps running for the other messengers.
+     */
+    public final void close() {
+        mClosed = true;
+        removeMessages();
+    }
+
+    public final boolean isClosed() {
+        return mClosed;
+    }
+
+    // Write Operations
+
+    /**
+     * Send the Runnable, which should be processed at the current time, see {@link MessengerThread#post(Runnable)}.
+     */
+    public final boolean post(final Runnable runnable) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), 0);
+    }
+
+    /**
+     * Send the Runnable, which should be processed at the uptimeMillis time, see {@link MessengerThread#postAtTime(Runnable, long)}.
+     */
+    public final boolean postAtTime(final Runnable runnable, final long uptimeMillis) {
+        return sendMessageAtTime(Message.obtain().withCallback(runnable), uptimeMillis);
+    }
+
+    /**
+     * Send the Runnable, which should be processed after the delayMillis, see {@link MessengerThread#postDelayed(Runnable, long)}.
+     */
+    public final boolean postDelayed(final Runnable runnable, final long delayMillis) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delayMillis);
+    }
+
+    /**
+     * Same as {@link #postDelayed(Runnable, long)}, with the delay in any unit.
+     */
+    public final boolean postDelayed(final Runnable runnable, final long delay, final TimeUnit unit) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delay, unit);
+    }
+
+    /**
+     * Same as {@link #postDelayed(Runnable, long)}, with the delay as a {@link Duration}.
+     */
+    public final boolean postDelayed(final Runnable runnable, final Duration delay) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delay);
+    }
+
+    /**
+     * Send the Runnable, which should be processed at the earliest, see {@link MessengerThread#postAtFrontOfQueue(Runnable)}.
+     * It goes before the messages of all the messengers of the loop.
+     */
+    public final boolean postAtFrontOfQueue(final Runnable runnable) {
+        return sendMessageAtFrontOfQueue(Message.obtain().withCallback(runnable));
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed ASAP, see {@link MessengerThread#sendMessage(Message)}.
+     */
+    public final boolean sendMessage(final Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    /**
+     * Send an empty {@link Message}, which should be processed ASAP, see {@link MessengerThread#sendEmptyMessage()}.
+     */
+    public final boolean sendEmptyMessage() {
+        return sendMessageDelayed(Message.obtain(), 0);
+    }
+
+    /**
+     * Send an empty {@link Message} with the what set, which should be processed ASAP, see {@link MessengerThread#sendEmptyMessage(int)}.
+     */
+    public final boolean sendEmptyMessage(final int what) {
+        return sendMessageDelayed(Message.obtain(what), 0);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed after the delayMillis, see {@link MessengerThread#sendMessageDelayed(Message, long)}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final long delayMillis) {
+        return sendMessageDelayed(msg, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay in any unit.
+     */
+    public final boolean sendMessageDelayed(final Message msg, long delay, final TimeUnit unit) {
+        if (delay < 0) {
+            delay = 0;
+        }
+        final long when = SystemClock.uptimeNanos() + unit.toNanos(delay);
+        return sendMessageAtTimeNanos(msg, when < 0 ? Long.MAX_VALUE : when);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay as a {@link Duration}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final Duration delay) {
+        long delayNanos;
+        try {
+            delayNanos = delay.toNanos();
+        } catch (ArithmeticException tooLong) {
+            delayNanos = delay.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+        return sendMessageDelayed(msg, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed at uptimeMillis, see {@link MessengerThread#sendMessageAtTime(Message, long)}.
+     */
+    public final boolean sendMessageAtTime(final Message msg, final long uptimeMillis) {
+        return sendMessageAtTimeNanos(msg, TimeUnit.MILLISECONDS.toNanos(uptimeMillis));
+    }
+
+    /**
+     * Same as {@link #sendMessageAtTime(Message, long)}, with the time in {@link SystemClock#uptimeNanos()}.
+     */
+    public final boolean sendMessageAtTimeNanos(final Message msg, final long uptimeNanos) {
+        if (!target(msg)) {
+            return false;
+        }
+        return mLoop.sendMessageAtTimeNanos(msg, uptimeNanos);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed at first, see {@link MessengerThread#sendMessageAtFrontOfQueue(Message)}.
+     * It goes before the messages of all the messengers of the loop.
+     */
+    public final boolean sendMessageAtFrontOfQueue(final Message msg) {
+        if (!target(msg)) {
+            return false;
+        }
+        return mLoop.sendMessageAtFrontOfQueue(msg);
+    }
+
+    /**
+     * Address the message to this messenger, before its sent.
+     *
+     * @return False if this messenger is closed.
+     */
+    private boolean target(final Message msg) {
+        if (msg.isInUse()) {
+            throw new IllegalStateException(msg + " This message is already in use.");
+        }
+        if (mClosed) {
+            return false;
+        }
+        msg.target = this;
+        return true;
+    }
+
+    // Remove/has operations, on the messages of this messenger only.
+
+    /**
+     * Removes all the messages of this messenger.
+     */
+    public final void removeMessages() {
+        final MessageQueue queue = mLoop.queue();
+        if (queue != null) {
+            queue.removeMessages(this, p -> true);
+        }
+    }
+
+    /**
+     * Removes the messages with Data=dataValue.
+     */
+    public final void removeMessages(final Object dataValue) {
+        final MessageQueue queue = mLoop.queue();
+        if (queue != null) {
+            queue.removeMessages(this, p -> p.data() == dataValue);
+        }
+    }
+
+    /**
+     * Removes the messages with this what, see {@link MessengerThread#removeMessages(int)}.
+     */
+    public final void removeMessages(final int what) {
+        final MessageQueue queue = mLoop.queue();
+        if (queue != null) {
+            queue.removeMessages(this, p -> p.what() == what && p.callback() == null);
+        }
+    }
+
+    /**
+     * Removes the messages with the provided Runnable.
+     */
+    public final void removeMessages(final Runnable runnable) {
+        removeMessages(runnable, null);
+    }
+
+    /**
+     * Removes the messages with the matching Runnable and data.
+     */
+    public final void removeMessages(final Runnable runnable, final Object data) {
+        final MessageQueue queue = mLoop.queue();
+        if (queue != null && runnable != null) {
+            queue.removeMessages(this, p -> p.callback() == runnable && (data == null || p.data() == data));
+        }
+    }
+
+    /**
+     * Tells if this messenger has any {@link Message} or {@link Runnable} yet to be processed.
+     */
+    public final boolean hasMessages() {
+        final MessageQueue queue = mLoop.queue();
+        return queue != null && queue.hasMessages(this, p -> true);
+    }
+
+    /**
+     * Tells if this messenger has any {@link Message} or {@link Runnable} with data=dataValue yet to be processed.
+     */
+    public final boolean hasMessages(final Object object) {
+        final MessageQueue queue = mLoop.queue();
+        return queue != null && queue.hasMessages(this, p -> p.data() == object);
+    }
+
+    /**
+     * Tells if this messenger has any {@link Message} with this what yet to be processed, see {@link MessengerThread#hasMessages(int)}.
+     */
+    public final boolean hasMessages(final int what) {
+        final MessageQueue queue = mLoop.queue();
+        return queue != null && queue.hasMessages(this, p -> p.what() == what && p.callback() == null);
+    }
+
+    /**
+     * Tells if this messenger has the {@link Runnable} yet to be processed.
+     */
+    public final boolean hasCallbacks(final Runnable runnable) {
+        final MessageQueue queue = mLoop.queue();
+        return queue != null && queue.hasMessages(this, p -> p.callback() == runnable);
+    }
+}
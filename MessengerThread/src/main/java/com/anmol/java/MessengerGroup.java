@@ -0,0 +1,339 @@
+package com.anmol.java;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A group of {@link MessengerThread}s, which accepts {@link Message messages}/{@link Runnable runnables} like a single one,
+ * but processes them on several threads.
+ * <br>
+ * Every member has its own {@link MessageQueue} and {@link Consumer}, and all the members handle the messages in
+ * {@link MessengerGroup#onMessage}, so it must be thread safe.
+ * <br>2 ways to send:
+ * <ol>
+ *     <li> Without a key: the message goes to an idle member if there is one. A member which has nothing to process
+ *     steals the due messages of the others (work-stealing), so the load is shared.</li>
+ *     <li> With a key: all the messages with the same key (by {@link Object#equals}) always go to the same member and are never stolen,
+ *     so they are processed one at a time, in the order they were sent (key-affinity).</li>
+ * </ol>
+ * Remove/has operations apply to all the members.
+ */
+public abstract class MessengerGroup {
+    private final Member[] mMembers;
+    private int mNextMember; // Member to try first for a message without key. Racy on purpose, its only to spread the load.
+
+    /**
+     * @param name Name of the group, the members are called name-0, name-1...
+     * @param size Number of threads.
+     */
+    public MessengerGroup(final String name, final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size <= 0");
+        }
+        mMembers = new Member[size];
+        for (int i = 0; i < size; i++) {
+            mMembers[i] = new Member(this, name + "-" + i);
+        }
+    }
+
+    /**
+     * Called by a member thread, once its ready to accept messages. Like {@link MessengerThread#onRun()}.
+     */
+    protected void onRun() {
+    }
+
+    /**
+     * To handle the messages send onto this {@link MessengerGroup}. Called concurrently by all the members.
+     *
+     * @param msg Message read.
+     */
+    protected void onMessage(final Message msg) {
+    }
+
+    /**
+     * Start all the member threads, and wait for them to accept messages.
+     */
+    public void start() {
+        for (Member member : mMembers) {
+            member.start();
+        }
+
+        final MessageQueue[] queues = new MessageQueue[mMembers.length];
+        for (int i = 0; i < mMembers.length; i++) {
+            queues[i] = mMembers[i].queue();
+        }
+        for (int i = 0; i < queues.length && queues.length > 1; i++) {
+            final MessageQueue[] siblings = new MessageQueue[queues.length - 1];
+            for (int j = 0, k = 0; j < queues.length; j++) {
+                if (j != i) {
+                    siblings[k++] = queues[j];
+                }
+            }
+            queues[i].setSiblings(siblings);
+        }
+    }
+
+    /**
+     * Close all the members, see {@link MessengerThread#close()}.
+     */
+    public boolean close() {
+        boolean closed = true;
+        for (Member member : mMembers) {
+            closed &= member.close();
+        }
+        return closed;
+    }
+
+    /**
+     * Close all the members safely, see {@link MessengerThread#closeSafely()}.
+     */
+    public boolean closeSafely() {
+        boolean closed = true;
+        for (Member member : mMembers) {
+            closed &= member.closeSafely();
+        }
+        return closed;
+    }
+
+    public final int size() {
+        return mMembers.length;
+    }
+
+    // Write Operations, without key.
+
+    /**
+     * Send the Runnable to be run by any of the members, see {@link MessengerThread#post(Runnable)}.
+     */
+    public final boolean post(final Runnable runnable) {
+        return pickMember().post(runnable);
+    }
+
+    /**
+     * Send the Runnable to be run by any of the members after the delayMillis, see {@link MessengerThread#postDelayed(Runnable, long)}.
+     */
+    public final boolean postDelayed(final Runnable runnable, final long delayMillis) {
+        return pickMember().postDelayed(runnable, delayMillis);
+    }
+
+    /**
+     * Send the Runnable to be run by any of the members at uptimeMillis, see {@link MessengerThread#postAtTime(Runnable, long)}.
+     */
+    public final boolean postAtTime(final Runnable runnable, final long uptimeMillis) {
+        return pickMember().postAtTime(runnable, uptimeMillis);
+    }
+
+    /**
+     * Send the {@link Message} to be handled by any of the members, see {@link MessengerThread#sendMessage(Message)}.
+     */
+    public final boolean sendMessage(final Message msg) {
+        return pickMember().sendMessage(msg);
+    }
+
+    /**
+     * Send the {@link Message} to be handled by any of the members after the delayMillis, see {@link MessengerThread#sendMessageDelayed(Message, long)}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final long delayMillis) {
+        return pickMember().sendMessageDelayed(msg, delayMillis);
+    }
+
+    /**
+     * Send the {@link Message} to be handled by any of the members after the delay, see {@link MessengerThread#sendMessageDelayed(Message, long, TimeUnit)}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final long delay, final TimeUnit unit) {
+        return pickMember().sendMessageDelayed(msg, delay, unit);
+    }
+
+    /**
+     * Send the {@link Message} to be handled by any of the members at uptimeMillis, see {@link MessengerThread#sendMessageAtTime(Message, long)}.
+     */
+    public final boolean sendMessageAtTime(final Message msg, final long uptimeMillis) {
+        return pickMember().sendMessageAtTime(msg, uptimeMillis);
+    }
+
+    // Write Operations, with key.
+
+    /**
+     * Send the Runnable to the member owning the key. Runnables and messages with the same key are processed in the order they were sent.
+     */
+    public final boolean post(final Object key, final Runnable runnable) {
+        return sendMessage(key, Message.obtain().withCallback(runnable));
+    }
+
+    /**
+     * Same as {@link #post(Object, Runnable)}, processed after the delayMillis.
+     */
+    public final boolean postDelayed(final Object key, final Runnable runnable, final long delayMillis) {
+        return sendMessageDelayed(key, Message.obtain().withCallback(runnable), delayMillis);
+    }
+
+    /**
+     * Send the {@link Message} to the member owning the key. Runnables and messages with the same key are processed in the order they were sent.
+     */
+    public final boolean sendMessage(final Object key, final Message msg) {
+        return sendMessageDelayed(key, msg, 0);
+    }
+
+    /**
+     * Same as {@link #sendMessage(Object, Message)}, processed after the delayMillis.
+     */
+    public final boolean sendMessageDelayed(final Object key, final Message msg, final long delayMillis) {
+        final Member member = mMembers[index(key)];
+        if (msg.isInUse()) {
+            throw new IllegalStateException(msg + " This message is already in use.");
+        }
+        msg.markPinned();
+        return member.sendMessageDelayed(msg, delayMillis);
+    }
+
+    /**
+     * @return The member thread which processes all the messages sent with this key.
+     */
+    public final MessengerThread memberFor(final Object key) {
+        return mMembers[index(key)];
+    }
+
+    // Remove/Has Operations, on all members.
+
+    /**
+     * Removes all the messages in the queues of all the members.
+     */
+    public final void removeMessages() {
+        for (Member member : mMembers) {
+            member.removeMessages();
+        }
+    }
+
+    /**
+     * Removes the messages with Data=dataValue, in all the members.
+     */
+    public final void removeMessages(final Object dataValue) {
+        for (Member member : mMembers) {
+            member.removeMessages(dataValue);
+        }
+    }
+
+    /**
+     * Removes the messages with this what, in all the members, see {@link MessengerThread#removeMessages(int)}.
+     */
+    public final void removeMessages(final int what) {
+        for (Member member : mMembers) {
+            member.removeMessages(what);
+        }
+    }
+
+    /**
+     * Removes the messages with the provided Runnable, in all the members.
+     */
+    public final void removeMessages(final Runnable runnable) {
+        for (Member member : mMembers) {
+            member.removeMessages(runnable);
+        }
+    }
+
+    /**
+     * Removes the messages with the matching Runnable and data, in all the members.
+     */
+    public final void removeMessages(final Runnable runnable, final Object data) {
+        for (Member member : mMembers) {
+            member.removeMessages(runnable, data);
+        }
+    }
+
+    /**
+     * Tells if any member has a {@link Message} or {@link Runnable} yet to be processed.
+     */
+    public final boolean hasMessages() {
+        for (Member member : mMembers) {
+            if (member.hasMessages()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells if any member has a {@link Message} or {@link Runnable} with data=dataValue yet to be processed.
+     */
+    public final boolean hasMessages(final Object object) {
+        for (Member member : mMembers) {
+            if (member.hasMessages(object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells if any member has a {@link Message} with this what yet to be processed, see {@link MessengerThread#hasMessages(int)}.
+     */
+    public final boolean hasMessages(final int what) {
+        for (Member member : mMembers) {
+            if (member.hasMessages(what)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells if any member has the {@link Runnable} yet to be processed.
+     */
+    public final boolean hasCallbacks(final Runnable runnable) {
+        for (Member member : mMembers) {
+            if (member.hasCallbacks(runnable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Member for a message without key: the first idle one, else the next one in turn.
+     */
+    private Member pickMember() {
+        final int start = mNextMember;
+        mNextMember = start + 1 >= mMembers.length ? 0 : start + 1;
+        for (int i = 0, index = start; i < mMembers.length; i++) {
+            final MessageQueue queue = mMembers[index].mQueueRef;
+            if (queue != null && queue.isIdle()) {
+                return mMembers[index];
+            }
+            if (++index == mMembers.length) {
+                index = 0;
+            }
+        }
+        return mMembers[start];
+    }
+
+    private int index(final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key == null");
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16); // Spread the high bits, like HashMap does.
+        return (h & 0x7fffffff) % mMembers.length;
+    }
+
+    /**
+     * Member thread of the group, handing all its messages to the group.
+     */
+    private static final class Member extends MessengerThread {
+        private final MessengerGroup mGroup;
+        private volatile MessageQueue mQueueRef; // Queue of this member once started, to check if its idle without waiting.
+
+        Member(final MessengerGroup group, final String name) {
+            super(name);
+            mGroup = group;
+        }
+
+        @Override
+        protected void onRun() {
+            mQueueRef = queue();
+            mGroup.onRun();
+        }
+
+        @Override
+        protected void onMessage(final Message msg) {
+            mGroup.onMessage(msg);
+        }
+    }
+}
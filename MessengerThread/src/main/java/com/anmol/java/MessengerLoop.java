@@ -0,0 +1,38 @@
+package com.anmol.java;
+
+/**
+ * A {@link MessengerThread} which hosts many lightweight {@link Messenger}s, like an event loop.
+ * <br>
+ * Every messenger has its own handler and its own pending messages, which it can look up and remove without touching the
+ * messages of the others, but they all share the queue and the thread of the loop: one consumer, one timer structure.
+ * So ten thousand mostly idle messengers cost ten thousand small objects, not ten thousand threads.
+ * Use a {@link MessengerLoopGroup} to spread them over a few loops, one per core.
+ * <br>
+ * The pending messages are kept in a {@link MessageOrdering#BINARY_HEAP}, indexed (see {@link #withIndexedLookups(boolean)}),
+ * so removing the messages of one messenger costs the number of its messages, not the size of the queue.
+ * <br>
+ * A message sent to the loop itself, not to one of its messengers, is dropped. A Runnable posted to it runs as usual.
+ */
+public class MessengerLoop extends MessengerThread {
+
+    public MessengerLoop(final String name) {
+        super(name);
+        withOrdering(MessageOrdering.BINARY_HEAP);
+        withIndexedLookups(true);
+    }
+
+    @Override
+    protected void onRun() {
+    }
+
+    /**
+     * Dispatch the message to the {@link Messenger} it was sent to. The ones of a closed messenger never get here, see {@link Consumer#dispatch}.
+     */
+    @Override
+    protected final void onMessage(final Message msg) {
+        final Messenger target = msg.target;
+        if (target != null) {
+            target.onMessage(msg);
+        }
+    }
+}
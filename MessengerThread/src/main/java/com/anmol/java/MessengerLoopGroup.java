@@ -0,0 +1,86 @@
+package com.anmol.java;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A few {@link MessengerLoop}s (one per core by default), to host many {@link Messenger}s on a fixed number of threads.
+ * <br>
+ * A messenger stays on the loop it was created on. Either the loops take turns ({@link #next()}), or a key picks the loop
+ * ({@link #loopFor(Object)}), so the messengers of the same key share a thread and never need to lock against each other.
+ */
+public final class MessengerLoopGroup {
+    private final MessengerLoop[] mLoops;
+    private final AtomicInteger mNext = new AtomicInteger();
+
+    /**
+     * Group with one loop per available processor.
+     *
+     * @param name Name of the group, the loops are called name-0, name-1...
+     */
+    public MessengerLoopGroup(final String name) {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param name Name of the group, the loops are called name-0, name-1...
+     * @param size Number of loops.
+     */
+    public MessengerLoopGroup(final String name, final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size <= 0");
+        }
+        mLoops = new MessengerLoop[size];
+        for (int i = 0; i < size; i++) {
+            mLoops[i] = new MessengerLoop(name + "-" + i);
+        }
+    }
+
+    /**
+     * Start all the loops.
+     */
+    public void start() {
+        for (MessengerLoop loop : mLoops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * @return The loop for the next messenger, in turns.
+     */
+    public MessengerLoop next() {
+        return mLoops[(mNext.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length];
+    }
+
+    /**
+     * @return The loop of the key (by {@link Object#hashCode()}), always the same one for equal keys.
+     */
+    public MessengerLoop loopFor(final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key == null");
+        }
+        final int h = key.hashCode() * 0x9E3779B9;
+        return mLoops[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % mLoops.length];
+    }
+
+    public int size() {
+        return mLoops.length;
+    }
+
+    /**
+     * Stop all the loops, see {@link MessengerThread#close()}.
+     */
+    public void close() {
+        for (MessengerLoop loop : mLoops) {
+            loop.close();
+        }
+    }
+
+    /**
+     * Stop all the loops, once they processed their due messages, see {@link MessengerThread#closeSafely()}.
+     */
+    public void closeSafely() {
+        for (MessengerLoop loop : mLoops) {
+            loop.closeSafely();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.anmol.java;
+
+import javax.management.MXBean;
+
+/**
+ * What goes on inside a {@link MessengerThread}, see {@link MessengerThread#withMetrics(boolean)}.
+ * <br>
+ * It is also registered as a JMX MXBean, named {@code com.anmol.java:type=MessengerThread,name=<thread name>,id=<thread id>},
+ * while the thread consumes its queue.
+ * <br>
+ * Values are updated without any lock, so they are not all taken at the exact same time.
+ */
+@MXBean
+public interface MessengerMetrics {
+
+    /**
+     * Number of messages added to the queue.
+     */
+    long getEnqueuedCount();
+
+    /**
+     * Number of messages processed, by {@link MessengerThread#onMessage} or by running their {@link Runnable}.
+     */
+    long getDispatchedCount();
+
+    /**
+     * Number of messages rejected or dropped as the queue was full, see {@link OverflowPolicy}.
+     */
+    long getDroppedCount();
+
+    /**
+     * Number of messages which replaced a pending message with the same key, instead of being added, see {@link MessengerThread#sendMessageCoalesced}.
+     */
+    long getCoalescedCount();
+
+    /**
+     * Number of messages which took longer than the stall threshold to process, see {@link MessengerThread#withStallDetection}.
+     */
+    long getStallCount();
+
+    /**
+     * Number of messages pending in the queue now.
+     */
+    int getDepth();
+
+    /**
+     * Highest number of pending messages, seen when the consumer takes a message.
+     */
+    int getMaxDepth();
+
+    /**
+     * How late messages are processed, compared to the time they were sent for. Messages sent at front of queue are not counted.
+     */
+    HistogramSnapshot getLateness();
+
+    /**
+     * How long {@link MessengerThread#onMessage} (or the {@link Runnable}) takes to process a message.
+     */
+    HistogramSnapshot getHandlerTime();
+
+    /**
+     * Share of {@link Message#obtain()} which reused a message from the pool, for all the threads of the process.
+     */
+    double getPoolHitRate();
+
+    /**
+     * Start the counts and histograms over.
+     */
+    void reset();
+}
@@ -1,5 +1,19 @@
 package com.anmol.java;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
 /**
  * The Messenger thread, which can accept {@link Message messages}/{@link Runnable runnables}.
  * <br>
@@ -18,10 +32,29 @@ package com.anmol.java;
  * Messages can be send when the sender thread wants to leave it to the target thread to act on the message,<br>
  *     and Runnable can be send to execute this code when its read by the target thread.
  * <br>
+ * All the times are on the monotonic {@link SystemClock}, i.e. uptimeMillis is a {@link SystemClock#uptimeMillis()} time.
+ * Delays can also be given in any {@link TimeUnit} or as a {@link Duration}, down to nanoseconds.
  */
 public abstract class MessengerThread extends Thread {
     private Consumer mConsumer;
     private MessageQueue mQueue;
+    private MessageOrdering mOrdering = MessageOrdering.LINKED_LIST;
+    private boolean mIndexed;
+    private int[] mLaneWeights; // Weight of every Priority lane, null without priority lanes.
+    private boolean mDrainBatch;
+    private int mCapacity = Integer.MAX_VALUE;
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.BLOCK;
+    private long mBlockTimeoutNanos = Long.MAX_VALUE;
+    private int mWatermark = Integer.MAX_VALUE;
+    private WatermarkListener mWatermarkListener;
+    private boolean mMetrics;
+    private long mStallThresholdNanos;
+    private StallListener mStallListener;
+    private IdleStrategy mIdleStrategy;
+    private int mRingCapacity; // 0 without a ring.
+    private Journal mJournal; // Null if the delayed messages are not durable.
+    private boolean mSelecting; // Wait in a Selector, to handle channels along with the messages.
+    private ChannelSelector mChannels; // Set on the thread, while it runs with a selector.
 
     // Thread#run alternate
     protected abstract void onRun();
@@ -36,15 +69,391 @@ public abstract class MessengerThread extends Thread {
 
     @Override
     public final void run() {
-        Consumer.init(); // Setup the queue with this thread.
+        final QueueLimits limits = mCapacity == Integer.MAX_VALUE && mWatermarkListener == null ? null
+                : new QueueLimits(mCapacity, mOverflowPolicy, mBlockTimeoutNanos, mWatermark, mWatermarkListener);
+        final TimerQueue messages = mLaneWeights == null ? mOrdering.newTimerQueue() : new LaneTimerQueue(mOrdering, mLaneWeights);
+        final MessageQueue queue = new MessageQueue(new QueueConfig().withMessages(messages).withIndex(mIndexed)
+                .withLimits(limits).withMetrics(mMetrics).withRing(mRingCapacity));
+        queue.setIdleStrategy(mIdleStrategy);
+        if (mSelecting) {
+            try {
+                mChannels = new ChannelSelector(Selector.open());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            queue.setChannelSelector(mChannels);
+        }
+        Consumer.init(queue, this::onMessage, mDrainBatch, mStallListener != null); // Setup the queue with this thread.
+        if (mChannels != null) {
+            mChannels.setConsumer(Consumer.myConsumer());
+        }
+        if (mJournal != null) {
+            // Pending messages of the previous run, before any new one. Over the capacity if need be, see enqueueReplayed.
+            for (Message msg : mJournal.open()) {
+                queue.enqueueReplayed(msg, msg.when());
+            }
+        }
+        // Before accepting messages, as the first registration in the process can take a while.
+        final ObjectName mbean = mMetrics ? Consumer.myConsumer().queue().metrics().register(this) : null;
         synchronized (this) {
             mConsumer = Consumer.myConsumer();
             mQueue = mConsumer.queue();
             notifyAll(); // Notify that the Consumer is initialized, so that other threads if they need this Consumer can now be unblocked.
         }
-        onRun();
+        Watchdog watchdog = null;
+        try {
+            onRun();
+
+            if (mStallListener != null) {
+                watchdog = Watchdog.start(this, mConsumer, mStallThresholdNanos, mStallListener);
+            }
+            Consumer.start(); // Start polling msgs from the Queue.
+        } finally {
+            if (watchdog != null) {
+                watchdog.stop();
+            }
+            // If onRun or a handler threw, the queue is still open: refuse the next sends, and cancel the pending requests,
+            // else their futures would never complete. Like close(), the journaled messages are kept for the next start.
+            if (mJournal != null) {
+                mJournal.close();
+            }
+            mConsumer.stop();
+            if (mJournal != null) {
+                mJournal.shutdown();
+            }
+            if (mChannels != null) {
+                mChannels.close(); // Deregisters the channels, which stay open.
+            }
+            QueueMetrics.unregister(mbean);
+        }
+    }
+
+    /**
+     * Choose how the pending messages are kept sorted, see {@link MessageOrdering}. Default is {@link MessageOrdering#LINKED_LIST}.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withOrdering(final MessageOrdering ordering) {
+        checkNotStarted();
+        if (ordering == null) {
+            throw new IllegalArgumentException("ordering == null");
+        }
+        mOrdering = ordering;
+        return this;
+    }
+
+    /**
+     * Keep the pending messages in one lane per {@link Priority}, with the default weights of the priorities.
+     *
+     * @see #withPriorityLanes(int, int, int, int)
+     */
+    public final MessengerThread withPriorityLanes() {
+        return withPriorityLanes(Priority.CONTROL.defaultWeight, Priority.HIGH.defaultWeight, Priority.NORMAL.defaultWeight,
+                Priority.BULK.defaultWeight);
+    }
+
+    /**
+     * Keep the pending messages in one lane per {@link Priority} (see {@link Message#withPriority(Priority)}), each sorted on its time.
+     * <br>
+     * Among the lanes with a due message, a lane dispatches up to its weight of messages in a round before the lower lanes get their turn,
+     * so a {@link Priority#CONTROL} message does not wait behind thousands of {@link Priority#BULK} ones, and the bulk lane still
+     * gets 1 message every weight-sum messages. Delayed messages of any lane are not dispatched before their time.
+     * <br>
+     * With {@link #withBatchDrain(boolean)}, all the due messages are taken in that order at once, so a message sent meanwhile
+     * waits for the batch.
+     * <br>
+     * Can not be used with {@link #withRingBuffer(int)}, whose due messages are read in the order they are sent.
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withPriorityLanes(final int controlWeight, final int highWeight, final int normalWeight, final int bulkWeight) {
+        checkNotStarted();
+        if (controlWeight <= 0 || highWeight <= 0 || normalWeight <= 0 || bulkWeight <= 0) {
+            throw new IllegalArgumentException("weight <= 0");
+        }
+        if (mRingCapacity != 0) {
+            throw new IllegalStateException("A ring reads its messages in order, it has no priority lanes");
+        }
+        mLaneWeights = new int[]{controlWeight, highWeight, normalWeight, bulkWeight};
+        return this;
+    }
+
+    /**
+     * Keep the messages which are due when they are sent ({@link #post}, {@link #sendMessage}...) in a preallocated ring of
+     * capacity reusable {@link Message} slots, like a Disruptor, instead of linking the sent messages in the queue.
+     * <br>
+     * The sent message is copied into a slot and recycled right away, so the messages the consumer reads are always the same objects,
+     * next to each other in memory. The senders claim the slots with a CAS, and never take the queue lock.
+     * When the ring is full, the senders retry a few times while the consumer makes room, then their messages go to the queue
+     * instead (the consumer itself never retries), so a full ring never holds a sender longer than its {@link OverflowPolicy}.
+     * <br>
+     * Delayed and front of queue messages still go to the queue, which acts as a side timer, so the whole API keeps working.
+     * But the messages in the ring can not be removed nor looked up by data, Runnable or what (only {@link #removeMessages()}
+     * and {@link #hasMessages()} see them), nor have a {@link Priority}. The message given to {@link #onMessage(Message)}
+     * must not be kept after it returns, as its slot is reused.
+     * <br>
+     * Best for the messengers which never use delays. Can not be used with {@link OverflowPolicy#DROP_OLDEST},
+     * nor with {@link #withPriorityLanes()}.
+     * Must be called before the thread is started.
+     *
+     * @param capacity Number of slots, a power of 2.
+     */
+    public final MessengerThread withRingBuffer(final int capacity) {
+        checkNotStarted();
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        if (mOverflowPolicy == OverflowPolicy.DROP_OLDEST && mCapacity != Integer.MAX_VALUE) {
+            throw new IllegalStateException("A ring has no oldest message to drop");
+        }
+        if (mLaneWeights != null) {
+            throw new IllegalStateException("A ring reads its messages in order, it has no priority lanes");
+        }
+        mRingCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Same as {@link #withJournal(File, long)}, flushed every 10ms.
+     */
+    public final MessengerThread withJournal(final File directory) {
+        return withJournal(directory, 10);
+    }
+
+    /**
+     * Same as {@link #withJournal(File, long, MessageCodec)}, with the {@link MessageCodec#binary() binary codec}.
+     */
+    public final MessengerThread withJournal(final File directory, final long flushIntervalMillis) {
+        return withJournal(directory, flushIntervalMillis, MessageCodec.binary());
+    }
+
+    /**
+     * Make the delayed messages durable: the {@link Message}s (not the Runnables) sent with a time in the future are written to a
+     * journal in the directory, and the ones still pending when the process stops are sent again on the next start of a
+     * {@link MessengerThread} with the same directory, at the same wall-clock time (right away if its past).
+     * <br>
+     * They are written with the codec, which must be able to encode their data, else the send throws an IllegalArgumentException.
+     * The next start must use a codec with the same format.
+     * A message is removed from the journal once {@link #onMessage(Message)} returns, or its removed. So it can be handled twice
+     * if the process dies while handling it. The messages dropped by {@link #close()} stay in the journal.
+     * <br>
+     * The journal is a memory-mapped file, which the senders write without waiting for the disk. All the messages sent within a
+     * flush interval are forced to disk at once, so a crash of the machine loses at most the last interval.
+     * Only one messenger can use a directory at a time.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withJournal(final File directory, final long flushIntervalMillis, final MessageCodec codec) {
+        checkNotStarted();
+        if (directory == null || codec == null) {
+            throw new IllegalArgumentException("directory == null || codec == null");
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis <= 0");
+        }
+        mJournal = new Journal(directory, flushIntervalMillis, codec);
+        return this;
+    }
+
+    /**
+     * Choose what the consumer does while it has nothing due, before parking, to trade CPU for wake up latency. See {@link IdleStrategy}.
+     * <br>
+     * Default is {@link IdleStrategy#park()}. The strategy must not be shared with another messenger.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withIdleStrategy(final IdleStrategy idleStrategy) {
+        checkNotStarted();
+        if (idleStrategy == null) {
+            throw new IllegalArgumentException("idleStrategy == null");
+        }
+        mIdleStrategy = idleStrategy == IdleStrategy.park() ? null : idleStrategy;
+        return this;
+    }
+
+    /**
+     * Wait in a {@link Selector} instead of parking, until the next message is due, so {@link #register registered} channels are
+     * handled on this thread along with the messages, like a single threaded reactor. A message sent wakes up the selector.
+     * <br>
+     * While messages keep coming, the channels are still checked every few messages.
+     * <br>
+     * A handler is timed by the metrics and watched for stalls like a message. If it throws, its key is cancelled and the exception goes
+     * to the uncaught exception handler of this thread, which keeps running.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withSelector() {
+        checkNotStarted();
+        mSelecting = true;
+        return this;
+    }
+
+    /**
+     * Register the channel in the selector of this thread (see {@link #withSelector()}), in non blocking mode.
+     * The handler is then called on this thread whenever the channel is ready for one of the operations.
+     * <br>
+     * Must be called on this thread, e.g. in {@link #onRun()}, {@link #onMessage(Message)} or a {@link ChannelHandler}.
+     * To stop, cancel the returned key or close the channel.
+     *
+     * @param ops     Interest set, see {@link SelectionKey}.
+     * @param handler Attached to the key.
+     */
+    public final SelectionKey register(final SelectableChannel channel, final int ops, final ChannelHandler handler) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel == null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler == null");
+        }
+        if (Thread.currentThread() != this) {
+            throw new IllegalStateException("Channels can only be registered on the messenger thread.");
+        }
+        if (mChannels == null) {
+            throw new IllegalStateException("The thread has no selector, see withSelector().");
+        }
+        channel.configureBlocking(false);
+        return channel.register(mChannels.selector(), ops, handler);
+    }
+
+    /**
+     * Index the pending messages by their data and by their Runnable, so {@link #removeMessages(Object)},
+     * {@link #removeMessages(Runnable, Object)}, {@link #hasMessages(Object)} and {@link #hasCallbacks(Runnable)}
+     * cost the number of matching messages instead of the number of pending messages.
+     * <br>
+     * Best used with {@link MessageOrdering#BINARY_HEAP}, which removes a message without walking the queue.
+     * The data of a {@link Message} must not be changed after its sent.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withIndexedLookups(final boolean indexed) {
+        checkNotStarted();
+        mIndexed = indexed;
+        return this;
+    }
+
+    /**
+     * Let the consumer take all the messages which are due from the queue at once, and process them one by one outside the queue lock,
+     * instead of taking the lock for every message.
+     * <br>
+     * Messages taken in a batch are no longer in the queue, so {@link #removeMessages} can not remove them anymore.
+     * {@link #close()} still drops the ones which are not processed yet.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withBatchDrain(final boolean drainBatch) {
+        checkNotStarted();
+        mDrainBatch = drainBatch;
+        return this;
+    }
+
+    /**
+     * Limit the number of pending messages (delayed ones included), so a slow {@link #onMessage} can not make the senders fill the heap.
+     * <br>
+     * When the queue is full, the policy decides what happens to a new message, see {@link OverflowPolicy}. Default is unbounded.
+     * Counting the pending messages costs an atomic increment on every send.
+     * <br>
+     * Must be called before the thread is started.
+     *
+     * @param capacity Max number of pending messages.
+     * @param policy   What to do with a message sent while the queue is full.
+     */
+    public final MessengerThread withCapacity(final int capacity, final OverflowPolicy policy) {
+        checkNotStarted();
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy == null");
+        }
+        if (policy == OverflowPolicy.DROP_OLDEST && mRingCapacity != 0) {
+            throw new IllegalStateException("A ring has no oldest message to drop");
+        }
+        mCapacity = capacity;
+        mOverflowPolicy = policy;
+        return this;
+    }
+
+    /**
+     * How long a sender waits for room with {@link OverflowPolicy#BLOCK}, before its send returns false. Default is forever.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withBlockTimeout(final long timeout, final TimeUnit unit) {
+        checkNotStarted();
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        mBlockTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Tell the listener every time the number of pending messages goes over the watermark, so the senders can shed load
+     * before the capacity is reached. The watermark should be below the capacity, else it is never exceeded.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withWatermark(final int watermark, final WatermarkListener listener) {
+        checkNotStarted();
+        if (watermark < 0) {
+            throw new IllegalArgumentException("watermark < 0");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        mWatermark = watermark;
+        mWatermarkListener = listener;
+        return this;
+    }
+
+    /**
+     * Keep {@link MessengerMetrics} for this thread (queue depth, dispatch lateness, handler time...), and register them in JMX
+     * while the thread consumes its queue. Default is off, which costs nothing.
+     * <br>
+     * It costs two clock reads per message, and an atomic increment on every send to count the pending messages.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withMetrics(final boolean metrics) {
+        checkNotStarted();
+        mMetrics = metrics;
+        return this;
+    }
 
-        Consumer.start(); // Start polling msgs from the Queue.
+    /**
+     * Watch the consumer of this thread, and tell the listener when a message takes longer than the threshold to process,
+     * with the stack trace of the thread and what the message is. It is also counted in {@link MessengerMetrics#getStallCount()}.
+     * <br>
+     * A shared watchdog thread samples the consumer every eighth of the threshold, and times a message from the first sample
+     * which sees it, so a stall is reported up to a quarter of the threshold late. The consumer only publishes what it dispatches:
+     * a counter, with an ordered write (no fence nor clock read) as a message starts, and another as it ends. Default is off.
+     * <br>
+     * Must be called before the thread is started.
+     */
+    public final MessengerThread withStallDetection(final long threshold, final TimeUnit unit, final StallListener listener) {
+        checkNotStarted();
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold <= 0");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        mStallThresholdNanos = unit.toNanos(threshold);
+        mStallListener = listener;
+        return this;
+    }
+
+    /**
+     * @return The metrics of this thread, see {@link #withMetrics(boolean)}. Null if they are off, or if the thread is not started.
+     */
+    public final MessengerMetrics metrics() {
+        final MessageQueue queue = queue();
+        return queue == null ? null : queue.metrics();
+    }
+
+    private void checkNotStarted() {
+        if (getState() != State.NEW) {
+            throw new IllegalStateException("Can only be configured before the thread is started.");
+        }
     }
 
     /**
@@ -67,6 +476,16 @@ public abstract class MessengerThread extends Thread {
         return mConsumer;
     }
 
+    /**
+     * Get the queue of this thread, waiting for it to be created if the thread just started.
+     *
+     * @return Null if the thread is not started yet.
+     */
+    MessageQueue queue() {
+        final Consumer consumer = consumer();
+        return consumer == null ? null : consumer.queue();
+    }
+
     /**
      * Stop reading msgs from the Queue. After stopping the {@link MessengerThread} will behave as a normal {@link Thread}.
      *
@@ -75,6 +494,9 @@ public abstract class MessengerThread extends Thread {
     public boolean close() {
         final Consumer consumer = consumer();
         if (consumer != null) {
+            if (mJournal != null) {
+                mJournal.close(); // The journaled messages dropped by the close are replayed on the next start.
+            }
             consumer.stop();
             return true;
         }
@@ -90,6 +512,9 @@ public abstract class MessengerThread extends Thread {
     public boolean closeSafely() {
         Consumer consumer = consumer();
         if (consumer != null) {
+            if (mJournal != null) {
+                mJournal.close();
+            }
             consumer.stopSafely();
             return true;
         }
@@ -107,6 +532,13 @@ public abstract class MessengerThread extends Thread {
         return sendMessageDelayed(Message.obtain().withCallback(runnable), 0);
     }
 
+    /**
+     * Same as {@link #post(Runnable)}, in the lane of the priority, see {@link #withPriorityLanes()}.
+     */
+    public final boolean post(final Runnable runnable, final Priority priority) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable).withPriority(priority), 0);
+    }
+
     /**
      * Send the Runnable to the {@link MessengerThread}, which should be processed at the uptimeMillis time.
      * <br> Please note that the {@link MessengerThread} will call {@link Runnable#run()} method when it reads this msg from its queue.
@@ -123,6 +555,20 @@ public abstract class MessengerThread extends Thread {
         return sendMessageDelayed(Message.obtain().withCallback(runnable), delayMillis);
     }
 
+    /**
+     * Same as {@link #postDelayed(Runnable, long)}, with the delay in any unit.
+     */
+    public final boolean postDelayed(final Runnable runnable, final long delay, final TimeUnit unit) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delay, unit);
+    }
+
+    /**
+     * Same as {@link #postDelayed(Runnable, long)}, with the delay as a {@link Duration}.
+     */
+    public final boolean postDelayed(final Runnable runnable, final Duration delay) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delay);
+    }
+
     /**
      * It sends the Runnable to the {@link MessengerThread}, which should be processed which should be processed at the earliest.
      * <br> Please note that the {@link MessengerThread} will call {@link Runnable#run()} method when it reads this msg from its queue.
@@ -139,6 +585,80 @@ public abstract class MessengerThread extends Thread {
         return sendMessageDelayed(msg, 0);
     }
 
+    /**
+     * Same as {@link #post(Runnable)}, but never waits for room in the queue.
+     * <br> With {@link OverflowPolicy#BLOCK}, it returns false right away if the queue is full. The other policies never wait anyway.
+     */
+    public final boolean offer(final Runnable runnable) {
+        return offerMessage(Message.obtain().withCallback(runnable));
+    }
+
+    /**
+     * Same as {@link #sendMessage(Message)}, but never waits for room in the queue.
+     * <br> With {@link OverflowPolicy#BLOCK}, it returns false right away if the queue is full. The other policies never wait anyway.
+     */
+    public final boolean offerMessage(final Message msg) {
+        if (mQueue == null) {
+            return false;
+        }
+        return mQueue.offerMessage(msg, SystemClock.uptimeNanos());
+    }
+
+    /**
+     * Send all the Runnables to the {@link MessengerThread}, like {@link #post(Runnable)} for each of them, in the order of the collection.
+     * <br> They are all added to the queue at once, which is cheaper than posting them one by one.
+     */
+    public final boolean postAll(final Collection<? extends Runnable> runnables) {
+        if (mQueue == null) {
+            return false;
+        }
+        Message first = null;
+        Message last = null;
+        for (Runnable runnable : runnables) {
+            final Message msg = Message.obtain().withCallback(runnable);
+            msg.markInUse();
+            if (first == null) {
+                first = msg;
+            } else {
+                last.next = msg;
+            }
+            last = msg;
+        }
+        return first == null || mQueue.enqueueMessages(first, SystemClock.uptimeNanos());
+    }
+
+    /**
+     * Send all the {@link Message messages} to the {@link MessengerThread}, like {@link #sendMessage(Message)} for each of them, in the order of the collection.
+     * <br> They are all added to the queue at once, which is cheaper than sending them one by one.
+     */
+    public final boolean sendMessages(final Collection<Message> msgs) {
+        if (mQueue == null) {
+            return false;
+        }
+        Message first = null;
+        Message last = null;
+        for (Message msg : msgs) {
+            if (msg.isInUse()) {
+                // Also catches the same message twice in the collection. Release the ones already taken.
+                while (first != null) {
+                    final Message n = first.next;
+                    first.next = null;
+                    first.markNotInUse();
+                    first = n;
+                }
+                throw new IllegalStateException(msg + " This message is already in use.");
+            }
+            msg.markInUse();
+            if (first == null) {
+                first = msg;
+            } else {
+                last.next = msg;
+            }
+            last = msg;
+        }
+        return first == null || mQueue.enqueueMessages(first, SystemClock.uptimeNanos());
+    }
+
     /**
      * It sends the {@link Message} to the {@link MessengerThread}, which should be processed ASAP.
      * <br> This message has no Data, and acts like a heartbeat type message.
@@ -148,6 +668,27 @@ public abstract class MessengerThread extends Thread {
         return sendEmptyMessageDelayed(0);
     }
 
+    /**
+     * Same as {@link #sendEmptyMessage()}, with the {@link Message#what()} set, so it tells what it is about without allocating anything.
+     */
+    public final boolean sendEmptyMessage(final int what) {
+        return sendEmptyMessageDelayed(what, 0);
+    }
+
+    /**
+     * Same as {@link #sendEmptyMessageDelayed(long)}, with the {@link Message#what()} set.
+     */
+    public final boolean sendEmptyMessageDelayed(final int what, final long delayMillis) {
+        return sendMessageDelayed(Message.obtain(what), delayMillis);
+    }
+
+    /**
+     * Same as {@link #sendEmptyMessageAtTime(long)}, with the {@link Message#what()} set.
+     */
+    public final boolean sendEmptyMessageAtTime(final int what, final long uptimeMillis) {
+        return sendMessageAtTime(Message.obtain(what), uptimeMillis);
+    }
+
     /**
      * It sends the {@link Message empty message without any data} to the {@link MessengerThread}, which should be processed after the delayMillis.
      * <br> See {@link MessengerThread#sendEmptyMessage()}.
@@ -170,22 +711,59 @@ public abstract class MessengerThread extends Thread {
      * It sends the {@link Message} to the {@link MessengerThread}, which should be processed after the delay of delayMillis.
      * <br> Please note that the {@link MessengerThread} will send this message in {@link MessengerThread#onMessage(Message)} ()} method when it reads this msg from its queue.
      */
-    public final boolean sendMessageDelayed(final Message msg, long delayMillis) {
-        if (delayMillis < 0) {
-            delayMillis = 0;
+    public final boolean sendMessageDelayed(final Message msg, final long delayMillis) {
+        return sendMessageDelayed(msg, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay in any unit.
+     */
+    public final boolean sendMessageDelayed(final Message msg, long delay, final TimeUnit unit) {
+        if (delay < 0) {
+            delay = 0;
         }
-        return sendMessageAtTime(msg, System.currentTimeMillis() + delayMillis);
+        return sendMessageAtTimeNanos(msg, uptimeNanosAfter(unit.toNanos(delay)));
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay as a {@link Duration}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final Duration delay) {
+        long delayNanos;
+        try {
+            delayNanos = delay.toNanos();
+        } catch (ArithmeticException tooLong) {
+            delayNanos = delay.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+        return sendMessageDelayed(msg, delayNanos, TimeUnit.NANOSECONDS);
     }
 
     /**
      * It sends the  {@link Message} to the {@link MessengerThread}, which should be processed at uptimeMillis.
+     * <br> uptimeMillis is a {@link SystemClock#uptimeMillis()} time.
      * <br> Please note that the {@link MessengerThread} will send this message in {@link MessengerThread#onMessage(Message)} ()} method when it reads this msg from its queue.
      */
     public boolean sendMessageAtTime(final Message msg, final long uptimeMillis) {
+        return sendMessageAtTimeNanos(msg, TimeUnit.MILLISECONDS.toNanos(uptimeMillis));
+    }
+
+    /**
+     * Same as {@link #sendMessageAtTime(Message, long)}, with the time in {@link SystemClock#uptimeNanos()}.
+     */
+    public final boolean sendMessageAtTimeNanos(final Message msg, final long uptimeNanos) {
         if (mQueue == null) {
             return false;
         }
-        return enqueueMessage(mQueue, msg, uptimeMillis);
+        // 0 is the time of the front of queue messages, so an earlier time is only due right away.
+        return enqueueMessage(mQueue, msg, Math.max(uptimeNanos, 1));
+    }
+
+    /**
+     * @return {@link SystemClock#uptimeNanos()} after the delay, saturated instead of overflowing for very long delays.
+     */
+    private static long uptimeNanosAfter(final long delayNanos) {
+        final long when = SystemClock.uptimeNanos() + delayNanos;
+        return when < 0 ? Long.MAX_VALUE : when;
     }
 
     /**
@@ -199,11 +777,115 @@ public abstract class MessengerThread extends Thread {
         return enqueueMessage(mQueue, msg, 0);
     }
 
+    // Coalescing Write Operations, latest value wins.
+
+    /**
+     * Send the Runnable with a coalescing key, see {@link #sendMessageCoalesced(Object, Message)}.
+     */
+    public final boolean postCoalesced(final Object key, final Runnable runnable) {
+        return sendMessageCoalesced(key, Message.obtain().withCallback(runnable));
+    }
+
+    /**
+     * Send the {@link Message} with a coalescing key (compared with {@link Object#equals}), which should be processed ASAP.
+     * <br> If a message sent with the same key is still pending, it is not added: the pending one takes its data, callback, what
+     * and arguments instead, and keeps its place in the queue. So a fast producer of state updates (like the latest position of an item)
+     * never makes the queue grow by more than one message per key, and the consumer only sees the latest value.
+     * <br> Finding the pending message is a hash lookup, not a scan of the queue.
+     */
+    public final boolean sendMessageCoalesced(final Object key, final Message msg) {
+        return sendMessageCoalescedDelayed(key, msg, 0, false);
+    }
+
+    /**
+     * Same as {@link #sendMessageCoalesced(Object, Message)}, processed after the delayMillis.
+     *
+     * @param reschedule If a pending message is replaced, if it also moves to the new time. Else it keeps its time,
+     *                   so a stream of updates is processed at the latest delayMillis after the first one (throttling),
+     *                   while with true its processed delayMillis after the last one (debouncing).
+     */
+    public final boolean sendMessageCoalescedDelayed(final Object key, final Message msg, final long delayMillis, final boolean reschedule) {
+        if (mQueue == null) {
+            return false;
+        }
+        return mQueue.enqueueCoalesced(key, msg, uptimeNanosAfter(TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0))), reschedule);
+    }
+
+    // Request/Reply Operations.
+
+    /**
+     * Run the task on this {@link MessengerThread}, and get its result (or the exception it throws) in a future.
+     * <br> If its called from a {@link MessengerThread}, the future is completed on that thread, so the stages chained on it
+     * run there without any locking, like a reply message would. Else its completed on this thread.
+     * <br> So a {@link MessengerThread} must never wait for the future it got ({@link CompletableFuture#get()}, join()...),
+     * as only its own consumer, which would be blocked in the wait, can complete it. It chains stages on it instead.
+     * <br> If the task is dropped (removed, or the thread closed or stopped by an exception) the future fails
+     * with a {@link java.util.concurrent.CancellationException}.
+     */
+    public final <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Promise promise = Promise.obtain(null, future);
+        sendRequest(Message.obtain().withCallback(promise.task(task)).withPromise(promise));
+        return future;
+    }
+
+    /**
+     * Same as {@link #submit(Callable)}, but the result goes to the listener, so no future is created.
+     *
+     * @return False if the task could not be sent, then the listener gets a {@link java.util.concurrent.CancellationException}.
+     */
+    public final <T> boolean postForResult(final Callable<T> task, final ResultListener<? super T> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        final Promise promise = Promise.obtain(listener, null);
+        return sendRequest(Message.obtain().withCallback(promise.task(task)).withPromise(promise));
+    }
+
+    /**
+     * Send the {@link Message} as a request: {@link #onMessage(Message)} answers it with {@link Message#reply(Object)},
+     * and the sender gets the reply in the future, like {@link #submit(Callable)}.
+     */
+    public final <T> CompletableFuture<T> sendAndReceive(final Message request) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        sendRequest(request.withPromise(Promise.obtain(null, future)));
+        return future;
+    }
+
+    /**
+     * Same as {@link #sendAndReceive(Message)}, but the reply goes to the listener, so no future is created.
+     *
+     * @return False if the request could not be sent, then the listener gets a {@link java.util.concurrent.CancellationException}.
+     */
+    public final <T> boolean sendForResult(final Message request, final ResultListener<? super T> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        return sendRequest(request.withPromise(Promise.obtain(listener, null)));
+    }
+
+    /**
+     * Send the request ASAP. If its not sent, its recycled, which cancels its promise.
+     */
+    private boolean sendRequest(final Message request) {
+        if (mQueue == null) {
+            request.recycle();
+            return false;
+        }
+        return enqueueMessage(mQueue, request, SystemClock.uptimeNanos());
+    }
+
     /**
      * Adds the message into the queue.
      */
-    private boolean enqueueMessage(final MessageQueue queue, final Message msg, final long uptimeMillis) {
-        return queue.enqueueMessage(msg, uptimeMillis);
+    private boolean enqueueMessage(final MessageQueue queue, final Message msg, final long uptimeNanos) {
+        if (mJournal != null && msg.callback() == null && uptimeNanos > SystemClock.uptimeNanos()) {
+            if (msg.isInUse()) {
+                throw new IllegalStateException(msg + " This message is already in use.");
+            }
+            mJournal.append(msg, uptimeNanos);
+        }
+        return queue.enqueueMessage(msg, uptimeNanos);
     }
 
     /**
@@ -220,6 +902,13 @@ public abstract class MessengerThread extends Thread {
         mQueue.removeMessages(dataValue);
     }
 
+    /**
+     * Removes the messages with this {@link Message#what()}. Runnables are not removed, even if their what matches.
+     */
+    public final void removeMessages(final int what) {
+        mQueue.removeMessages(what);
+    }
+
     /**
      * Removes the messages with the provided Runnable.
      */
@@ -248,6 +937,13 @@ public abstract class MessengerThread extends Thread {
         return mQueue.hasMessages(object);
     }
 
+    /**
+     * Tells if there is any {@link Message} with this {@link Message#what()} in the queue yet to be processed. Runnables are not counted.
+     */
+    public final boolean hasMessages(final int what) {
+        return mQueue.hasMessages(what);
+    }
+
     /**
      * Tells if there is any {@link Runnable} in the queue which yet to be processed.
      */
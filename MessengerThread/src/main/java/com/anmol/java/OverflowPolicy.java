@@ -0,0 +1,36 @@
+package com.anmol.java;
+
+/**
+ * What a {@link MessengerThread} with a capacity does with a message sent while its queue is full.
+ *
+ * @see MessengerThread#withCapacity(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The sender waits until the consumer makes room, up to the {@link MessengerThread#withBlockTimeout block timeout}.
+     * <br>The send returns false if there is still no room after that.
+     */
+    BLOCK,
+
+    /**
+     * The send returns false right away, and the message is not added.
+     */
+    REJECT,
+
+    /**
+     * The earliest pending message is dropped (without being processed), to make room for the new one.
+     * <br>Front of queue and {@link Priority#CONTROL} messages are never dropped: if only those are pending, its like {@link #REJECT}.
+     * Can not be used with {@link MessengerThread#withRingBuffer(int) a ring}.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The pending messages with the same data are dropped, and the new one takes their place.
+     * The send returns false if there is none, like {@link #REJECT}.
+     * <br>The data is matched by identity (==), like {@link MessengerThread#removeMessages(Object)}, not by equals.
+     * To replace the pending message of a key instead, send with {@link MessengerThread#sendMessageCoalesced}.
+     * Messages in {@link MessengerThread#withRingBuffer(int) a ring} are not matched.
+     */
+    COALESCE
+}
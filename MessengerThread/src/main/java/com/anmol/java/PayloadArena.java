@@ -0,0 +1,235 @@
+package com.anmol.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Off-heap memory shared by the messengers, to pass large binary payloads (like frames) without a byte[] per message.
+ * <br>
+ * A message from {@link #obtain(int)} owns a block of the arena, and only carries its offset and length. The sender writes the
+ * payload in place (see {@link Message#payload()}), the receiver reads it in place, and the block goes back to the arena when the
+ * message is recycled, once onMessage returns. So the payload is never copied, and leaves nothing to the GC.
+ * <br>
+ * The arena is cut in slabs. A slab is given to a size class (powers of 2, from 64 bytes to the slab size) the first time that
+ * class runs out of blocks, and stays in it. The free blocks of a class are linked through their own first bytes, in a
+ * lock-free list, so allocating or releasing a block from any thread is a CAS.
+ */
+public final class PayloadArena {
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private static final int MIN_BLOCK_SHIFT = 6; // Smallest block: 64 bytes.
+    private static final int NIL = 0; // End of a free list. Links are block index + 1.
+
+    private final ByteBuffer mBuffer;
+    private final int mSlabShift;
+    private final int mSlabCount;
+    private final byte[] mSlabClass; // Size class of every slab given out so far.
+    private final AtomicInteger mNextSlab = new AtomicInteger();
+
+    /**
+     * Head of the free list of every size class: version << 32 | (block index + 1).
+     * The version changes on every update, so a stale head never wins a CAS (ABA).
+     */
+    private final AtomicLongArray mFreeLists;
+
+    /**
+     * View of the arena for each thread, so the relative operations of a thread do not move the position of another.
+     */
+    private final ThreadLocal<ByteBuffer> mViews;
+
+    /**
+     * Arena in direct memory (outside the heap), with slabs of {@value #DEFAULT_SLAB_SIZE} bytes.
+     *
+     * @param capacity Size in bytes, a multiple of the slab size.
+     */
+    public static PayloadArena allocateDirect(final int capacity) {
+        return allocateDirect(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Arena in direct memory (outside the heap).
+     *
+     * @param capacity Size in bytes, a multiple of the slab size.
+     * @param slabSize Power of 2, at least 64. Also the largest payload.
+     */
+    public static PayloadArena allocateDirect(final int capacity, final int slabSize) {
+        checkSizes(capacity, slabSize);
+        return new PayloadArena(ByteBuffer.allocateDirect(capacity), slabSize);
+    }
+
+    /**
+     * Same as {@link #map(File, int, int)}, with slabs of {@value #DEFAULT_SLAB_SIZE} bytes.
+     */
+    public static PayloadArena map(final File file, final int capacity) throws IOException {
+        return map(file, capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Arena in a memory-mapped file, like one under /dev/shm or a hugetlbfs mount, so it does not count in the direct memory
+     * limit of the JVM. The file is created if needed, and resized to the capacity.
+     * <br>
+     * The blocks are still tracked by this process only, its not a way to share payloads with another one.
+     *
+     * @param capacity Size in bytes, a multiple of the slab size.
+     * @param slabSize Power of 2, at least 64. Also the largest payload.
+     */
+    public static PayloadArena map(final File file, final int capacity, final int slabSize) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file == null");
+        }
+        checkSizes(capacity, slabSize);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(capacity);
+            // The mapping stays valid once the file is closed.
+            return new PayloadArena(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity), slabSize);
+        }
+    }
+
+    private PayloadArena(final ByteBuffer buffer, final int slabSize) {
+        mBuffer = buffer.order(ByteOrder.nativeOrder());
+        mSlabShift = Integer.numberOfTrailingZeros(slabSize);
+        mSlabCount = buffer.capacity() >>> mSlabShift;
+        mSlabClass = new byte[mSlabCount];
+        mFreeLists = new AtomicLongArray(mSlabShift - MIN_BLOCK_SHIFT + 1);
+        mViews = ThreadLocal.withInitial(() -> mBuffer.duplicate().order(ByteOrder.nativeOrder()));
+    }
+
+    private static void checkSizes(final int capacity, final int slabSize) {
+        if (slabSize < 1 << MIN_BLOCK_SHIFT || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("slabSize must be a power of 2, at least 64: " + slabSize);
+        }
+        if (capacity <= 0 || capacity % slabSize != 0) {
+            throw new IllegalArgumentException("capacity must be a positive multiple of the slab size: " + capacity);
+        }
+    }
+
+    /**
+     * Get an empty message with a payload block of this arena, like {@link Message#obtain()}.
+     * <br>
+     * The block is given back to the arena when the message is recycled. Its content is whatever the previous owner left.
+     *
+     * @param length Size of the payload, at most the slab size.
+     * @return Null if the arena has no free block of that size, so the sender can wait for the receivers to catch up.
+     */
+    public Message obtain(final int length) {
+        final int offset = allocate(length);
+        if (offset < 0) {
+            return null;
+        }
+        return Message.obtain().withPayload(this, offset, length);
+    }
+
+    public int capacity() {
+        return mBuffer.capacity();
+    }
+
+    public int slabSize() {
+        return 1 << mSlabShift;
+    }
+
+    /**
+     * Number of slabs not given to a size class yet.
+     */
+    public int freeSlabs() {
+        return Math.max(0, mSlabCount - mNextSlab.get());
+    }
+
+    /**
+     * @return The view of the arena of the calling thread, with its position and limit on the block. Reused by the next call.
+     */
+    ByteBuffer view(final int offset, final int length) {
+        final ByteBuffer view = mViews.get();
+        view.limit(offset + length).position(offset);
+        return view;
+    }
+
+    /**
+     * @return The offset of a free block which holds the length, or -1 if there is none.
+     */
+    int allocate(final int length) {
+        if (length <= 0 || length > 1 << mSlabShift) {
+            throw new IllegalArgumentException("length must be between 1 and the slab size: " + length);
+        }
+        final int sizeClass = Math.max(MIN_BLOCK_SHIFT, 32 - Integer.numberOfLeadingZeros(length - 1)) - MIN_BLOCK_SHIFT;
+        while (true) {
+            final long head = mFreeLists.get(sizeClass);
+            final int link = (int) head;
+            if (link == NIL) {
+                final int offset = carveSlab(sizeClass);
+                if (offset >= 0 || (int) mFreeLists.get(sizeClass) == NIL) {
+                    return offset;
+                }
+                continue; // No slab left, but a block was released meanwhile.
+            }
+            final int offset = (link - 1) << MIN_BLOCK_SHIFT;
+            // May read a block which another thread took meanwhile, then the version changed and the CAS fails.
+            final int next = mBuffer.getInt(offset);
+            if (mFreeLists.compareAndSet(sizeClass, head, nextVersion(head) | (next & 0xffffffffL))) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Give the block back, from any thread.
+     */
+    void release(final int offset) {
+        push(mSlabClass[offset >>> mSlabShift], offset, offset);
+    }
+
+    /**
+     * Give the next free slab to the size class.
+     *
+     * @return The offset of its first block, the others go to the free list. -1 if there is no slab left.
+     */
+    private int carveSlab(final int sizeClass) {
+        int slab;
+        do {
+            slab = mNextSlab.get();
+            if (slab >= mSlabCount) {
+                return -1;
+            }
+        } while (!mNextSlab.compareAndSet(slab, slab + 1));
+
+        // Visible to the thread releasing a block, as it got the offset through a message after this.
+        mSlabClass[slab] = (byte) sizeClass;
+        final int blockSize = 1 << (sizeClass + MIN_BLOCK_SHIFT);
+        final int base = slab << mSlabShift;
+        final int last = base + (1 << mSlabShift) - blockSize;
+        if (last > base) {
+            for (int offset = base + blockSize; offset < last; offset += blockSize) {
+                mBuffer.putInt(offset, link(offset + blockSize));
+            }
+            push(sizeClass, base + blockSize, last);
+        }
+        return base;
+    }
+
+    /**
+     * Put the chain of blocks from first to last (already linked) in front of the free list.
+     */
+    private void push(final int sizeClass, final int first, final int last) {
+        while (true) {
+            final long head = mFreeLists.get(sizeClass);
+            mBuffer.putInt(last, (int) head);
+            if (mFreeLists.compareAndSet(sizeClass, head, nextVersion(head) | link(first))) {
+                return;
+            }
+        }
+    }
+
+    private static int link(final int offset) {
+        return (offset >>> MIN_BLOCK_SHIFT) + 1;
+    }
+
+    private static long nextVersion(final long head) {
+        return ((head >>> 32) + 1) << 32;
+    }
+}
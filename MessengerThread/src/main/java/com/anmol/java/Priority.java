@@ -0,0 +1,39 @@
+package com.anmol.java;
+
+/**
+ * Lane of a {@link Message}, on a {@link MessengerThread} with {@link MessengerThread#withPriorityLanes() priority lanes}.
+ * <br>
+ * Every lane keeps its messages sorted on their time, and among the lanes which have a due message, the consumer picks by weight:
+ * in a round, a lane dispatches up to its weight of messages before the lower lanes get their turn, and a round ends once
+ * all the lanes with due messages used their weight. So a backed up lane slows the others down, but never stops them.
+ * <br>
+ * Without priority lanes, the priority of the messages is ignored.
+ */
+public enum Priority {
+
+    /**
+     * Messages which must not wait behind the others, like a shutdown or a config reload.
+     */
+    CONTROL(16),
+
+    HIGH(8),
+
+    /**
+     * Priority of the messages by default.
+     */
+    NORMAL(4),
+
+    /**
+     * Background work, which can be backed up by thousands of messages without delaying the other lanes much.
+     */
+    BULK(1);
+
+    /**
+     * Messages dispatched from this lane in a round, by default.
+     */
+    final int defaultWeight;
+
+    Priority(final int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+}
@@ -0,0 +1,238 @@
+package com.anmol.java;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pending result of a request {@link Message}, delivered once to a {@link ResultListener} or a {@link CompletableFuture}.
+ * <br>
+ * Promises are pooled: every thread keeps a few of its own, recycled by the thread which delivers them. A messenger which sends
+ * requests gets the replies on its own thread, so it reuses the same promises, and a request allocates nothing but its future (if any).
+ * <br>
+ * A promise is settled once: by the reply (or the result of the task), or by the request being dropped. A message keeps the
+ * {@link #generation()} it was sent with, and the generation is part of the state which is CAS-ed to settle it,
+ * so a late settle through an old message never touches a promise which was recycled and reused meanwhile.
+ * <br>
+ * A request is mostly dropped by a {@link MessageQueue} holding its lock, so the cancelled promises are held by that thread
+ * (see {@link #holdCancels()}), and only delivered once it releases the lock: delivering might take the lock of another queue,
+ * or run the listener. Same for a reply dropped by the queue of the requester (see {@link #redeliver()}): its never lost,
+ * but delivered again.
+ */
+final class Promise implements Runnable {
+    private static final int THREAD_CACHE_SIZE = 32;
+    private static final ThreadLocal<Promise[]> sThreadCache = ThreadLocal.withInitial(() -> new Promise[THREAD_CACHE_SIZE]);
+    private static final ThreadLocal<Held> sHeld = ThreadLocal.withInitial(Held::new);
+
+    /**
+     * generation << 1, +1 once settled.
+     */
+    private final AtomicLong mState = new AtomicLong();
+    private final Runnable mExecute = this::execute; // Callback of the request message of a task.
+
+    private Callable<?> mTask; // Run on the messenger, for submit/postForResult. Null for a request message.
+    private ResultListener<Object> mListener;
+    private CompletableFuture<Object> mFuture;
+    private MessageQueue mReplyQueue; // Queue of the messenger which sent the request, where its delivered. Null to deliver right away.
+    private Object mResult;
+    private Throwable mError;
+    private Promise mNextHeld; // Next cancelled promise held by the same thread, see holdCancels().
+
+    private Promise() {
+    }
+
+    /**
+     * @param listener Told the result, if future is null.
+     * @param future   Completed with the result, if listener is null.
+     */
+    @SuppressWarnings("unchecked")
+    static Promise obtain(final ResultListener<?> listener, final CompletableFuture<?> future) {
+        final Promise[] cache = sThreadCache.get();
+        Promise p = null;
+        for (int i = 0; i < cache.length && p == null; i++) {
+            p = cache[i];
+            cache[i] = null;
+        }
+        if (p == null) {
+            p = new Promise();
+        }
+        p.mState.set(((p.mState.get() >>> 1) + 1) << 1);
+        p.mListener = (ResultListener<Object>) listener;
+        p.mFuture = (CompletableFuture<Object>) future;
+        final Consumer consumer = Consumer.myConsumer();
+        p.mReplyQueue = consumer == null ? null : consumer.queue();
+        return p;
+    }
+
+    long generation() {
+        return mState.get() >>> 1;
+    }
+
+    /**
+     * @return The callback which runs the task on the messenger, then settles with its result.
+     */
+    Runnable task(final Callable<?> task) {
+        mTask = task;
+        return mExecute;
+    }
+
+    private void execute() {
+        final long generation = generation();
+        final Callable<?> task = mTask;
+        Object result = null;
+        Throwable error = null;
+        try {
+            result = task.call();
+        } catch (Throwable t) {
+            error = t;
+        }
+        settle(generation, result, error);
+    }
+
+    /**
+     * Settle the promise sent with this generation, if its still pending, and deliver it.
+     *
+     * @return False if it was already settled.
+     */
+    boolean settle(final long generation, final Object result, final Throwable error) {
+        if (!complete(generation, result, error)) {
+            return false;
+        }
+        deliver();
+        return true;
+    }
+
+    /**
+     * Same as {@link #settle}, but if this thread holds the cancels, the promise is only delivered by {@link #deliverHeld()}.
+     */
+    boolean cancel(final long generation, final String why) {
+        if (mState.get() != generation << 1) {
+            return false; // Only allocates if pending.
+        }
+        final Held held = sHeld.get();
+        if (held.depth == 0) {
+            return settle(generation, null, new CancellationException(why));
+        }
+        if (!complete(generation, null, new CancellationException(why))) {
+            return false;
+        }
+        held.add(this);
+        return true;
+    }
+
+    /**
+     * The message delivering this settled promise (its callback) was dropped by the queue of the requester, which holds the cancels:
+     * removed with all its messages, or stopped. Deliver it again once the lock is released, back on that queue,
+     * or right away if its stopped. So a reply is never lost, even if the requester clears its queue.
+     */
+    void redeliver() {
+        final Held held = sHeld.get();
+        if (held.depth == 0) {
+            deliver();
+        } else {
+            held.add(this);
+        }
+    }
+
+    private boolean complete(final long generation, final Object result, final Throwable error) {
+        if (!mState.compareAndSet(generation << 1, (generation << 1) + 1)) {
+            return false;
+        }
+        mResult = result;
+        mError = error;
+        return true;
+    }
+
+    /**
+     * Send the settled promise to the messenger which made the request. The reply never waits for room, see {@link MessageQueue#enqueueReply}.
+     */
+    private void deliver() {
+        final MessageQueue replyQueue = mReplyQueue;
+        if (replyQueue == null || !replyQueue.enqueueReply(Message.obtain().withCallback(this))) {
+            run(); // No messenger to deliver it on, or its closed.
+        }
+    }
+
+    /**
+     * Hold the promises this thread cancels, until the matching {@link #deliverHeld()}. Called before taking a queue lock,
+     * as dropping a request cancels its promise. Can be nested.
+     */
+    static void holdCancels() {
+        sHeld.get().depth++;
+    }
+
+    /**
+     * Deliver the promises cancelled since the first {@link #holdCancels()}, once this is called as many times.
+     * Called after releasing the queue lock.
+     */
+    static void deliverHeld() {
+        final Held held = sHeld.get();
+        if (--held.depth > 0) {
+            return;
+        }
+        Promise p = held.first;
+        held.first = null;
+        held.last = null;
+        while (p != null) {
+            final Promise n = p.mNextHeld;
+            p.mNextHeld = null;
+            p.deliver();
+            p = n;
+        }
+    }
+
+    /**
+     * Deliver the result, then recycle. Run on the messenger which sent the request, or where it was settled.
+     */
+    @Override
+    public void run() {
+        final ResultListener<Object> listener = mListener;
+        final CompletableFuture<Object> future = mFuture;
+        final Object result = mResult;
+        final Throwable error = mError;
+        recycle();
+
+        if (listener != null) {
+            listener.onResult(result, error);
+        } else if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    private void recycle() {
+        mTask = null;
+        mListener = null;
+        mFuture = null;
+        mReplyQueue = null;
+        mResult = null;
+        mError = null;
+        final Promise[] cache = sThreadCache.get();
+        for (int i = 0; i < cache.length; i++) {
+            if (cache[i] == null) {
+                cache[i] = this;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Promises cancelled (or redelivered) by a thread while it holds a queue lock, see {@link #holdCancels()}.
+     */
+    private static final class Held {
+        int depth;
+        Promise first;
+        Promise last;
+
+        void add(final Promise p) {
+            if (last == null) {
+                first = p;
+            } else {
+                last.mNextHeld = p;
+            }
+            last = p;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.anmol.java;
+
+/**
+ * How a {@link MessageQueue} is built, set with the with* methods like a {@link MessengerThread}. Everything is off by default:
+ * a {@link LinkedTimerQueue}, no index, no limits, no metrics, no ring, and a consumer thread parked in {@link MessageQueue#next()}.
+ */
+final class QueueConfig {
+    TimerQueue messages; // Null for a LinkedTimerQueue.
+    boolean indexed;
+    Runnable waker;
+    QueueLimits limits;
+    boolean metrics;
+    int ringCapacity;
+
+    /**
+     * @param messages Where the pending messages are kept sorted.
+     */
+    QueueConfig withMessages(final TimerQueue messages) {
+        this.messages = messages;
+        return this;
+    }
+
+    /**
+     * @param indexed If the queue keeps a {@link MessageIndex} of its messages.
+     */
+    QueueConfig withIndex(final boolean indexed) {
+        this.indexed = indexed;
+        return this;
+    }
+
+    /**
+     * @param waker If not null, the consumer is not a thread parked in {@link MessageQueue#next()}, but reads with
+     *              {@link MessageQueue#poll()}, and this is called (on the producer thread) when it has to read again.
+     */
+    QueueConfig withWaker(final Runnable waker) {
+        this.waker = waker;
+        return this;
+    }
+
+    /**
+     * @param limits Capacity and watermark of the queue, null if it has neither.
+     */
+    QueueConfig withLimits(final QueueLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    /**
+     * @param metrics If the queue keeps {@link QueueMetrics}. Then it counts the pending messages, even without limits.
+     */
+    QueueConfig withMetrics(final boolean metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param ringCapacity Number of slots of the {@link MessageRing} for the due messages, a power of 2. 0 for no ring.
+     */
+    QueueConfig withRing(final int ringCapacity) {
+        this.ringCapacity = ringCapacity;
+        return this;
+    }
+}
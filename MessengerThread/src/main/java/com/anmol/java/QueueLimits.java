@@ -0,0 +1,34 @@
+package com.anmol.java;
+
+/**
+ * Capacity and watermark of a {@link MessageQueue}, see {@link MessengerThread#withCapacity(int, OverflowPolicy)}
+ * and {@link MessengerThread#withWatermark(int, WatermarkListener)}.
+ */
+final class QueueLimits {
+    /**
+     * No capacity nor watermark, only to count the pending messages, like for the {@link QueueMetrics}.
+     */
+    static final QueueLimits COUNT_ONLY = new QueueLimits(Integer.MAX_VALUE, OverflowPolicy.BLOCK, Long.MAX_VALUE, Integer.MAX_VALUE, null);
+
+    final int capacity; // Max pending messages, Integer.MAX_VALUE if unbounded.
+    final OverflowPolicy policy;
+    final long blockTimeoutNanos; // How long a sender waits for room with OverflowPolicy.BLOCK, Long.MAX_VALUE to wait forever.
+    final int watermark; // Integer.MAX_VALUE if there is none.
+    final WatermarkListener listener;
+
+    QueueLimits(final int capacity, final OverflowPolicy policy, final long blockTimeoutNanos,
+                final int watermark, final WatermarkListener listener) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutNanos = blockTimeoutNanos;
+        this.watermark = watermark;
+        this.listener = listener;
+    }
+
+    /**
+     * @return True if a message is never refused nor waits for room, and no watermark is watched: the messages only have to be counted.
+     */
+    boolean countsOnly() {
+        return capacity == Integer.MAX_VALUE && watermark == Integer.MAX_VALUE;
+    }
+}
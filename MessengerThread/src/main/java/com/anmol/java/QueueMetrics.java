@@ -0,0 +1,171 @@
+package com.anmol.java;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link MessengerMetrics} of a {@link MessageQueue}. Senders count the enqueued and dropped messages,
+ * and the consumer records what happens when it dispatches, see {@link Consumer#dispatch}.
+ */
+final class QueueMetrics implements MessengerMetrics {
+    private final MessageQueue mQueue;
+    private final LongAdder mEnqueued = new LongAdder();
+    private final LongAdder mDropped = new LongAdder();
+    private final LongAdder mStalls = new LongAdder();
+    private final LongAdder mCoalesced = new LongAdder();
+    private final LogLinearHistogram mLateness = new LogLinearHistogram();
+    private final LogLinearHistogram mHandlerTime = new LogLinearHistogram();
+    private volatile int mMaxDepth; // Only written by the consumer, and by reset().
+
+    QueueMetrics(final MessageQueue queue) {
+        mQueue = queue;
+    }
+
+    void onEnqueued() {
+        mEnqueued.increment();
+    }
+
+    void onEnqueued(final int count) {
+        mEnqueued.add(count);
+    }
+
+    void onDropped(final int count) {
+        mDropped.add(count);
+    }
+
+    void onCoalesced() {
+        mCoalesced.increment();
+    }
+
+    void onStall() {
+        mStalls.increment();
+    }
+
+    /**
+     * Called by the consumer before it processes the message.
+     *
+     * @return The dispatch start time, to give to {@link #onHandled(long)}.
+     */
+    long onDispatch(final Message msg) {
+        final long now = SystemClock.uptimeNanos();
+        if (msg.when() != 0) {
+            mLateness.record(now - msg.when());
+        }
+        final int depth = mQueue.pendingCount() + 1; // Including the message taken.
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+        return now;
+    }
+
+    /**
+     * Called by the consumer before it handles a ready channel, which has no lateness nor depth.
+     *
+     * @return The dispatch start time, to give to {@link #onHandled(long)}.
+     */
+    long onDispatchChannel() {
+        return SystemClock.uptimeNanos();
+    }
+
+    /**
+     * Called by the consumer once it processed the message.
+     */
+    void onHandled(final long start) {
+        mHandlerTime.record(SystemClock.uptimeNanos() - start);
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return mEnqueued.sum();
+    }
+
+    @Override
+    public long getDispatchedCount() {
+        return mHandlerTime.count();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return mDropped.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return mCoalesced.sum();
+    }
+
+    @Override
+    public long getStallCount() {
+        return mStalls.sum();
+    }
+
+    @Override
+    public int getDepth() {
+        return mQueue.pendingCount();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    @Override
+    public HistogramSnapshot getLateness() {
+        return mLateness.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getHandlerTime() {
+        return mHandlerTime.snapshot();
+    }
+
+    @Override
+    public double getPoolHitRate() {
+        final long hits = Message.poolHits();
+        final long total = hits + Message.poolMisses();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public void reset() {
+        mEnqueued.reset();
+        mDropped.reset();
+        mStalls.reset();
+        mCoalesced.reset();
+        mLateness.reset();
+        mHandlerTime.reset();
+        mMaxDepth = 0;
+    }
+
+    /**
+     * Register these metrics as an MXBean for the thread.
+     *
+     * @return Its name, to unregister it. Null if it could not be registered, the metrics are still available from the thread.
+     */
+    ObjectName register(final Thread thread) {
+        try {
+            final ObjectName name = new ObjectName("com.anmol.java:type=MessengerThread,name="
+                    + ObjectName.quote(thread.getName()) + ",id=" + thread.getId());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            return null;
+        }
+    }
+
+    static void unregister(final ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException ignored) {
+            // Already unregistered.
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.anmol.java;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link MessengerThread} of another process on this host, to send it {@link Message}s like to a local one.
+ * <br>
+ * The messages go through a ring in a memory-mapped file (best under /dev/shm, so its never written to a disk), which a
+ * {@link SharedMemoryReceiver} in the other process reads, and sends to its messenger. A message is encoded straight into the ring
+ * by a {@link MessageCodec} (the {@link MessageCodec#binary() binary one} by default, the receiver must use the same format),
+ * and recycled once its sent. So sending costs a copy, no system call and no allocation.
+ * <br>
+ * Only what the codec encodes crosses: the what, the arguments, the priority and the data, or the
+ * {@link PayloadArena} block of the message. Runnables and requests can not be sent.
+ * <br>
+ * The ring has one producer: only one RemoteMessenger (in any process) must be connected to a file at a time, but it can be shared
+ * by the threads of its process.
+ */
+public final class RemoteMessenger implements Closeable {
+
+    static final byte FLAG_FRONT_OF_QUEUE = 1;
+
+    // Body of a record: [flags][message encoded by the codec, with its delay in nanoseconds as its time].
+    static final int FLAGS = 0;
+    static final int MESSAGE = 1;
+
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final File mFile;
+    private final SharedMemoryRing mRing;
+    private final MessageCodec mCodec;
+    private final ByteBuffer mWriter; // View of the ring for the codec, which moves its position. Guarded by this.
+    private boolean mClosed; // Guarded by this.
+
+    /**
+     * Same as {@link #connect(File, MessageCodec)}, with the {@link MessageCodec#binary() binary codec}.
+     */
+    public static RemoteMessenger connect(final File file) throws IOException {
+        return connect(file, MessageCodec.binary());
+    }
+
+    /**
+     * Connect to the {@link SharedMemoryReceiver} started on the file by the other process.
+     *
+     * @param codec Encodes the messages, in the format the codec of the receiver decodes.
+     * @throws IOException If there is no receiver on the file yet.
+     */
+    public static RemoteMessenger connect(final File file, final MessageCodec codec) throws IOException {
+        if (file == null || codec == null) {
+            throw new IllegalArgumentException("file == null || codec == null");
+        }
+        return new RemoteMessenger(file, SharedMemoryRing.open(file), codec);
+    }
+
+    private RemoteMessenger(final File file, final SharedMemoryRing ring, final MessageCodec codec) {
+        mFile = file;
+        mRing = ring;
+        mCodec = codec;
+        mWriter = ring.buffer().duplicate().order(ring.buffer().order());
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed ASAP. Waits for room if the ring is full.
+     *
+     * @return False if the receiver is closed (or was restarted, then connect again), the message is recycled anyway.
+     */
+    public boolean sendMessage(final Message msg) {
+        return send(msg, 0, (byte) 0, true);
+    }
+
+    /**
+     * Same as {@link #sendMessage(Message)}, but never waits for room in the ring.
+     *
+     * @return False if the ring is full or the receiver is closed, the message is recycled anyway.
+     */
+    public boolean offerMessage(final Message msg) {
+        return send(msg, 0, (byte) 0, false);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed after the delay.
+     * <br>
+     * The delay starts when the receiver reads the message, which is right away unless the receiving process lags behind.
+     * The clocks of the two processes are not compared.
+     */
+    public boolean sendMessageDelayed(final Message msg, final long delayMillis) {
+        return sendMessageDelayed(msg, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay in any unit.
+     */
+    public boolean sendMessageDelayed(final Message msg, final long delay, final TimeUnit unit) {
+        return send(msg, Math.max(0, unit.toNanos(delay)), (byte) 0, true);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay as a {@link Duration}.
+     */
+    public boolean sendMessageDelayed(final Message msg, final Duration delay) {
+        long delayNanos;
+        try {
+            delayNanos = delay.toNanos();
+        } catch (ArithmeticException e) {
+            delayNanos = delay.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+        return sendMessageDelayed(msg, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed first, see {@link MessengerThread#sendMessageAtFrontOfQueue(Message)}.
+     */
+    public boolean sendMessageAtFrontOfQueue(final Message msg) {
+        return send(msg, 0, FLAG_FRONT_OF_QUEUE, true);
+    }
+
+    /**
+     * Send an empty {@link Message} with the what, which should be processed ASAP.
+     */
+    public boolean sendEmptyMessage(final int what) {
+        return sendMessage(Message.obtain(what));
+    }
+
+    /**
+     * @return True if the receiver is closed, or was restarted.
+     */
+    public boolean isClosed() {
+        synchronized (this) {
+            if (mClosed) {
+                return true;
+            }
+        }
+        return mRing.isClosed();
+    }
+
+    /**
+     * Stop sending. The messages sent so far are still delivered. The receiver stays open, so another RemoteMessenger can connect.
+     */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteMessenger{" + mFile + "}";
+    }
+
+    private boolean send(final Message msg, final long delayNanos, final byte flags, final boolean wait) {
+        if (msg.isInUse()) {
+            throw new IllegalStateException(msg + " This message is already in use.");
+        }
+        if (msg.callback() != null || msg.expectsReply()) {
+            msg.recycleUnchecked();
+            throw new IllegalArgumentException("Runnables and requests can not be sent to another process");
+        }
+        final int length;
+        try {
+            length = MESSAGE + mCodec.encodedLength(msg); // Out of the lock, its the slow part if the codec has one.
+        } catch (RuntimeException e) {
+            msg.recycleUnchecked();
+            throw e;
+        }
+
+        try {
+            synchronized (this) {
+                if (mClosed) {
+                    return false;
+                }
+                try {
+                    if (!mRing.beginSend()) {
+                        return false;
+                    }
+                    int offset;
+                    int round = 0;
+                    while (true) {
+                        offset = mRing.claim(length);
+                        if (offset >= 0) {
+                            break;
+                        }
+                        if (!wait || mRing.isClosed()) {
+                            return false;
+                        }
+                        // The receiver is in another process, so it can not unpark us: poll until it makes room.
+                        if (round++ < 100) {
+                            Thread.yield();
+                        } else {
+                            LockSupport.parkNanos(FULL_PARK_NANOS);
+                        }
+                    }
+
+                    mWriter.put(offset + FLAGS, flags);
+                    try {
+                        mCodec.encode(msg, delayNanos, mWriter, offset + MESSAGE);
+                    } catch (RuntimeException e) {
+                        mRing.unclaim(); // Else the next commit would publish the half written record.
+                        throw e;
+                    }
+                    return mRing.commit();
+                } finally {
+                    mRing.endSend(); // The receiver closing waits for it, to read what we committed.
+                }
+            }
+        } finally {
+            msg.recycleUnchecked();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.anmol.java;
+
+/**
+ * Receives the result of a request sent with {@link MessengerThread#postForResult} or {@link MessengerThread#sendForResult},
+ * without a future being created for it.
+ *
+ * @param <T> Type of the result.
+ */
+public interface ResultListener<T> {
+
+    /**
+     * Called once per request, on the messenger thread which sent it if it was sent from one, else on the thread which completed it.
+     *
+     * @param result Result of the request, null if it failed.
+     * @param error  Why it failed, null if it did not. A {@link java.util.concurrent.CancellationException} if the request was dropped
+     *               (removed, closed, replaced...) or handled without a reply.
+     */
+    void onResult(T result, Throwable error);
+}
@@ -0,0 +1,127 @@
+package com.anmol.java;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receiving end of a {@link RemoteMessenger}: exposes a {@link MessengerThread} to the other processes of this host.
+ * <br>
+ * It creates the ring in the file, and a thread which polls it, decodes the messages with its {@link MessageCodec}, and sends them to the messenger
+ * with their delay, so they are handled in its {@link MessengerThread#onMessage(Message)} like the local ones.
+ * A sender in another process can not wake a thread up here, so the poller spins then yields while messages come,
+ * and only parks for a short interval while there are none.
+ * <br>
+ * The messenger must be started before the messages come, else they are dropped. If it has a limited capacity,
+ * a full queue blocks the poller, then the ring fills up, and the sender waits: the backpressure crosses the processes.
+ * A message the codec can not decode is skipped, and reported to the uncaught exception handler of the poller.
+ */
+public final class SharedMemoryReceiver implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final SharedMemoryRing mRing;
+    private final MessengerThread mTarget;
+    private final MessageCodec mCodec;
+    private final ByteBuffer mReader; // View of the ring for the codec, which moves its position. Poller only.
+    private final IdleStrategy mIdle = IdleStrategy.backoff(1000, 100);
+    private final Thread mPoller;
+    private volatile boolean mClosed;
+
+    /**
+     * Same as {@link #start(File, int, MessengerThread, MessageCodec)}, with a ring of {@value #DEFAULT_CAPACITY} bytes,
+     * and the {@link MessageCodec#binary() binary codec}, so the {@link PayloadArena} blocks are received as byte[].
+     */
+    public static SharedMemoryReceiver start(final File file, final MessengerThread target) throws IOException {
+        return start(file, DEFAULT_CAPACITY, target, MessageCodec.binary());
+    }
+
+    /**
+     * Create the ring in the file (any previous one is reset, and its sender sees it as closed), and start polling it.
+     *
+     * @param capacity Size of the ring in bytes, a power of 2, at least 4096. Half of it is the largest message.
+     * @param target   Messenger to send the received messages to.
+     * @param codec    Decodes the messages, in the format the codec of the sender encodes. Give a {@link BinaryMessageCodec}
+     *                 {@link BinaryMessageCodec#withPayloadArena an arena} to receive the blocks sent by the other process
+     *                 without garbage too.
+     */
+    public static SharedMemoryReceiver start(final File file, final int capacity, final MessengerThread target,
+                                             final MessageCodec codec) throws IOException {
+        if (file == null || target == null || codec == null) {
+            throw new IllegalArgumentException("file == null || target == null || codec == null");
+        }
+        final SharedMemoryReceiver receiver = new SharedMemoryReceiver(SharedMemoryRing.create(file, capacity), target, codec);
+        receiver.mPoller.start();
+        return receiver;
+    }
+
+    private SharedMemoryReceiver(final SharedMemoryRing ring, final MessengerThread target, final MessageCodec codec) {
+        mRing = ring;
+        mTarget = target;
+        mCodec = codec;
+        mReader = ring.buffer().duplicate().order(ring.buffer().order());
+        mPoller = new Thread(this::poll, "MessengerThread-shm-" + target.getName());
+        mPoller.setDaemon(true);
+    }
+
+    /**
+     * Stop receiving. The sender sees the ring as closed from now on, the messages it sent before are still delivered.
+     */
+    @Override
+    public void close() {
+        mRing.close();
+        mClosed = true;
+        LockSupport.unpark(mPoller);
+    }
+
+    private void poll() {
+        final SharedMemoryRing.RecordHandler handler = this::deliver;
+        int round = 0;
+        while (!mClosed) {
+            if (mRing.isReplaced()) {
+                return; // Another receiver reset the ring, its records are its own.
+            }
+            if (mRing.read(handler) > 0) {
+                if (round > 0) {
+                    mIdle.onIdleEnd(false);
+                    round = 0;
+                }
+            } else if (!mIdle.idle(round++)) {
+                mIdle.onIdleEnd(true);
+                LockSupport.parkNanos(PARK_NANOS);
+                round = 0;
+            }
+        }
+        mRing.awaitSender(); // A send which saw the ring open commits before the last read.
+        if (!mRing.isReplaced()) {
+            mRing.read(handler); // The ones sent before the close.
+        }
+    }
+
+    /**
+     * Decode the record, see {@link RemoteMessenger} for its layout, and send it to the target.
+     */
+    private void deliver(final ByteBuffer buffer, final int offset, final int length) {
+        final Message msg;
+        final long delayNanos;
+        try {
+            delayNanos = mCodec.decodeWhen(mReader, offset + RemoteMessenger.MESSAGE);
+            msg = mCodec.decode(mReader, offset + RemoteMessenger.MESSAGE, length - RemoteMessenger.MESSAGE);
+        } catch (RuntimeException e) {
+            mPoller.getUncaughtExceptionHandler().uncaughtException(mPoller, e);
+            return;
+        }
+
+        if ((buffer.get(offset + RemoteMessenger.FLAGS) & RemoteMessenger.FLAG_FRONT_OF_QUEUE) != 0) {
+            mTarget.sendMessageAtFrontOfQueue(msg);
+            return;
+        }
+        final long when = SystemClock.uptimeNanos() + delayNanos;
+        mTarget.sendMessageAtTimeNanos(msg, when < 0 ? Long.MAX_VALUE : when);
+    }
+}
@@ -0,0 +1,302 @@
+package com.anmol.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer/single consumer ring of variable length records, in a memory-mapped file shared by two processes,
+ * see {@link RemoteMessenger} and {@link SharedMemoryReceiver}.
+ * <br>
+ * Header: [int magic][int capacity][int generation][int closed][int sending], then the write position and the read position,
+ * each on its own cache line, as each is written by another process. The positions count the bytes written and read since the start, the records
+ * are at position % capacity after the header.
+ * <br>
+ * Record: [int length of the body][body], padded to 8 bytes. A record never wraps: if it does not fit before the end,
+ * the end is skipped with a padding record (length -1) and it starts over at the front.
+ * <br>
+ * The Java memory model says nothing about memory shared with another process, so the order of the writes to the mapping is
+ * kept with a full fence (see {@link #fence()}): the producer fences between a record and the write position which publishes it,
+ * the consumer between the write position it read and the records, and between the records and the read position which gives them back.
+ * <br>
+ * The producer sets the sending flag for the whole of a send, then checks the closed flag; the consumer sets the closed flag,
+ * then waits for the sending flag to clear (see {@link #awaitSender}). With a fence in between on both sides, either the producer sees
+ * the ring closed and sends nothing, or the consumer sees its send and reads it last.
+ */
+final class SharedMemoryRing {
+    static final int HEADER = 256;
+    private static final int MAGIC = 0x4d545352; // MTSR
+    private static final int CAPACITY = 4;
+    private static final int GENERATION = 8;
+    private static final int CLOSED = 12;
+    private static final int SENDING = 16;
+    private static final int WRITE = 64;
+    private static final int READ = 128;
+    private static final int PADDING = -1;
+    private static final int MIN_CAPACITY = 4096;
+    private static final long SENDER_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1); // A producer which died in a send is not waited for longer.
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMask;
+    private final int mGeneration; // Generation of the receiver, the producer stops if its not the one it connected to.
+    private volatile int mFence;
+
+    // Producer only.
+    private long mWrite;
+    private long mClaimed; // mWrite before the last claim, see unclaim().
+    private long mReadLimit; // Read position seen last, so the producer only reads it again when the ring looks full.
+
+    // Consumer only.
+    private long mRead;
+
+    /**
+     * Create (or reset) the ring in the file, for its consumer. A producer still connected to the previous ring sees it as closed.
+     *
+     * @param capacity Size of the records area in bytes, a power of 2, at least 4096.
+     */
+    static SharedMemoryRing create(final File file, final int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2, at least 4096: " + capacity);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final int previous = raf.length() >= HEADER && readInt(raf, 0) == MAGIC ? readInt(raf, GENERATION) : 0;
+            raf.setLength(HEADER + capacity);
+            final MappedByteBuffer buffer = map(raf, HEADER + capacity);
+            final SharedMemoryRing ring = new SharedMemoryRing(buffer, capacity, previous + 1);
+            buffer.putInt(CLOSED, 1); // Closes the previous ring, if a producer is still on it.
+            if (previous != 0) {
+                ring.awaitSender(); // So it does not publish into the new ring.
+            }
+            buffer.putInt(0, 0);
+            buffer.putLong(WRITE, 0);
+            buffer.putLong(READ, 0);
+            buffer.putInt(CAPACITY, capacity);
+            buffer.putInt(GENERATION, previous + 1);
+            buffer.putInt(SENDING, 0);
+            buffer.putInt(CLOSED, 0);
+            ring.fence();
+            buffer.putInt(0, MAGIC); // Last, so a producer never connects to a ring half created.
+            return ring;
+        }
+    }
+
+    /**
+     * Map the ring created in the file by its consumer, for its producer.
+     *
+     * @throws IOException If there is no ring in the file (yet).
+     */
+    static SharedMemoryRing open(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < HEADER || readInt(raf, 0) != MAGIC) {
+                throw new IOException("No receiver on " + file);
+            }
+            final int capacity = readInt(raf, CAPACITY);
+            final MappedByteBuffer buffer = map(raf, HEADER + capacity);
+            final SharedMemoryRing ring = new SharedMemoryRing(buffer, capacity, buffer.getInt(GENERATION));
+            ring.fence();
+            ring.mWrite = buffer.getLong(WRITE);
+            ring.mReadLimit = buffer.getLong(READ);
+            return ring;
+        }
+    }
+
+    private SharedMemoryRing(final MappedByteBuffer buffer, final int capacity, final int generation) {
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mGeneration = generation;
+    }
+
+    /**
+     * The mapping, to write a claimed record or read one.
+     */
+    ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Largest body of a record.
+     */
+    int maxLength() {
+        return (mCapacity >>> 1) - 8;
+    }
+
+    /**
+     * Start a send, before {@link #claim}. Then call {@link #endSend()} whatever happens.
+     *
+     * @return False if the ring is closed, then nothing must be claimed.
+     */
+    boolean beginSend() {
+        mBuffer.putInt(SENDING, 1);
+        fence();
+        return !isClosed();
+    }
+
+    /**
+     * End the send started by {@link #beginSend()}, once its records are committed (or not sent).
+     */
+    void endSend() {
+        fence();
+        mBuffer.putInt(SENDING, 0);
+    }
+
+    /**
+     * Make room for a record, for the producer to write its body, then {@link #commit()} it.
+     *
+     * @return Offset of the body in the {@link #buffer()}, -1 if the ring is full.
+     */
+    int claim(final int length) {
+        if (length < 0 || length > maxLength()) {
+            throw new IllegalArgumentException("Record too large for the ring: " + length + " bytes");
+        }
+        final int size = align(4 + length);
+        mClaimed = mWrite;
+        final int index = (int) mWrite & mMask;
+        final int toEnd = mCapacity - index;
+        final int needed = size <= toEnd ? size : toEnd + size;
+        if (mWrite + needed - mReadLimit > mCapacity) {
+            mReadLimit = mBuffer.getLong(READ);
+            if (mWrite + needed - mReadLimit > mCapacity) {
+                return -1;
+            }
+        }
+        if (size > toEnd) {
+            mBuffer.putInt(HEADER + index, PADDING);
+            mWrite += toEnd;
+        }
+        final int offset = HEADER + ((int) mWrite & mMask);
+        mBuffer.putInt(offset, length);
+        mWrite += size;
+        return offset + 4;
+    }
+
+    /**
+     * Give back the room of the last {@link #claim}, as its body could not be written. Before the {@link #commit()},
+     * so the consumer never sees it.
+     */
+    void unclaim() {
+        mWrite = mClaimed;
+    }
+
+    /**
+     * Publish the records claimed so far to the consumer.
+     *
+     * @return False if the consumer created a new ring in the file meanwhile (it gave up waiting for this send), so they are lost.
+     */
+    boolean commit() {
+        fence();
+        if (mBuffer.getInt(GENERATION) != mGeneration) {
+            return false; // Our position means nothing in the new ring.
+        }
+        mBuffer.putLong(WRITE, mWrite);
+        fence();
+        return mBuffer.getInt(GENERATION) == mGeneration;
+    }
+
+    /**
+     * Read all the records published so far, then give their room back to the producer. Consumer only.
+     *
+     * @return Number of records read.
+     */
+    int read(final RecordHandler handler) {
+        final long write = mBuffer.getLong(WRITE);
+        if (write == mRead) {
+            return 0;
+        }
+        fence();
+        int count = 0;
+        while (mRead < write) {
+            final int offset = HEADER + ((int) mRead & mMask);
+            final int length = mBuffer.getInt(offset);
+            if (length == PADDING) {
+                mRead += mCapacity - ((int) mRead & mMask);
+                continue;
+            }
+            handler.onRecord(mBuffer, offset + 4, length);
+            mRead += align(4 + length);
+            count++;
+        }
+        fence();
+        mBuffer.putLong(READ, mRead);
+        return count;
+    }
+
+    /**
+     * @return True if the consumer closed this ring, or created a new one in the file since.
+     */
+    boolean isClosed() {
+        return mBuffer.getInt(CLOSED) != 0 || isReplaced();
+    }
+
+    /**
+     * @return True if a consumer created a new ring in the file since, then this one must not be read nor closed anymore.
+     */
+    boolean isReplaced() {
+        return mBuffer.getInt(GENERATION) != mGeneration;
+    }
+
+    /**
+     * Tell the producer the consumer is gone. Consumer only. Then {@link #awaitSender()} before the last read.
+     */
+    void close() {
+        if (!isReplaced()) {
+            mBuffer.putInt(CLOSED, 1);
+        }
+    }
+
+    /**
+     * Wait until the producer is not in the middle of a send, after the ring is closed, so what it commits is read.
+     * As the producer is in another process, poll for it, at most for {@link #SENDER_TIMEOUT_NANOS}.
+     */
+    void awaitSender() {
+        fence();
+        final long deadline = System.nanoTime() + SENDER_TIMEOUT_NANOS;
+        while (mBuffer.getInt(SENDING) != 0 && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            fence();
+        }
+        fence();
+    }
+
+    /**
+     * Full fence: a volatile write then a volatile read, so neither the compiler nor the CPU moves a read or a write of the mapping
+     * across it. There is no fence API before Java 9.
+     */
+    private void fence() {
+        mFence = 0;
+        if (mFence != 0) {
+            throw new AssertionError();
+        }
+    }
+
+    private static int align(final int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static int readInt(final RandomAccessFile raf, final long position) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+        raf.getChannel().read(bytes, position);
+        return bytes.getInt(0);
+    }
+
+    private static MappedByteBuffer map(final RandomAccessFile raf, final int size) throws IOException {
+        // Stays valid once the file is closed. Native order, as both ends are on the same host.
+        final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    /**
+     * Reads a record in place, see {@link #read(RecordHandler)}.
+     */
+    interface RecordHandler {
+        void onRecord(ByteBuffer buffer, int offset, int length);
+    }
+}
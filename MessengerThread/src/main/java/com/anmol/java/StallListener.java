@@ -0,0 +1,14 @@
+package com.anmol.java;
+
+/**
+ * Told when a {@link MessengerThread} is stuck processing a message, see {@link MessengerThread#withStallDetection}.
+ */
+public interface StallListener {
+
+    /**
+     * Called on the watchdog thread, once per stalled message. It must be quick, as it delays the checks of the other threads.
+     *
+     * @param report Which thread is stuck, on which message, and where.
+     */
+    void onStall(StallReport report);
+}
@@ -0,0 +1,70 @@
+package com.anmol.java;
+
+/**
+ * A {@link MessengerThread} found stuck processing a message by the watchdog, see {@link StallListener}.
+ */
+public final class StallReport {
+    private final Thread mThread;
+    private final long mStalledNanos;
+    private final StackTraceElement[] mStackTrace;
+    private final Class<?> mCallbackClass;
+    private final Class<?> mDataClass;
+
+    StallReport(final Thread thread, final long stalledNanos, final StackTraceElement[] stackTrace,
+                final Class<?> callbackClass, final Class<?> dataClass) {
+        mThread = thread;
+        mStalledNanos = stalledNanos;
+        mStackTrace = stackTrace;
+        mCallbackClass = callbackClass;
+        mDataClass = dataClass;
+    }
+
+    /**
+     * The stuck thread.
+     */
+    public Thread getThread() {
+        return mThread;
+    }
+
+    /**
+     * For how long the message was being processed when the watchdog caught it, at least.
+     * It can be up to a check period more, as the watchdog only samples the threads.
+     */
+    public long getStalledNanos() {
+        return mStalledNanos;
+    }
+
+    /**
+     * Where the thread was, when the watchdog caught it.
+     */
+    public StackTraceElement[] getStackTrace() {
+        return mStackTrace.clone();
+    }
+
+    /**
+     * Class of the {@link Runnable} being run (or of the {@link ChannelHandler} of a ready channel), null if it was a {@link Message}
+     * for {@link MessengerThread#onMessage}.
+     */
+    public Class<?> getCallbackClass() {
+        return mCallbackClass;
+    }
+
+    /**
+     * Class of the {@link Message#data()} of the message (or of the channel), null if it had none.
+     */
+    public Class<?> getDataClass() {
+        return mDataClass;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder()
+                .append(mThread.getName()).append(" stalled for ").append(mStalledNanos / 1_000_000).append("ms on ")
+                .append(mCallbackClass != null ? "callback " + mCallbackClass.getName() : "message")
+                .append(mDataClass != null ? " with data " + mDataClass.getName() : "");
+        for (StackTraceElement element : mStackTrace) {
+            builder.append("\n\tat ").append(element);
+        }
+        return builder.toString();
+    }
+}
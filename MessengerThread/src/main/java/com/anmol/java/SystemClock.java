@@ -0,0 +1,37 @@
+package com.anmol.java;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monotonic clock which all the {@link MessengerThread} scheduling is based on.
+ * <br>
+ * It counts the time since this class was loaded, from {@link System#nanoTime()}, so it is not affected by changes of the wall clock
+ * (like NTP adjustments), which would otherwise reorder or stall the delayed messages.
+ * <br>
+ * It starts at {@value #START_MILLIS}ms, not 0, as a message sent at time 0 goes to the front of the queue.
+ * So a time read from this clock is always a real time, even right after it started.
+ * <br>
+ * Use it to compute the times given to {@link MessengerThread#postAtTime} and {@link MessengerThread#sendMessageAtTime}.
+ */
+public final class SystemClock {
+
+    static final long START_MILLIS = 1000;
+    private static final long ORIGIN_NANOS = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+
+    private SystemClock() {
+    }
+
+    /**
+     * Nanoseconds since the clock started.
+     */
+    public static long uptimeNanos() {
+        return System.nanoTime() - ORIGIN_NANOS;
+    }
+
+    /**
+     * Milliseconds since the clock started.
+     */
+    public static long uptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(uptimeNanos());
+    }
+}
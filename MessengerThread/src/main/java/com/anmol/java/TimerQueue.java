@@ -0,0 +1,72 @@
+package com.anmol.java;
+
+import java.util.function.Predicate;
+
+/**
+ * Ordering structure which keeps the pending messages of a {@link MessageQueue}, sorted on their {@link Message#when}.
+ * <br>
+ * Every implementation has to keep the semantics of the original sorted list:
+ * <ol>
+ *     <li>Messages with the same {@link Message#when} are dispatched in the order they were inserted.</li>
+ *     <li>Messages with when=0 (sent at front of queue) go before every other message, the last inserted first.</li>
+ * </ol>
+ * It is not thread safe, {@link MessageQueue} only calls it while holding its lock.
+ * Removed messages are recycled by the implementation.
+ */
+interface TimerQueue {
+
+    /**
+     * Add the message, at its position according to its {@link Message#when}.
+     */
+    void insert(Message msg);
+
+    /**
+     * @return The message to be dispatched first, without removing it. Null if empty.
+     */
+    Message peek();
+
+    /**
+     * Remove and return the message to be dispatched first. Null if empty.
+     */
+    Message poll();
+
+    /**
+     * @return The earliest message which matches the filter, null if none. The messages after it are not visited,
+     * so its cheap when the first messages match.
+     */
+    Message findFirst(Predicate<Message> filter);
+
+    /**
+     * Remove the given message, without recycling it.
+     *
+     * @return False if the message was not in this queue.
+     */
+    boolean remove(Message msg);
+
+    boolean isEmpty();
+
+    /**
+     * @return Number of messages in this queue.
+     */
+    int size();
+
+    /**
+     * @return True if any of the messages matches the filter.
+     */
+    boolean contains(Predicate<Message> filter);
+
+    /**
+     * Remove and recycle all the messages which match the filter.
+     */
+    void removeIf(Predicate<Message> filter);
+
+    /**
+     * Remove and recycle all the messages with their {@link Message#when} after the given time.
+     */
+    void removeAfter(long when);
+
+    /**
+     * Remove and recycle all the messages.
+     */
+    void clear();
+}
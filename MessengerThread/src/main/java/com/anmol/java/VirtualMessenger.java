@@ -0,0 +1,356 @@
+package com.anmol.java;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A messenger like {@link MessengerThread}, which does not own a thread.
+ * <br>
+ * It has its own {@link MessageQueue}, but its consumer only runs (on an {@link Executor}) when it has due messages,
+ * so tens of thousands of mostly idle messengers (like one per session) cost a queue each, not a thread each.
+ * <br>
+ * By default it runs on virtual threads when the JVM has them (Java 21+), else on the {@link ForkJoinPool#commonPool()}.
+ * Messages of a messenger are still processed one at a time, in order, like on a {@link MessengerThread},
+ * but not always on the same thread. A handler which blocks keeps a carrier thread busy, unless its a virtual thread.
+ * <br>
+ * Delayed messages are woken by a single shared timer thread.
+ * <br>
+ * If {@link #onMessage} throws, the exception goes to the uncaught exception handler of the thread it ran on,
+ * and the messenger goes on with its next messages.
+ */
+public abstract class VirtualMessenger {
+
+    /**
+     * Max messages processed in a row, before giving the carrier thread to the other messengers.
+     */
+    private static final int MAX_MESSAGES_PER_RUN = 64;
+
+    private static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+    private static final ScheduledExecutorService sTimer = newTimer();
+
+    private final Executor mExecutor;
+    private final MessageQueue mQueue;
+    private final Consumer mConsumer;
+    private final Runnable mRun = this::runConsumer;
+
+    /**
+     * Number of wake ups not yet seen by the consumer. The one which moves it from 0 submits the consumer to the executor,
+     * so its never running twice at the same time, and a wake up while its running makes it poll again.
+     */
+    private final AtomicInteger mWakeUps = new AtomicInteger();
+
+    // Only touched by the consumer.
+    private ScheduledFuture<?> mTimer; // Wakes the consumer when the head message is due.
+    private long mTimerNanos = -1; // When mTimer fires, -1 if there is no timer.
+
+    public VirtualMessenger() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param executor Where the consumer runs, when this messenger has due messages.
+     */
+    public VirtualMessenger(final Executor executor) {
+        this(executor, MessageOrdering.LINKED_LIST);
+    }
+
+    /**
+     * @param executor Where the consumer runs, when this messenger has due messages.
+     * @param ordering How the pending messages are kept sorted, see {@link MessengerThread#withOrdering(MessageOrdering)}.
+     */
+    public VirtualMessenger(final Executor executor, final MessageOrdering ordering) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == null");
+        }
+        mExecutor = executor;
+        mQueue = new MessageQueue(new QueueConfig().withMessages(ordering.newTimerQueue()).withWaker(this::wakeUp));
+        mConsumer = Consumer.detached(mQueue, this::onMessage);
+    }
+
+    /**
+     * To handle the messages send onto this {@link VirtualMessenger}.
+     *
+     * @param msg Message read.
+     */
+    protected void onMessage(final Message msg) {
+    }
+
+    /**
+     * Stop reading msgs from the Queue, see {@link MessengerThread#close()}.
+     */
+    public void close() {
+        mQueue.stop(false);
+    }
+
+    /**
+     * Stop reading msgs which are meant to be processed later, see {@link MessengerThread#closeSafely()}.
+     */
+    public void closeSafely() {
+        mQueue.stop(true);
+    }
+
+    // Write Operations
+
+    /**
+     * Send the Runnable, which should be processed at the current time, see {@link MessengerThread#post(Runnable)}.
+     */
+    public final boolean post(final Runnable runnable) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), 0);
+    }
+
+    /**
+     * Send the Runnable, which should be processed at the uptimeMillis time, see {@link MessengerThread#postAtTime(Runnable, long)}.
+     */
+    public final boolean postAtTime(final Runnable runnable, final long uptimeMillis) {
+        return sendMessageAtTime(Message.obtain().withCallback(runnable), uptimeMillis);
+    }
+
+    /**
+     * Send the Runnable, which should be processed after the delayMillis, see {@link MessengerThread#postDelayed(Runnable, long)}.
+     */
+    public final boolean postDelayed(final Runnable runnable, final long delayMillis) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delayMillis);
+    }
+
+    /**
+     * Same as {@link #postDelayed(Runnable, long)}, with the delay in any unit.
+     */
+    public final boolean postDelayed(final Runnable runnable, final long delay, final TimeUnit unit) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delay, unit);
+    }
+
+    /**
+     * Same as {@link #postDelayed(Runnable, long)}, with the delay as a {@link Duration}.
+     */
+    public final boolean postDelayed(final Runnable runnable, final Duration delay) {
+        return sendMessageDelayed(Message.obtain().withCallback(runnable), delay);
+    }
+
+    /**
+     * Send the Runnable, which should be processed at the earliest, see {@link MessengerThread#postAtFrontOfQueue(Runnable)}.
+     */
+    public final boolean postAtFrontOfQueue(final Runnable runnable) {
+        return sendMessageAtFrontOfQueue(Message.obtain().withCallback(runnable));
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed ASAP, see {@link MessengerThread#sendMessage(Message)}.
+     */
+    public final boolean sendMessage(final Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    /**
+     * Send an empty {@link Message}, which should be processed ASAP, see {@link MessengerThread#sendEmptyMessage()}.
+     */
+    public final boolean sendEmptyMessage() {
+        return sendMessageDelayed(Message.obtain(), 0);
+    }
+
+    /**
+     * Send an empty {@link Message} with the what set, which should be processed ASAP, see {@link MessengerThread#sendEmptyMessage(int)}.
+     */
+    public final boolean sendEmptyMessage(final int what) {
+        return sendMessageDelayed(Message.obtain(what), 0);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed after the delayMillis, see {@link MessengerThread#sendMessageDelayed(Message, long)}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final long delayMillis) {
+        return sendMessageDelayed(msg, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay in any unit.
+     */
+    public final boolean sendMessageDelayed(final Message msg, long delay, final TimeUnit unit) {
+        if (delay < 0) {
+            delay = 0;
+        }
+        final long when = SystemClock.uptimeNanos() + unit.toNanos(delay);
+        return sendMessageAtTimeNanos(msg, when < 0 ? Long.MAX_VALUE : when);
+    }
+
+    /**
+     * Same as {@link #sendMessageDelayed(Message, long)}, with the delay as a {@link Duration}.
+     */
+    public final boolean sendMessageDelayed(final Message msg, final Duration delay) {
+        long delayNanos;
+        try {
+            delayNanos = delay.toNanos();
+        } catch (ArithmeticException tooLong) {
+            delayNanos = delay.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+        return sendMessageDelayed(msg, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed at uptimeMillis, see {@link MessengerThread#sendMessageAtTime(Message, long)}.
+     */
+    public final boolean sendMessageAtTime(final Message msg, final long uptimeMillis) {
+        return sendMessageAtTimeNanos(msg, TimeUnit.MILLISECONDS.toNanos(uptimeMillis));
+    }
+
+    /**
+     * Same as {@link #sendMessageAtTime(Message, long)}, with the time in {@link SystemClock#uptimeNanos()}.
+     */
+    public final boolean sendMessageAtTimeNanos(final Message msg, final long uptimeNanos) {
+        // 0 is the time of the front of queue messages, so an earlier time is only due right away.
+        return mQueue.enqueueMessage(msg, Math.max(uptimeNanos, 1));
+    }
+
+    /**
+     * Send the {@link Message}, which should be processed at first, see {@link MessengerThread#sendMessageAtFrontOfQueue(Message)}.
+     */
+    public final boolean sendMessageAtFrontOfQueue(final Message msg) {
+        return mQueue.enqueueMessage(msg, 0);
+    }
+
+    /**
+     * Removes all the messages in the queue.
+     */
+    public final void removeMessages() {
+        mQueue.removeMessages(null);
+    }
+
+    /**
+     * Removes the messages with Data=dataValue.
+     */
+    public final void removeMessages(final Object dataValue) {
+        mQueue.removeMessages(dataValue);
+    }
+
+    /**
+     * Removes the messages with this what, see {@link MessengerThread#removeMessages(int)}.
+     */
+    public final void removeMessages(final int what) {
+        mQueue.removeMessages(what);
+    }
+
+    /**
+     * Removes the messages with the provided Runnable.
+     */
+    public final void removeMessages(final Runnable runnable) {
+        mQueue.removeMessages(runnable, null);
+    }
+
+    /**
+     * Removes the messages with the matching Runnable and data.
+     */
+    public final void removeMessages(final Runnable runnable, final Object data) {
+        mQueue.removeMessages(runnable, data);
+    }
+
+    /**
+     * Tells if there is any {@link Message} or {@link Runnable} in the queue yet to be processed.
+     */
+    public final boolean hasMessages() {
+        return mQueue.hasMessages(null);
+    }
+
+    /**
+     * Tells if there is any {@link Message} or {@link Runnable} in the queue with data=dataValue yet to be processed.
+     */
+    public final boolean hasMessages(final Object object) {
+        return mQueue.hasMessages(object);
+    }
+
+    /**
+     * Tells if there is any {@link Message} with this what yet to be processed, see {@link MessengerThread#hasMessages(int)}.
+     */
+    public final boolean hasMessages(final int what) {
+        return mQueue.hasMessages(what);
+    }
+
+    /**
+     * Tells if there is any {@link Runnable} in the queue which yet to be processed.
+     */
+    public final boolean hasCallbacks(final Runnable runnable) {
+        return mQueue.hasMessages(runnable, null);
+    }
+
+    /**
+     * Called by the queue (or the timer) when the consumer has to poll again.
+     */
+    private void wakeUp() {
+        if (mWakeUps.getAndIncrement() == 0) {
+            mExecutor.execute(mRun);
+        }
+    }
+
+    /**
+     * Consumer run on the executor: process the due messages, then arm the timer for the next one.
+     */
+    private void runConsumer() {
+        int wakeUps = mWakeUps.get();
+        int processed = 0;
+        while (true) {
+            final Message msg = mQueue.poll();
+            if (msg != null) {
+                try {
+                    mConsumer.dispatch(msg);
+                } catch (Throwable t) {
+                    // The messenger outlives its handler, so run again for the next messages. mWakeUps is not 0, see below.
+                    mExecutor.execute(mRun);
+                    final Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                    return;
+                }
+                if (++processed == MAX_MESSAGES_PER_RUN) {
+                    // Let the other messengers run. mWakeUps is not 0, so nobody else submits this consumer meanwhile.
+                    mExecutor.execute(mRun);
+                    return;
+                }
+                continue;
+            }
+
+            // Nothing due. If nobody woke us since we started, we are done, else poll again.
+            wakeUps = mWakeUps.addAndGet(-wakeUps);
+            if (wakeUps == 0) {
+                armTimer(mQueue.waitUntilNanos());
+                return;
+            }
+        }
+    }
+
+    private void armTimer(final long whenNanos) {
+        if (mTimerNanos != -1 && (whenNanos == -1 || mTimerNanos > whenNanos || mTimerNanos <= SystemClock.uptimeNanos())) {
+            // Not needed anymore, or too late, or already fired.
+            mTimer.cancel(false);
+            mTimer = null;
+            mTimerNanos = -1;
+        }
+        if (whenNanos != -1 && mTimerNanos == -1) {
+            mTimerNanos = whenNanos;
+            mTimer = sTimer.schedule(this::wakeUp, whenNanos - SystemClock.uptimeNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static Executor defaultExecutor() {
+        try {
+            // Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+.
+            final Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException notOnThisJvm) {
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    private static ScheduledExecutorService newTimer() {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "VirtualMessenger-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
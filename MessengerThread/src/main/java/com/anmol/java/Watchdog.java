@@ -0,0 +1,99 @@
+package com.anmol.java;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples a {@link Consumer} to find the messages which take longer than a threshold to process, see {@link MessengerThread#withStallDetection}.
+ * <br>
+ * The consumer publishes what it dispatches (see {@link Consumer#dispatches()}), and the watchdog only reads that:
+ * not the queue, which says nothing of a consumer stealing from its group or handling its channels, nor the message, which is recycled
+ * once dispatched. The consumer does not read the clock for it: the watchdog times a dispatch from the first check which sees it,
+ * so a stall is caught between the threshold and the threshold plus two check periods.
+ * <br>
+ * All the watchdogs share a single daemon thread.
+ */
+final class Watchdog implements Runnable {
+    private static final long MIN_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final ScheduledExecutorService sScheduler = newScheduler();
+
+    private final Thread mThread;
+    private final Consumer mConsumer;
+    private final long mThresholdNanos;
+    private final StallListener mListener;
+    private ScheduledFuture<?> mFuture;
+
+    // Only touched by the watchdog thread.
+    private long mReported = -1; // Dispatch count of the last stall reported, so its reported once.
+    private long mSeen = -1; // Dispatch count seen by the last check.
+    private long mSeenNanos; // When it was first seen, in SystemClock#uptimeNanos().
+
+    private Watchdog(final Thread thread, final Consumer consumer, final long thresholdNanos, final StallListener listener) {
+        mThread = thread;
+        mConsumer = consumer;
+        mThresholdNanos = thresholdNanos;
+        mListener = listener;
+    }
+
+    /**
+     * Start checking the consumer of the thread, every eighth of the threshold.
+     */
+    static Watchdog start(final Thread thread, final Consumer consumer, final long thresholdNanos, final StallListener listener) {
+        final Watchdog watchdog = new Watchdog(thread, consumer, thresholdNanos, listener);
+        final long period = Math.max(MIN_PERIOD_NANOS, thresholdNanos / 8);
+        watchdog.mFuture = sScheduler.scheduleAtFixedRate(watchdog, period, period, TimeUnit.NANOSECONDS);
+        return watchdog;
+    }
+
+    void stop() {
+        mFuture.cancel(false);
+    }
+
+    @Override
+    public void run() {
+        final long dispatches = mConsumer.dispatches();
+        if ((dispatches & 1) == 0 || dispatches == mReported) {
+            return; // Not dispatching, or already reported.
+        }
+        final long now = SystemClock.uptimeNanos();
+        if (dispatches != mSeen) {
+            mSeen = dispatches; // Started since the last check.
+            mSeenNanos = now;
+            return;
+        }
+        final long stalledNanos = now - mSeenNanos;
+        if (stalledNanos < mThresholdNanos) {
+            return;
+        }
+
+        final Class<?> callbackClass = mConsumer.dispatchingCallbackClass();
+        final Class<?> dataClass = mConsumer.dispatchingDataClass();
+        final StackTraceElement[] stackTrace = mThread.getStackTrace();
+        if (mConsumer.dispatches() != dispatches) {
+            return; // Done meanwhile, so what we read might be about another dispatch.
+        }
+
+        mReported = dispatches;
+        final QueueMetrics metrics = mConsumer.queue().metrics();
+        if (metrics != null) {
+            metrics.onStall();
+        }
+        try {
+            mListener.onStall(new StallReport(mThread, stalledNanos, stackTrace, callbackClass, dataClass));
+        } catch (RuntimeException e) {
+            // A periodic task which throws is not run anymore, so keep watching.
+        }
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "MessengerThread-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+}
@@ -0,0 +1,19 @@
+package com.anmol.java;
+
+/**
+ * Told when the number of pending messages of a {@link MessengerThread} goes over its watermark, so the senders can shed load.
+ *
+ * @see MessengerThread#withWatermark(int, WatermarkListener)
+ */
+public interface WatermarkListener {
+
+    /**
+     * Called on the sender thread which made the count go over the watermark. Called again only after the count went back
+     * down to the watermark and over it again.
+     * <br>
+     * It must be quick, and must not send to the same {@link MessengerThread}.
+     *
+     * @param pending Number of pending messages, just over the watermark.
+     */
+    void onWatermarkExceeded(int pending);
+}
@@ -0,0 +1,177 @@
+package com.anmol.java;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryMessageCodecTest {
+
+    private static final int OFFSET = 3; // Not at the start of the buffer, like in a ring or a journal.
+
+    private final BinaryMessageCodec mCodec = MessageCodec.binary();
+
+    @Test
+    public void headerFieldsRoundTrip() {
+        final Message msg = Message.obtain(7, -1, Integer.MAX_VALUE).withLongArg(Long.MIN_VALUE).withPriority(Priority.BULK);
+        final ByteBuffer buffer = encode(msg, 1234L);
+
+        assertEquals(1234L, mCodec.decodeWhen(buffer, OFFSET));
+        final Message decoded = decode(buffer, BinaryMessageCodec.HEADER);
+        assertEquals(7, decoded.what());
+        assertEquals(-1, decoded.arg1());
+        assertEquals(Integer.MAX_VALUE, decoded.arg2());
+        assertEquals(Long.MIN_VALUE, decoded.longArg());
+        assertEquals(Priority.BULK, decoded.priority());
+        assertNull(decoded.data());
+    }
+
+    @Test
+    public void builtInDataTypesRoundTrip() {
+        assertArrayEquals(new byte[]{1, -2, 3}, (byte[]) roundTrip(new byte[]{1, -2, 3}));
+        assertArrayEquals(new byte[0], (byte[]) roundTrip(new byte[0]));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(new ArrayList<>(Arrays.asList("a", "b")), roundTrip(new ArrayList<>(Arrays.asList("a", "b")))); // Serialized.
+    }
+
+    @Test
+    public void stringsRoundTripInUtf8() {
+        final String[] strings = {
+                "", "ascii", "été", "€100", "中文",
+                "😀 emoji", // Surrogate pair, 4 bytes.
+                "lone high \ud83d", "lone low \ude00", "\ude00\ud83d reversed", // Lone surrogates, 3 bytes each.
+                "\u0000nul"
+        };
+        for (String s : strings) {
+            assertEquals(s, roundTrip(s));
+            final Message msg = Message.obtain().withData(s);
+            assertEquals(BinaryMessageCodec.HEADER + BinaryMessageCodec.utf8Length(s), mCodec.encodedLength(msg));
+            msg.recycle();
+        }
+        assertEquals(4, BinaryMessageCodec.utf8Length("😀"));
+        assertEquals(6, BinaryMessageCodec.utf8Length("\ude00\ud83d"));
+    }
+
+    @Test
+    public void registeredTypeRoundTrip() {
+        mCodec.register(16, Point.class, new DataCodec<Point>() {
+            @Override
+            public int length(final Point value) {
+                return 8;
+            }
+
+            @Override
+            public void write(final Point value, final ByteBuffer buffer, final int offset) {
+                buffer.putInt(offset, value.x);
+                buffer.putInt(offset + 4, value.y);
+            }
+
+            @Override
+            public Point read(final ByteBuffer buffer, final int offset, final int length) {
+                return new Point(buffer.getInt(offset), buffer.getInt(offset + 4));
+            }
+        });
+        final Point point = (Point) roundTrip(new Point(3, -4));
+        assertEquals(3, point.x);
+        assertEquals(-4, point.y);
+    }
+
+    @Test
+    public void payloadRoundTripIntoTheArenaOrABytesArray() {
+        final PayloadArena arena = PayloadArena.allocateDirect(1 << 16, 1 << 12);
+        final Message msg = arena.obtain(5);
+        msg.payload().put(new byte[]{1, 2, 3, 4, 5});
+        final ByteBuffer buffer = encode(msg, 0);
+        msg.recycle();
+
+        final Message asBytes = decode(buffer, BinaryMessageCodec.HEADER + 5);
+        assertFalse(asBytes.hasPayload());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, (byte[]) asBytes.data());
+
+        mCodec.withPayloadArena(arena);
+        final Message inArena = decode(buffer, BinaryMessageCodec.HEADER + 5);
+        assertTrue(inArena.hasPayload());
+        final byte[] bytes = new byte[5];
+        inArena.payload().get(bytes);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, bytes);
+        inArena.recycle();
+    }
+
+    @Test
+    public void malformedInputIsRejected() {
+        final ByteBuffer buffer = encode(Message.obtain().withData("€"), 0);
+        assertMalformed(buffer, BinaryMessageCodec.HEADER - 1); // Shorter than a header.
+        assertMalformed(buffer, BinaryMessageCodec.HEADER + 2); // UTF-8 sequence cut.
+
+        final ByteBuffer number = encode(Message.obtain().withData(42L), 0);
+        assertMalformed(number, BinaryMessageCodec.HEADER + 4); // Long cut.
+
+        final ByteBuffer priority = encode(Message.obtain(), 0);
+        priority.put(OFFSET + 28, (byte) Priority.values().length);
+        assertMalformed(priority, BinaryMessageCodec.HEADER);
+
+        final ByteBuffer unknown = encode(Message.obtain(), 0);
+        unknown.put(OFFSET + 29, (byte) 100); // No DataCodec registered for it.
+        assertMalformed(unknown, BinaryMessageCodec.HEADER);
+
+        final ByteBuffer badUtf8 = encode(Message.obtain().withData("ab"), 0);
+        badUtf8.put(OFFSET + BinaryMessageCodec.HEADER, (byte) 0x80); // A continuation byte first.
+        assertMalformed(badUtf8, BinaryMessageCodec.HEADER + 2);
+
+        final ByteBuffer serialized = encode(Message.obtain().withData(new ArrayList<>()), 0);
+        serialized.put(OFFSET + BinaryMessageCodec.HEADER, (byte) 0);
+        assertMalformed(serialized, serialized.capacity() - OFFSET);
+    }
+
+    private Object roundTrip(final Object data) {
+        final Message msg = Message.obtain().withData(data);
+        final int length = mCodec.encodedLength(msg);
+        final ByteBuffer buffer = encode(msg, 0);
+        msg.recycle();
+        final Message decoded = decode(buffer, length);
+        final Object result = decoded.data();
+        decoded.recycle();
+        return result;
+    }
+
+    private ByteBuffer encode(final Message msg, final long when) {
+        final ByteBuffer buffer = ByteBuffer.allocate(OFFSET + mCodec.encodedLength(msg));
+        mCodec.encode(msg, when, buffer, OFFSET);
+        buffer.clear();
+        return buffer;
+    }
+
+    private Message decode(final ByteBuffer buffer, final int length) {
+        final Message msg = mCodec.decode(buffer, OFFSET, length);
+        assertEquals(0, buffer.position()); // Left as it was, for the next record.
+        return msg;
+    }
+
+    private void assertMalformed(final ByteBuffer buffer, final int length) {
+        try {
+            mCodec.decode(buffer, OFFSET, length);
+            fail("Decoded a malformed message of " + length + " bytes");
+        } catch (IllegalArgumentException expected) {
+            // Reported, without reading past the message.
+        }
+    }
+
+    private static final class Point {
+        final int x;
+        final int y;
+
+        Point(final int x, final int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
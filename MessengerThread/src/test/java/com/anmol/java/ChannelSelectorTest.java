@@ -0,0 +1,99 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelSelectorTest {
+
+    private final List<StallReport> mReports = new CopyOnWriteArrayList<>();
+    private final MessengerThread mThread = new MessengerThread("selecting") {
+        @Override
+        protected void onRun() {
+        }
+    }.withSelector().withStallDetection(50, TimeUnit.MILLISECONDS, mReports::add);
+    private final Pipe mPipe;
+
+    public ChannelSelectorTest() throws IOException {
+        mPipe = Pipe.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mThread.close();
+        mThread.join(5000);
+        mPipe.sink().close();
+        mPipe.source().close();
+    }
+
+    @Test(timeout = 10000)
+    public void throwingHandlerDoesNotStopTheThread() throws Exception {
+        final CompletableFuture<Throwable> uncaught = new CompletableFuture<>();
+        mThread.setUncaughtExceptionHandler((thread, e) -> uncaught.complete(e));
+        final SelectionKey key = register(k -> {
+            throw new IllegalStateException("handler");
+        });
+        mPipe.sink().write(ByteBuffer.wrap(new byte[1]));
+
+        assertEquals("handler", uncaught.get(5, TimeUnit.SECONDS).getMessage());
+        final CompletableFuture<Boolean> alive = new CompletableFuture<>();
+        assertTrue(mThread.post(() -> alive.complete(key.isValid())));
+        assertFalse(alive.get(5, TimeUnit.SECONDS)); // Cancelled, so it does not throw again.
+    }
+
+    @Test(timeout = 10000)
+    public void slowHandlerIsReportedAsItself() throws Exception {
+        final CompletableFuture<Boolean> handled = new CompletableFuture<>();
+        register(new SlowHandler(handled));
+        mPipe.sink().write(ByteBuffer.wrap(new byte[1]));
+        handled.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, mReports.size());
+        assertEquals(SlowHandler.class, mReports.get(0).getCallbackClass());
+    }
+
+    private SelectionKey register(final ChannelHandler handler) throws Exception {
+        MessageQueueTest.start(mThread);
+        final CompletableFuture<SelectionKey> key = new CompletableFuture<>();
+        mThread.post(() -> {
+            try {
+                key.complete(mThread.register(mPipe.source(), SelectionKey.OP_READ, handler));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return key.get(5, TimeUnit.SECONDS);
+    }
+
+    private static final class SlowHandler implements ChannelHandler {
+        private final CompletableFuture<Boolean> mHandled;
+
+        SlowHandler(final CompletableFuture<Boolean> handled) {
+            mHandled = handled;
+        }
+
+        @Override
+        public void onReady(final SelectionKey key) {
+            try {
+                ((Pipe.SourceChannel) key.channel()).read(ByteBuffer.allocate(16));
+                Thread.sleep(200);
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            mHandled.complete(true);
+        }
+    }
+}
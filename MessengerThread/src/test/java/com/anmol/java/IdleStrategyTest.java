@@ -0,0 +1,121 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdleStrategyTest {
+
+    private static final boolean MULTI_CPU = Runtime.getRuntime().availableProcessors() > 1;
+
+    private final MessengerThread mThread = new MessengerThread("idle") {
+        @Override
+        protected void onRun() {
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mThread.close();
+        mThread.join(5000);
+    }
+
+    @Test
+    public void backoffSpinsLessAfterParksAndMoreAfterWakeUps() {
+        final IdleStrategy backoff = IdleStrategy.backoff(64, 2);
+        assertEquals(spins(64) + 2, idleRounds(backoff));
+
+        backoff.onIdleEnd(true);
+        assertEquals(spins(32) + 2, idleRounds(backoff));
+        for (int i = 0; i < 10; i++) {
+            backoff.onIdleEnd(true);
+        }
+        assertEquals(spins(8) + 2, idleRounds(backoff)); // Never below 1/8 of the max.
+
+        backoff.onIdleEnd(false);
+        assertEquals(spins(16) + 2, idleRounds(backoff));
+        for (int i = 0; i < 10; i++) {
+            backoff.onIdleEnd(false);
+        }
+        assertEquals(spins(64) + 2, idleRounds(backoff)); // Nor above the max.
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backoffRefusesNegativeSpins() {
+        IdleStrategy.backoff(-1, 0);
+    }
+
+    @Test(timeout = 10000)
+    public void messageEndsTheSpin() throws Exception {
+        final AtomicInteger woken = new AtomicInteger();
+        mThread.withIdleStrategy(new IdleStrategy() {
+            @Override
+            public boolean idle(final int round) {
+                return true; // Spin until a message comes.
+            }
+
+            @Override
+            public void onIdleEnd(final boolean parked) {
+                if (!parked) {
+                    woken.incrementAndGet();
+                }
+            }
+        });
+        MessageQueueTest.start(mThread);
+        MessageQueueTest.waitForState(mThread, Thread.State.RUNNABLE);
+
+        final CompletableFuture<Boolean> ran = new CompletableFuture<>();
+        mThread.post(() -> ran.complete(true));
+        assertTrue(ran.get(5, TimeUnit.SECONDS));
+        assertTrue(woken.get() > 0);
+    }
+
+    @Test(timeout = 10000)
+    public void parkedConsumerIsStillWoken() throws Exception {
+        final AtomicInteger parked = new AtomicInteger();
+        mThread.withIdleStrategy(new IdleStrategy() {
+            @Override
+            public boolean idle(final int round) {
+                return round < 10;
+            }
+
+            @Override
+            public void onIdleEnd(final boolean park) {
+                if (park) {
+                    parked.incrementAndGet();
+                }
+            }
+        });
+        MessageQueueTest.start(mThread);
+        MessageQueueTest.waitForState(mThread, Thread.State.WAITING);
+        assertTrue(parked.get() > 0);
+
+        final CompletableFuture<Boolean> ran = new CompletableFuture<>();
+        mThread.postDelayed(() -> ran.complete(true), 10); // Due while parked.
+        assertTrue(ran.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return Spins of a backoff on this machine, which never spins on a single CPU.
+     */
+    private static int spins(final int spins) {
+        return MULTI_CPU ? spins : 0;
+    }
+
+    /**
+     * @return Number of rounds the strategy idles before it parks.
+     */
+    private static int idleRounds(final IdleStrategy strategy) {
+        int round = 0;
+        while (strategy.idle(round)) {
+            round++;
+        }
+        return round;
+    }
+}
@@ -0,0 +1,111 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JournalTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void pendingMessagesLargerThanASegmentAreReplayed() {
+        final int count = 2 * Journal.SEGMENT_SIZE / 1024 + 100; // Still pending when the segments roll, so copied into the new ones.
+        final Journal journal = new Journal(mDirectory, 1000, MessageCodec.binary());
+        assertTrue(journal.open().isEmpty());
+        final long when = SystemClock.uptimeNanos() + TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < count; i++) {
+            journal.append(Message.obtain(i).withData(new byte[1024]), when);
+        }
+        journal.shutdown();
+
+        final Journal reopened = new Journal(mDirectory, 1000, MessageCodec.binary());
+        final List<Message> replayed = reopened.open();
+        reopened.shutdown();
+        assertEquals(count, replayed.size());
+        for (int i = 0; i < count; i++) {
+            final Message msg = replayed.get(i);
+            assertEquals(i, msg.what());
+            assertEquals(1024, ((byte[]) msg.data()).length);
+        }
+    }
+
+    @Test
+    public void doneMessagesAreNotReplayed() {
+        final Journal journal = new Journal(mDirectory, 1000, MessageCodec.binary());
+        journal.open();
+        final long when = SystemClock.uptimeNanos() + TimeUnit.HOURS.toNanos(1);
+        final Message done = Message.obtain(1);
+        journal.append(done, when);
+        journal.append(Message.obtain(2), when);
+        journal.dispatched(done.journalId);
+        journal.shutdown();
+
+        final Journal reopened = new Journal(mDirectory, 1000, MessageCodec.binary());
+        final List<Message> replayed = reopened.open();
+        reopened.shutdown();
+        assertEquals(1, replayed.size());
+        assertEquals(2, replayed.get(0).what());
+    }
+
+    @Test(timeout = 10000)
+    public void pendingMessagesOverTheCapacityAreAllReplayed() throws Exception {
+        for (OverflowPolicy policy : new OverflowPolicy[]{OverflowPolicy.BLOCK, OverflowPolicy.REJECT, OverflowPolicy.DROP_OLDEST}) {
+            final Journal journal = new Journal(mDirectory, 1000, MessageCodec.binary());
+            journal.open();
+            final long when = SystemClock.uptimeNanos() + TimeUnit.MILLISECONDS.toNanos(10);
+            for (int i = 0; i < 5; i++) {
+                journal.append(Message.obtain(i), when);
+            }
+            journal.shutdown();
+
+            final List<Integer> received = new ArrayList<>();
+            final CountDownLatch all = new CountDownLatch(5);
+            final MessengerThread thread = new MessengerThread("journal") {
+                @Override
+                protected void onRun() {
+                }
+
+                @Override
+                protected void onMessage(final Message msg) {
+                    received.add(msg.what());
+                    all.countDown();
+                }
+            };
+            thread.withJournal(mDirectory).withCapacity(2, policy);
+            MessageQueueTest.start(thread); // Would wait forever with BLOCK, as the consumer waited for room before it started.
+            assertTrue(all.await(5, TimeUnit.SECONDS));
+            thread.close();
+            thread.join(5000);
+            assertEquals(policy.name(), Arrays.asList(0, 1, 2, 3, 4), received);
+        }
+    }
+}
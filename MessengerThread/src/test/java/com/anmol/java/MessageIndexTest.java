@@ -0,0 +1,151 @@
+package com.anmol.java;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIndexTest {
+
+    private static final Object[] DATA = {new Object(), new Object(), new Object()};
+    private static final Runnable[] CALLBACKS = {() -> {
+    }, () -> {
+    }};
+
+    @Test
+    public void indexedQueueFindsAndRemovesLikeTheScan() {
+        final Random random = new Random(11);
+        for (MessageOrdering ordering : MessageOrdering.values()) {
+            for (int round = 0; round < 50; round++) {
+                final MessageQueue scanned = queue(ordering, false);
+                final MessageQueue indexed = queue(ordering, true);
+                for (int op = 0; op < 300; op++) {
+                    final long seed = random.nextLong();
+                    final Message a = apply(scanned, new Random(seed));
+                    final Message b = apply(indexed, new Random(seed));
+                    if (a != null || b != null) {
+                        assertNotNull(a);
+                        assertNotNull(b);
+                        assertEquals(a.what(), b.what());
+                        assertSame(a.data(), b.data());
+                        assertSame(a.callback(), b.callback());
+                        a.recycleUnchecked();
+                        b.recycleUnchecked();
+                    }
+                    assertSameAnswers(scanned, indexed);
+                }
+                scanned.stop(false);
+                indexed.stop(false);
+            }
+        }
+    }
+
+    @Test
+    public void whatTableKeepsEveryWhatWhileItGrowsAndShrinks() {
+        final Random random = new Random(5);
+        final MessageQueue queue = queue(MessageOrdering.BINARY_HEAP, true);
+        final int[] whats = new int[500];
+        for (int i = 0; i < whats.length; i++) {
+            // Many colliding slots (multiples of 1024), and negative ones.
+            whats[i] = random.nextBoolean() ? (random.nextInt(64) - 32) * 1024 : random.nextInt();
+        }
+        final Map<Integer, Integer> pending = new HashMap<>();
+        for (int op = 0; op < 20_000; op++) {
+            final int what = whats[random.nextInt(whats.length)];
+            if (random.nextInt(3) == 0) {
+                queue.removeMessages(what);
+                pending.remove(what);
+            } else {
+                queue.enqueueMessage(Message.obtain(what), SystemClock.uptimeNanos() + TimeUnit.HOURS.toNanos(1));
+                pending.merge(what, 1, Integer::sum);
+            }
+            if (op % 1000 == 0) {
+                for (int w : whats) {
+                    assertEquals(pending.containsKey(w), queue.hasMessages(w));
+                }
+            }
+        }
+        queue.removeMessages(null);
+        for (int w : whats) {
+            assertFalse(queue.hasMessages(w));
+        }
+    }
+
+    @Test
+    public void whatNeverMatchesARunnable() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            final MessageQueue queue = queue(MessageOrdering.LINKED_LIST, indexed);
+            final long later = SystemClock.uptimeNanos() + TimeUnit.HOURS.toNanos(1);
+            queue.enqueueMessage(Message.obtain().withCallback(CALLBACKS[0]), later); // what 0, like every post.
+            assertFalse(queue.hasMessages(0));
+
+            queue.enqueueMessage(Message.obtain(0), later);
+            assertTrue(queue.hasMessages(0));
+            queue.removeMessages(0);
+            assertFalse(queue.hasMessages(0));
+            assertTrue(queue.hasMessages(CALLBACKS[0], null));
+        }
+    }
+
+    /**
+     * A queue read with {@link MessageQueue#poll()}, so the test can take the due messages itself.
+     */
+    private static MessageQueue queue(final MessageOrdering ordering, final boolean indexed) {
+        return new MessageQueue(new QueueConfig().withMessages(ordering.newTimerQueue()).withIndex(indexed).withWaker(() -> {
+        }));
+    }
+
+    /**
+     * Send a random message, remove some, or take the first due one, picked from the random.
+     *
+     * @return The message taken, if any.
+     */
+    private static Message apply(final MessageQueue queue, final Random random) {
+        final Object data = random.nextInt(4) == 0 ? null : DATA[random.nextInt(DATA.length)];
+        final Runnable callback = CALLBACKS[random.nextInt(CALLBACKS.length)];
+        final int what = random.nextInt(3);
+        switch (random.nextInt(7)) {
+            case 0:
+                return queue.poll(); // Which unlinks it from the index.
+            case 1:
+                queue.removeMessages(data == null ? DATA[0] : data);
+                break;
+            case 2:
+                queue.removeMessages(what);
+                break;
+            case 3:
+                queue.removeMessages(callback, random.nextBoolean() ? null : data);
+                break;
+            default:
+                final Message msg = random.nextBoolean() ? Message.obtain(what) : Message.obtain().withCallback(callback);
+                // Mostly later, else due: those are pushed on the inbox, and indexed when drained.
+                final long delay = random.nextInt(4) == 0 ? 0 : TimeUnit.HOURS.toNanos(1) + random.nextInt(1000);
+                queue.enqueueMessage(msg.withData(data), SystemClock.uptimeNanos() + delay);
+        }
+        return null;
+    }
+
+    private static void assertSameAnswers(final MessageQueue scanned, final MessageQueue indexed) {
+        assertEquals(scanned.hasMessages(null), indexed.hasMessages(null));
+        for (Object data : DATA) {
+            assertEquals(scanned.hasMessages(data), indexed.hasMessages(data));
+        }
+        for (int what = 0; what < 3; what++) {
+            assertEquals(scanned.hasMessages(what), indexed.hasMessages(what));
+        }
+        for (Runnable callback : CALLBACKS) {
+            assertEquals(scanned.hasMessages(callback, null), indexed.hasMessages(callback, null));
+            for (Object data : DATA) {
+                assertEquals(scanned.hasMessages(callback, data), indexed.hasMessages(callback, data));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class MessagePoolTest {
+
+    @After
+    public void tearDown() {
+        Message.setPoolSize(MessagePool.DEFAULT_POOL_SIZE);
+    }
+
+    @Test(timeout = 10000)
+    public void sharedPoolNeverHoldsMoreThanItsSize() throws Exception {
+        Message.setPoolSize(100); // Not a power of two.
+        onNewThread(() -> recycle(1000));
+
+        // Every new thread starts with an empty cache, so all it gets comes from the shared pool.
+        assertEquals(100, (int) onNewThread(MessagePoolTest::drain));
+    }
+
+    @Test(timeout = 10000)
+    public void emptyThreadCacheRefillsABatch() throws Exception {
+        Message.setPoolSize(32);
+        onNewThread(() -> recycle(1000));
+
+        final long misses = Message.poolMisses();
+        onNewThread(() -> {
+            final Message first = Message.obtain(); // Takes a batch.
+            for (int i = 1; i < MessagePool.REFILL_BATCH; i++) {
+                assertNotSame(first, Message.obtain()); // From the cache of this thread.
+            }
+            return null;
+        });
+        assertEquals(misses, Message.poolMisses());
+
+        assertEquals(32 - MessagePool.REFILL_BATCH, (int) onNewThread(MessagePoolTest::drain));
+    }
+
+    @Test(timeout = 10000)
+    public void zeroDisablesTheSharedPool() throws Exception {
+        Message.setPoolSize(0);
+        onNewThread(() -> recycle(1000));
+
+        assertEquals(0, (int) onNewThread(MessagePoolTest::drain));
+    }
+
+    @Test
+    public void primitiveFieldsAreCopiedAndClearedOnRecycle() {
+        final Message msg = Message.obtain(7, 1, -2).withLongArg(Long.MAX_VALUE);
+        final Message copy = Message.obtain(msg);
+        assertEquals(7, copy.what());
+        assertEquals(1, copy.arg1());
+        assertEquals(-2, copy.arg2());
+        assertEquals(Long.MAX_VALUE, copy.longArg());
+
+        copy.recycle();
+        assertEquals(0, copy.what());
+        assertEquals(0, copy.arg1());
+        assertEquals(0, copy.arg2());
+        assertEquals(0, copy.longArg());
+    }
+
+    private static Void recycle(final int count) {
+        final List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(Message.obtain());
+        }
+        for (Message msg : messages) {
+            msg.recycle();
+        }
+        return null;
+    }
+
+    /**
+     * @return Number of messages obtain() reused, until it had to create one.
+     */
+    private static Integer drain() {
+        final long misses = Message.poolMisses();
+        int reused = 0;
+        while (true) {
+            Message.obtain();
+            if (Message.poolMisses() != misses) {
+                return reused;
+            }
+            reused++;
+        }
+    }
+
+    private static <T> T onNewThread(final Callable<T> callable) throws Exception {
+        final FutureTask<T> task = new FutureTask<>(callable);
+        final Thread thread = new Thread(task);
+        thread.start();
+        thread.join();
+        return task.get();
+    }
+}
@@ -0,0 +1,351 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageQueueTest {
+
+    private final MessengerThread mThread = new MessengerThread("test") {
+        @Override
+        protected void onRun() {
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mThread.close();
+        mThread.join(5000);
+    }
+
+    @Test(timeout = 10000)
+    public void interruptOfHandlerIsKeptWhileWaiting() throws Exception {
+        start(mThread);
+        mThread.post(() -> Thread.currentThread().interrupt());
+
+        // The consumer parks with nothing to do, it must not spin on its own interrupt.
+        waitForState(mThread, Thread.State.WAITING);
+
+        final CompletableFuture<Boolean> seen = new CompletableFuture<>();
+        mThread.post(() -> seen.complete(Thread.interrupted()));
+        assertTrue(seen.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void delayedMessagesStillWaitAfterAnInterrupt() throws Exception {
+        start(mThread);
+        mThread.post(() -> Thread.currentThread().interrupt());
+        final long sent = System.nanoTime();
+        final CompletableFuture<Long> ran = new CompletableFuture<>();
+        mThread.postDelayed(() -> ran.complete(System.nanoTime()), 200);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(ran.get(5, TimeUnit.SECONDS) - sent) >= 200);
+        assertEquals(Thread.State.WAITING, waitForState(mThread, Thread.State.WAITING));
+    }
+
+    @Test(timeout = 10000)
+    public void timeZeroIsNotTheFrontOfTheQueue() throws Exception {
+        assertTrue(SystemClock.uptimeNanos() > 0);
+        start(mThread);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = new ArrayList<>();
+        final CompletableFuture<List<String>> done = new CompletableFuture<>();
+        mThread.post(() -> await(release));
+        mThread.post(() -> order.add("first"));
+        mThread.postAtFrontOfQueue(() -> order.add("front"));
+        mThread.postAtTime(() -> order.add("at 0"), 0); // Long past, but after the front of queue one.
+        mThread.post(() -> done.complete(order));
+        release.countDown();
+
+        assertEquals(Arrays.asList("front", "at 0", "first"), done.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void dropOldestSkipsFrontOfQueueAndControlMessages() throws Exception {
+        mThread.withCapacity(3, OverflowPolicy.DROP_OLDEST);
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.post(() -> order.add("a"));
+        mThread.postAtFrontOfQueue(() -> order.add("front"));
+        mThread.post(() -> order.add("control"), Priority.CONTROL);
+        assertTrue(mThread.post(() -> order.add("b"))); // Drops a.
+        assertTrue(mThread.post(() -> order.add("c"))); // Drops b.
+
+        assertEquals(Arrays.asList("front", "control", "c"), drain(release, order));
+    }
+
+    @Test(timeout = 10000)
+    public void dropOldestRejectsWhenNothingCanBeDropped() throws Exception {
+        mThread.withCapacity(2, OverflowPolicy.DROP_OLDEST);
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.postAtFrontOfQueue(() -> order.add("front"));
+        mThread.post(() -> order.add("control"), Priority.CONTROL);
+        assertFalse(mThread.post(() -> order.add("a")));
+
+        assertEquals(Arrays.asList("front", "control"), drain(release, order));
+    }
+
+    @Test(timeout = 10000)
+    public void batchIsSentAndDrainedInOrder() throws Exception {
+        mThread.withBatchDrain(true);
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.post(() -> order.add("a"));
+        assertTrue(mThread.postAll(Arrays.asList(() -> order.add("b"), () -> order.add("c"), () -> order.add("d"))));
+        mThread.postDelayed(() -> order.add("later"), 60_000); // Not due, so not in the batch.
+        assertTrue(mThread.sendMessages(Arrays.asList(Message.obtain().withCallback(() -> order.add("e")))));
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), drain(release, order));
+    }
+
+    @Test(timeout = 10000)
+    public void batchWithAMessageTwiceSendsNothing() throws Exception {
+        final CountDownLatch release = blockedThread();
+        final Message msg = Message.obtain(1);
+
+        try {
+            mThread.sendMessages(Arrays.asList(Message.obtain(2), msg, msg));
+            fail("Sent twice");
+        } catch (IllegalStateException expected) {
+            // Nothing was sent.
+        }
+        assertFalse(mThread.hasMessages());
+        assertFalse(msg.isInUse()); // So it can still be sent.
+        assertTrue(mThread.sendMessage(msg));
+        assertTrue(mThread.hasMessages(1));
+        release.countDown();
+    }
+
+    @Test(timeout = 10000)
+    public void closeDropsTheRestOfATakenBatch() throws Exception {
+        mThread.withBatchDrain(true);
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.postAll(Arrays.asList(() -> {
+            order.add("close");
+            mThread.close();
+        }, () -> order.add("dropped")));
+        release.countDown();
+        mThread.join(5000);
+
+        assertEquals(Collections.singletonList("close"), order);
+    }
+
+    /**
+     * Start the thread, and keep its consumer busy until the returned latch is released.
+     */
+    private CountDownLatch blockedThread() throws InterruptedException {
+        start(mThread);
+        final CountDownLatch release = new CountDownLatch(1);
+        mThread.post(() -> await(release));
+        waitForState(mThread, Thread.State.WAITING);
+        return release;
+    }
+
+    /**
+     * Release the consumer, and wait for it to process everything sent so far.
+     */
+    private List<String> drain(final CountDownLatch release, final List<String> order) throws Exception {
+        release.countDown();
+        while (mThread.queue().pendingCount() > 0) {
+            Thread.sleep(1); // With a capacity, the last message must not overflow (and drop) the others.
+        }
+        final CompletableFuture<List<String>> done = new CompletableFuture<>();
+        assertTrue(mThread.post(() -> done.complete(order)));
+        return done.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 10000)
+    public void coalescedMessageMovesToTheLaneOfTheNewPriority() throws Exception {
+        mThread.withPriorityLanes();
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.sendMessageCoalesced("key", Message.obtain().withCallback(() -> order.add("bulk")).withPriority(Priority.BULK));
+        mThread.post(() -> order.add("normal"));
+        mThread.sendMessageCoalesced("key", Message.obtain().withCallback(() -> order.add("control")).withPriority(Priority.CONTROL));
+
+        assertEquals(Arrays.asList("control", "normal"), drain(release, order));
+    }
+
+    @Test(timeout = 10000)
+    public void coalescedMessageTakesTheLatestValueInItsPlace() throws Exception {
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.postCoalesced("key", () -> order.add("first"));
+        mThread.post(() -> order.add("other"));
+        mThread.postCoalesced("other key", () -> order.add("other key"));
+        mThread.postCoalesced(new String("key"), () -> order.add("latest")); // Equal, not the same.
+
+        assertEquals(Arrays.asList("latest", "other", "other key"), drain(release, order));
+    }
+
+    @Test(timeout = 10000)
+    public void keyIsForgottenOnceItsMessageLeavesTheQueue() throws Exception {
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+
+        mThread.postCoalesced("key", () -> order.add("removed"));
+        mThread.removeMessages();
+        mThread.postCoalesced("key", () -> order.add("a"));
+        assertEquals(Collections.singletonList("a"), drain(release, order));
+
+        mThread.postCoalesced("key", () -> order.add("b")); // The one with a was dispatched.
+        assertEquals(Arrays.asList("a", "b"), drain(new CountDownLatch(0), order));
+    }
+
+    @Test
+    public void throttleKeepsTheFirstTimeAndDebounceTakesTheLast() {
+        final long first = SystemClock.uptimeNanos() + TimeUnit.HOURS.toNanos(1);
+        final long last = first + TimeUnit.HOURS.toNanos(1);
+        for (boolean reschedule : new boolean[]{false, true}) {
+            final MessageQueue queue = new MessageQueue(new QueueConfig().withWaker(() -> {
+            }));
+            queue.enqueueCoalesced("key", Message.obtain(1), first, reschedule);
+            queue.enqueueCoalesced("key", Message.obtain(2), last, reschedule);
+
+            assertNull(queue.poll());
+            assertEquals(reschedule ? last : first, queue.waitUntilNanos());
+            assertTrue(queue.hasMessages(2));
+            assertFalse(queue.hasMessages(1));
+            queue.stop(false);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dropOldestCanNotBeUsedWithARing() {
+        mThread.withRingBuffer(64).withCapacity(16, OverflowPolicy.DROP_OLDEST);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void priorityLanesCanNotBeUsedWithARing() {
+        mThread.withRingBuffer(64).withPriorityLanes();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ringCanNotBeUsedWithPriorityLanes() {
+        mThread.withPriorityLanes().withRingBuffer(64);
+    }
+
+    @Test(timeout = 10000)
+    public void fullRingSendsToTheQueueInsteadOfWaiting() throws Exception {
+        mThread.withRingBuffer(4);
+        final CountDownLatch release = blockedThread();
+        final List<String> order = new ArrayList<>();
+        final List<String> sent = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            final String name = String.valueOf(i);
+            assertTrue(mThread.post(() -> order.add(name)));
+            sent.add(name);
+        }
+
+        assertEquals(sent, drain(release, order));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ringCanNotBePolled() {
+        new MessageQueue(new QueueConfig().withRing(4).withWaker(() -> {
+        }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ringCanNotBeStolenFrom() {
+        new MessageQueue(new QueueConfig().withRing(4)).setSiblings(new MessageQueue[0]);
+    }
+
+    @Test(timeout = 30000)
+    public void inboxKeepsTheOrderOfEachSender() throws Exception {
+        start(mThread);
+        assertEachSenderInOrder(4, 50000);
+    }
+
+    @Test(timeout = 30000)
+    public void ringKeepsTheOrderOfEachSender() throws Exception {
+        mThread.withRingBuffer(16); // Small, so the senders also contend for it when its full.
+        start(mThread);
+        assertEachSenderInOrder(4, 50000);
+    }
+
+    /**
+     * Posts from the senders at once, every message must be handled once, and in the order its sender posted it.
+     */
+    private void assertEachSenderInOrder(final int senders, final int messages) throws Exception {
+        final int[] next = new int[senders]; // Only touched by the consumer.
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>()); // Added by the consumer and the senders.
+        final CountDownLatch go = new CountDownLatch(1);
+        final Thread[] threads = new Thread[senders];
+        for (int s = 0; s < senders; s++) {
+            final int sender = s;
+            threads[s] = new Thread(() -> {
+                await(go);
+                for (int i = 0; i < messages; i++) {
+                    final int seq = i;
+                    if (!mThread.post(() -> {
+                        if (next[sender]++ != seq && errors.size() < 10) {
+                            errors.add("sender " + sender + " got " + seq + " instead of " + (next[sender] - 1));
+                        }
+                    })) {
+                        errors.add("sender " + sender + " refused at " + seq);
+                        return;
+                    }
+                }
+            });
+            threads[s].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final CompletableFuture<int[]> handled = new CompletableFuture<>();
+        mThread.post(() -> handled.complete(next.clone()));
+        final int[] counts = handled.get(20, TimeUnit.SECONDS);
+        assertEquals(new ArrayList<String>(), errors);
+        for (int count : counts) {
+            assertEquals(messages, count);
+        }
+    }
+
+    static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Start the thread, and wait for its queue, as the messages sent before are refused.
+     */
+    static void start(final MessengerThread thread) {
+        thread.start();
+        thread.queue();
+    }
+
+    static Thread.State waitForState(final Thread thread, final Thread.State state) throws InterruptedException {
+        for (int i = 0; i < 500 && thread.getState() != state; i++) {
+            Thread.sleep(10);
+        }
+        return thread.getState();
+    }
+}
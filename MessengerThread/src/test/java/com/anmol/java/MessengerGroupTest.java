@@ -0,0 +1,95 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessengerGroupTest {
+
+    private static final String KEY = "key";
+
+    private final MessengerGroup mGroup = new MessengerGroup("group", 2) {
+    };
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mGroup.close();
+    }
+
+    @Test(timeout = 10000)
+    public void pinnedHeadDoesNotHoldBackStealing() throws Exception {
+        mGroup.start();
+        final MessengerThread owner = busyOwner();
+
+        final CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+        mGroup.post(KEY, () -> {
+        }); // Pinned head, only the owner may run it.
+        owner.post(() -> ranOn.complete(Thread.currentThread()));
+
+        assertNotSame(owner, ranOn.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mRelease.getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void delayedMessageOfBusyMemberIsStolenWhenDue() throws Exception {
+        mGroup.start();
+        final MessengerThread owner = busyOwner();
+
+        final CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+        final long sent = System.nanoTime();
+        owner.postDelayed(() -> ranOn.complete(Thread.currentThread()), 200);
+
+        assertNotSame(owner, ranOn.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mRelease.getCount());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent) >= 200);
+    }
+
+    @Test(timeout = 10000)
+    public void coalescedMessageOfBusyMemberIsStolen() throws Exception {
+        mGroup.start();
+        final MessengerThread owner = busyOwner();
+
+        final CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+        owner.postCoalesced("coalesced", () -> ranOn.complete(Thread.currentThread()));
+
+        assertNotSame(owner, ranOn.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mRelease.getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void rescheduledCoalescedMessageOfBusyMemberIsStolenWhenDue() throws Exception {
+        mGroup.start();
+        final MessengerThread owner = busyOwner();
+
+        final CompletableFuture<String> ran = new CompletableFuture<>();
+        owner.sendMessageCoalescedDelayed("coalesced", Message.obtain().withCallback(() -> ran.complete("first")), 60000, true);
+        // The idle sibling waits for the first deadline, it must be told about the earlier one.
+        owner.sendMessageCoalescedDelayed("coalesced", Message.obtain().withCallback(() -> ran.complete("second")), 100, true);
+
+        assertEquals("second", ran.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mRelease.getCount());
+    }
+
+    /**
+     * @return The member owning {@link #KEY}, kept busy until the test ends.
+     */
+    private MessengerThread busyOwner() throws Exception {
+        final MessengerThread owner = mGroup.memberFor(KEY);
+        final CountDownLatch busy = new CountDownLatch(1);
+        mGroup.post(KEY, () -> {
+            busy.countDown();
+            MessageQueueTest.await(mRelease);
+        });
+        busy.await();
+        return owner;
+    }
+}
@@ -0,0 +1,55 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MessengerLoopTest {
+
+    private final MessengerLoop mLoop = new MessengerLoop("loop");
+    private final List<String> mOrder = new ArrayList<>();
+    private final Messenger mMessenger = new Messenger(mLoop) {
+        @Override
+        protected void onMessage(final Message msg) {
+            mOrder.add("message");
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mLoop.close();
+        mLoop.join(5000);
+    }
+
+    @Test(timeout = 10000)
+    public void closedMessengerRunsNothingAddedAfterItsClose() throws Exception {
+        MessageQueueTest.start(mLoop);
+        mMessenger.close();
+        assertFalse(mMessenger.post(() -> mOrder.add("refused")));
+
+        // Like a send which saw the messenger open, and added its messages once the close removed the pending ones.
+        final Message runnable = Message.obtain().withCallback(() -> mOrder.add("runnable"));
+        runnable.target = mMessenger;
+        mLoop.queue().enqueueMessage(runnable, SystemClock.uptimeNanos());
+        final Message message = Message.obtain(1);
+        message.target = mMessenger;
+        mLoop.queue().enqueueMessage(message, SystemClock.uptimeNanos());
+
+        final CompletableFuture<List<String>> done = new CompletableFuture<>();
+        mLoop.post(() -> done.complete(mOrder));
+        assertEquals(Arrays.asList(), done.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void groupRefusesANullKey() {
+        new MessengerLoopGroup("group", 2).loopFor(null);
+    }
+}
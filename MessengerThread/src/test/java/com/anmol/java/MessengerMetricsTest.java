@@ -0,0 +1,128 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessengerMetricsTest {
+
+    private final MessengerThread mThread = new MessengerThread("metrics") {
+        @Override
+        protected void onRun() {
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mThread.close();
+        mThread.join(5000);
+    }
+
+    @Test(timeout = 10000)
+    public void countsWhatHappensToTheMessages() throws Exception {
+        mThread.withMetrics(true).withCapacity(3, OverflowPolicy.REJECT);
+        MessageQueueTest.start(mThread);
+        final MessengerMetrics metrics = mThread.metrics();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch busy = new CountDownLatch(1);
+        mThread.post(() -> {
+            busy.countDown();
+            MessageQueueTest.await(release);
+        });
+        busy.await();
+
+        assertTrue(mThread.post(() -> {
+        }));
+        assertTrue(mThread.postCoalesced("key", () -> {
+        }));
+        assertTrue(mThread.postCoalesced("key", () -> {
+        })); // Replaces the pending one.
+        assertTrue(mThread.post(() -> {
+        }));
+        assertFalse(mThread.post(() -> {
+        })); // Over the capacity.
+        assertEquals(3, metrics.getDepth());
+
+        release.countDown();
+        awaitDispatched(metrics, 4);
+        assertEquals(4, metrics.getEnqueuedCount()); // Not the coalesced send which replaced the pending one.
+        assertEquals(1, metrics.getDroppedCount());
+        assertEquals(1, metrics.getCoalescedCount());
+        assertEquals(4, metrics.getDispatchedCount());
+        assertEquals(3, metrics.getMaxDepth());
+        assertEquals(0, metrics.getDepth());
+
+        metrics.reset();
+        assertEquals(0, metrics.getEnqueuedCount());
+        assertEquals(0, metrics.getHandlerTime().getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void histogramsRecordHandlerTimeAndLateness() throws Exception {
+        mThread.withMetrics(true);
+        MessageQueueTest.start(mThread);
+        final MessengerMetrics metrics = mThread.metrics();
+
+        mThread.post(() -> sleep(20));
+        mThread.postDelayed(() -> {
+        }, 10);
+        mThread.postAtFrontOfQueue(() -> {
+        }); // Has no lateness.
+        awaitDispatched(metrics, 3);
+
+        final HistogramSnapshot handlerTime = metrics.getHandlerTime();
+        assertEquals(3, handlerTime.getCount());
+        assertTrue(handlerTime.getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(2, metrics.getLateness().getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void batchIsCountedAndStaysABatch() {
+        final MessageQueue queue = new MessageQueue(new QueueConfig().withMetrics(true));
+        final Message a = Message.obtain(1);
+        final Message b = Message.obtain(2);
+        final Message c = Message.obtain(3);
+        a.markInUse();
+        b.markInUse();
+        c.markInUse();
+        a.next = b;
+        b.next = c;
+
+        assertTrue(queue.enqueueMessages(a, SystemClock.uptimeNanos()));
+        assertEquals(3, queue.metrics().getEnqueuedCount());
+        assertEquals(3, queue.pendingCount());
+
+        // Still pushed as one chain, taken in order.
+        final Message taken = queue.nextBatch();
+        assertSame(a, taken);
+        assertSame(b, taken.next);
+        assertSame(c, taken.next.next);
+        assertNull(c.next);
+        assertEquals(0, queue.pendingCount());
+    }
+
+    /**
+     * Wait until the count of messages are dispatched, and their handler time recorded.
+     */
+    private static void awaitDispatched(final MessengerMetrics metrics, final long count) throws InterruptedException {
+        while (metrics.getDispatchedCount() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadArenaTest {
+
+    private final List<Message> mHeld = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (Message msg : mHeld) {
+            msg.recycle();
+        }
+    }
+
+    @Test
+    public void releasedBlocksAreReusedBeforeAnyNewSlab() {
+        final PayloadArena arena = PayloadArena.allocateDirect(2 * 4096, 4096);
+        final Set<Integer> offsets = new HashSet<>();
+        for (int i = 0; i < 2 * 4096 / 64; i++) {
+            assertTrue(offsets.add(hold(arena.obtain(64)).payloadOffset()));
+        }
+        assertEquals(0, arena.freeSlabs());
+        assertNull(arena.obtain(64)); // Both slabs are cut in 64 bytes blocks, all taken.
+        assertNull(arena.obtain(65));
+
+        releaseHeld();
+        for (int i = 0; i < 2 * 4096 / 64; i++) {
+            assertTrue(offsets.remove(hold(arena.obtain(33)).payloadOffset())); // Same class, same blocks.
+        }
+        assertTrue(offsets.isEmpty());
+        assertNull(arena.obtain(64));
+    }
+
+    @Test
+    public void blockGoesBackOnceTheReceiverIsDone() throws Exception {
+        final PayloadArena arena = PayloadArena.allocateDirect(64, 64); // A single block.
+        final CompletableFuture<Long> received = new CompletableFuture<>();
+        final MessengerThread receiver = new MessengerThread("receiver") {
+            @Override
+            protected void onRun() {
+            }
+
+            @Override
+            protected void onMessage(final Message msg) {
+                received.complete(msg.payload().getLong(msg.payloadOffset()));
+            }
+        };
+        MessageQueueTest.start(receiver);
+        try {
+            final Message msg = arena.obtain(8);
+            assertNotNull(msg);
+            msg.payload().putLong(msg.payloadOffset(), 42L);
+            assertNull(arena.obtain(8));
+
+            receiver.sendMessage(msg);
+            assertEquals(42L, (long) received.get(5, TimeUnit.SECONDS));
+            Message again;
+            while ((again = arena.obtain(8)) == null) {
+                Thread.sleep(1); // Released once onMessage returned.
+            }
+            again.recycle();
+        } finally {
+            receiver.close();
+            receiver.join(5000);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentThreadsNeverShareABlock() throws Exception {
+        final PayloadArena arena = PayloadArena.allocateDirect(4 * 4096, 4096);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long id = t + 1;
+            threads[t] = new Thread(() -> {
+                final List<Message> owned = new ArrayList<>();
+                for (int i = 0; i < 100_000 && errors.isEmpty(); i++) {
+                    final Message msg = arena.obtain(64 << (i % 3));
+                    if (msg != null) {
+                        msg.payload().putLong(msg.payloadOffset(), id << 32 | i);
+                        owned.add(msg);
+                    }
+                    if (!owned.isEmpty() && (msg == null || owned.size() > 16)) {
+                        // Release the oldest, which must still hold what this thread wrote.
+                        final Message oldest = owned.remove(0);
+                        final ByteBuffer payload = oldest.payload();
+                        if (payload.getLong(oldest.payloadOffset()) >>> 32 != id) {
+                            errors.add("block " + oldest.payloadOffset() + " was given to another thread");
+                        }
+                        oldest.recycle();
+                    }
+                }
+                for (Message msg : owned) {
+                    msg.recycle();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<String>(), errors);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void payloadLargerThanASlabIsRefused() {
+        PayloadArena.allocateDirect(4096, 4096).obtain(4097);
+    }
+
+    private Message hold(final Message msg) {
+        assertNotNull(msg);
+        mHeld.add(msg);
+        return msg;
+    }
+
+    private void releaseHeld() {
+        for (Message msg : mHeld) {
+            msg.recycle();
+        }
+        mHeld.clear();
+    }
+}
@@ -0,0 +1,226 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PromiseTest {
+
+    private final MessengerThread mRequester = new MessengerThread("requester") {
+        @Override
+        protected void onRun() {
+        }
+    };
+    private final MessengerThread mReplier = new MessengerThread("replier") {
+        @Override
+        protected void onRun() {
+        }
+    };
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mRelease.countDown();
+        mRequester.close();
+        mReplier.close();
+        mRequester.join(5000);
+        mReplier.join(5000);
+    }
+
+    @Test(timeout = 10000)
+    public void cancelDoesNotWaitForRoomOnTheRequester() throws Exception {
+        mRequester.withCapacity(1, OverflowPolicy.BLOCK);
+        assertSame(mRequester, cancelWhileRequesterIsFull());
+    }
+
+    @Test(timeout = 10000)
+    public void cancelIsDeliveredOnTheRequesterEvenIfItsFull() throws Exception {
+        mRequester.withCapacity(1, OverflowPolicy.REJECT);
+        assertSame(mRequester, cancelWhileRequesterIsFull());
+    }
+
+    @Test(timeout = 10000)
+    public void cancelIsDeliveredOutOfTheLockOfTheQueue() throws Exception {
+        MessageQueueTest.start(mReplier);
+        busyReplier();
+        final CompletableFuture<Boolean> holdsLock = new CompletableFuture<>();
+
+        // No messenger on this thread, so the cancel is delivered right where the request is dropped.
+        assertTrue(mReplier.sendForResult(Message.obtain(5), (result, error) ->
+                holdsLock.complete(error instanceof CancellationException && Thread.holdsLock(mReplier.queue()))));
+        mReplier.removeMessages(5);
+
+        assertFalse(holdsLock.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void requestsOfAThreadStoppedByAnExceptionAreCancelled() throws Exception {
+        final MessengerThread failing = new MessengerThread("failing") {
+            @Override
+            protected void onRun() {
+            }
+
+            @Override
+            protected void onMessage(final Message msg) {
+                throw new IllegalStateException("Handler failed");
+            }
+        };
+        failing.setUncaughtExceptionHandler((thread, e) -> {
+        });
+        MessageQueueTest.start(failing);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        failing.post(() -> {
+            busy.countDown();
+            MessageQueueTest.await(release);
+        });
+        busy.await();
+        failing.sendEmptyMessage(1); // Throws, which ends the thread.
+        final CompletableFuture<Integer> pending = failing.submit(() -> 1);
+        release.countDown();
+        failing.join(5000);
+
+        assertCancelled(pending);
+        assertCancelled(failing.submit(() -> 2)); // Sent once its dead.
+    }
+
+    @Test(timeout = 30000)
+    public void everyRequestRacingTheCloseCompletes() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final MessengerThread target = new MessengerThread("target") {
+                @Override
+                protected void onRun() {
+                }
+            };
+            MessageQueueTest.start(target);
+            final List<CompletableFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<>());
+            final Thread[] senders = new Thread[2];
+            for (int i = 0; i < senders.length; i++) {
+                senders[i] = new Thread(() -> {
+                    for (int j = 0; j < 2000; j++) {
+                        futures.add(target.submit(() -> 1));
+                    }
+                });
+                senders[i].start();
+            }
+            Thread.sleep(1);
+            target.close();
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            target.join(5000);
+
+            for (CompletableFuture<Integer> future : futures) {
+                // Ran, or cancelled by the close, never left pending.
+                future.handle((result, error) -> error).get(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void replyIsDeliveredAgainWhenTheRequesterClearsItsQueue() throws Exception {
+        final CompletableFuture<Thread> repliedOn = new CompletableFuture<>();
+        final CountDownLatch releaseRequester = pendingReply(repliedOn);
+
+        mRequester.removeMessages();
+        releaseRequester.countDown();
+        assertSame(mRequester, repliedOn.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void replyIsDeliveredWhenTheRequesterCloses() throws Exception {
+        final CompletableFuture<Thread> repliedOn = new CompletableFuture<>();
+        final CountDownLatch releaseRequester = pendingReply(repliedOn);
+
+        mRequester.close();
+        assertSame(Thread.currentThread(), repliedOn.get(5, TimeUnit.SECONDS)); // Where it was dropped.
+        releaseRequester.countDown();
+    }
+
+    /**
+     * Make the requester submit a task to the replier, and stay busy so the reply is pending in its queue.
+     *
+     * @param repliedOn Completed with the thread the reply was delivered on.
+     * @return Latch to release the requester.
+     */
+    private CountDownLatch pendingReply(final CompletableFuture<Thread> repliedOn) throws InterruptedException {
+        MessageQueueTest.start(mRequester);
+        MessageQueueTest.start(mReplier);
+        final CountDownLatch releaseRequester = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        mRequester.post(() -> {
+            running.countDown();
+            mReplier.submit(() -> 42).thenAccept(result -> repliedOn.complete(Thread.currentThread()));
+            MessageQueueTest.await(releaseRequester);
+        });
+        running.await(); // Else the post itself could still be pending.
+        while (!mRequester.hasMessages()) {
+            Thread.sleep(1); // The reply waits for the requester.
+        }
+        return releaseRequester;
+    }
+
+    private static void assertCancelled(final CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Not cancelled");
+        } catch (CancellationException expected) {
+            // Dropped.
+        }
+    }
+
+    /**
+     * Send a request from the requester, fill its queue, then drop the request.
+     *
+     * @return Thread the cancel was delivered on.
+     */
+    private Thread cancelWhileRequesterIsFull() throws Exception {
+        MessageQueueTest.start(mRequester);
+        MessageQueueTest.start(mReplier);
+        busyReplier();
+
+        final CompletableFuture<Thread> cancelledOn = new CompletableFuture<>();
+        final CountDownLatch sent = new CountDownLatch(1);
+        final CountDownLatch releaseRequester = new CountDownLatch(1);
+        mRequester.post(() -> {
+            mReplier.sendForResult(Message.obtain(5), (result, error) -> {
+                if (error instanceof CancellationException) {
+                    cancelledOn.complete(Thread.currentThread());
+                }
+            });
+            mRequester.post(() -> {
+            }); // Fills the queue of the requester.
+            sent.countDown();
+            MessageQueueTest.await(releaseRequester);
+        });
+        sent.await();
+
+        mReplier.removeMessages(5);
+        releaseRequester.countDown();
+        return cancelledOn.get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Keep the replier busy until the test ends, so the requests stay pending.
+     */
+    private void busyReplier() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        mReplier.post(() -> {
+            busy.countDown();
+            MessageQueueTest.await(mRelease);
+        });
+        busy.await();
+    }
+}
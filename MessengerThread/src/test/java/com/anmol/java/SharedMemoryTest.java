@@ -0,0 +1,134 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedMemoryTest {
+
+    private final AtomicInteger mReceived = new AtomicInteger();
+    private final AtomicInteger mLastWhat = new AtomicInteger();
+    private final MessengerThread mTarget = new MessengerThread("target") {
+        @Override
+        protected void onRun() {
+        }
+
+        @Override
+        protected void onMessage(final Message msg) {
+            mLastWhat.set(msg.what());
+            mReceived.incrementAndGet();
+        }
+    };
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ring", ".shm");
+        MessageQueueTest.start(mTarget);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mTarget.close();
+        mTarget.join(5000);
+        mFile.delete();
+    }
+
+    @Test(timeout = 20000)
+    public void everyMessageSentBeforeTheCloseIsReceived() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            mReceived.set(0);
+            final SharedMemoryReceiver receiver = SharedMemoryReceiver.start(mFile, mTarget);
+            final RemoteMessenger remote = RemoteMessenger.connect(mFile);
+            final AtomicInteger sent = new AtomicInteger();
+            final Thread sender = new Thread(() -> {
+                while (remote.sendEmptyMessage(1)) {
+                    sent.incrementAndGet();
+                }
+            });
+            sender.start();
+            Thread.sleep(5);
+            receiver.close();
+            sender.join();
+
+            assertTrue(remote.isClosed());
+            assertFalse(remote.sendEmptyMessage(1));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (mReceived.get() < sent.get() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(10); // Nothing more than sent comes either.
+            assertEquals(sent.get(), mReceived.get());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void restartedReceiverClosesTheOldRing() throws Exception {
+        final SharedMemoryReceiver first = SharedMemoryReceiver.start(mFile, mTarget);
+        final RemoteMessenger remote = RemoteMessenger.connect(mFile);
+        assertTrue(remote.sendEmptyMessage(1));
+
+        final SharedMemoryReceiver second = SharedMemoryReceiver.start(mFile, mTarget);
+        assertTrue(remote.isClosed());
+        assertFalse(remote.sendEmptyMessage(1));
+        final RemoteMessenger reconnected = RemoteMessenger.connect(mFile);
+        assertTrue(reconnected.sendEmptyMessage(1));
+        first.close(); // Closes its own ring only.
+        assertFalse(reconnected.isClosed());
+        assertTrue(reconnected.sendEmptyMessage(1));
+        second.close();
+        assertTrue(reconnected.isClosed());
+    }
+
+    @Test(timeout = 10000)
+    public void recordOfAFailedEncodeIsNotSent() throws Exception {
+        final BinaryMessageCodec codec = MessageCodec.binary();
+        codec.register(16, Failing.class, new DataCodec<Failing>() {
+            @Override
+            public int length(final Failing value) {
+                return 8;
+            }
+
+            @Override
+            public void write(final Failing value, final ByteBuffer buffer, final int offset) {
+                throw new IllegalStateException("Can not encode");
+            }
+
+            @Override
+            public Failing read(final ByteBuffer buffer, final int offset, final int length) {
+                return new Failing();
+            }
+        });
+        final SharedMemoryReceiver receiver = SharedMemoryReceiver.start(mFile, SharedMemoryReceiver.DEFAULT_CAPACITY, mTarget, codec);
+        final RemoteMessenger remote = RemoteMessenger.connect(mFile, codec);
+        try {
+            remote.sendMessage(Message.obtain(1).withData(new Failing()));
+            fail("The encode did not fail");
+        } catch (IllegalStateException expected) {
+            // Nothing claimed is left behind.
+        }
+        assertTrue(remote.sendEmptyMessage(2));
+
+        while (mReceived.get() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(10); // Nothing more comes.
+        assertEquals(1, mReceived.get());
+        assertEquals(2, mLastWhat.get());
+        receiver.close();
+    }
+
+    private static final class Failing {
+    }
+}
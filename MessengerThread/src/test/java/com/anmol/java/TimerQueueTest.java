@@ -0,0 +1,108 @@
+package com.anmol.java;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimerQueueTest {
+
+    @Test
+    public void heapFindsTheSameFirstMatchAsTheList() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final TimerQueue list = new LinkedTimerQueue();
+            final TimerQueue heap = new HeapTimerQueue();
+            final int size = random.nextInt(100);
+            for (int i = 0; i < size; i++) {
+                final long when = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(50);
+                final Message msg = Message.obtain(random.nextInt(5)).withPriority(Priority.values()[random.nextInt(4)]);
+                msg.setWhen(when);
+                list.insert(msg);
+                heap.insert(msg); // Both keep the same message, through their own links.
+            }
+            final int what = random.nextInt(5);
+            final long after = random.nextInt(50);
+            assertFirst(list, heap, p -> p.what() == what);
+            assertFirst(list, heap, p -> p.when() > after);
+            assertFirst(list, heap, p -> p.when() != 0 && p.priority() != Priority.CONTROL);
+            assertNull(heap.findFirst(p -> false));
+        }
+    }
+
+    @Test
+    public void heapPollsInTheSameOrderAsTheList() {
+        final Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            final TimerQueue list = new LinkedTimerQueue();
+            final TimerQueue heap = new HeapTimerQueue();
+            final int size = random.nextInt(200);
+            for (int i = 0; i < size; i++) {
+                // Few distinct times, so the ties (in insertion order) and the front of queue ones (last first) are common.
+                final long when = random.nextInt(8) == 0 ? 0 : 1 + random.nextInt(20);
+                list.insert(message(i, when));
+                heap.insert(message(i, when));
+            }
+            if (random.nextBoolean()) {
+                final int odd = random.nextInt(2);
+                list.removeIf(p -> p.what() % 2 == odd);
+                heap.removeIf(p -> p.what() % 2 == odd);
+            }
+            if (random.nextBoolean()) {
+                final long after = random.nextInt(20);
+                list.removeAfter(after);
+                heap.removeAfter(after);
+            }
+
+            assertEquals(list.size(), heap.size());
+            while (!list.isEmpty()) {
+                assertEquals(list.peek().what(), heap.peek().what());
+                assertEquals(list.poll().what(), heap.poll().what());
+            }
+            assertTrue(heap.isEmpty());
+            assertNull(heap.poll());
+        }
+    }
+
+    @Test
+    public void peekingLanesDoesNotSpendTheirCredit() {
+        final int[] weights = {1, 2, 1, 1};
+        final LaneTimerQueue peeked = new LaneTimerQueue(MessageOrdering.LINKED_LIST, weights);
+        final LaneTimerQueue polled = new LaneTimerQueue(MessageOrdering.LINKED_LIST, weights);
+        final Random random = new Random(7);
+        for (int i = 0; i < 40; i++) {
+            final Priority priority = Priority.values()[1 + random.nextInt(3)];
+            final Message msg = Message.obtain(i).withPriority(priority);
+            msg.setWhen(1);
+            peeked.insert(msg);
+            final Message copy = Message.obtain(i).withPriority(priority);
+            copy.setWhen(1);
+            polled.insert(copy);
+        }
+
+        while (!polled.isEmpty()) {
+            for (int i = 0; i < 3; i++) {
+                peeked.peek(); // Like the senders and the consumer checking the head.
+            }
+            final Message head = peeked.peek();
+            assertSame(head, peeked.poll());
+            assertEquals(polled.poll().what(), head.what());
+        }
+        assertNull(peeked.peek());
+    }
+
+    private static Message message(final int what, final long when) {
+        final Message msg = Message.obtain(what);
+        msg.setWhen(when);
+        return msg;
+    }
+
+    private static void assertFirst(final TimerQueue list, final TimerQueue heap, final Predicate<Message> filter) {
+        assertSame(list.findFirst(filter), heap.findFirst(filter));
+    }
+}
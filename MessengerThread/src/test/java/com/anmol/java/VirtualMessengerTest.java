@@ -0,0 +1,47 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class VirtualMessengerTest {
+
+    private final CompletableFuture<Throwable> mUncaught = new CompletableFuture<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "carrier");
+        thread.setUncaughtExceptionHandler((t, e) -> mUncaught.complete(e));
+        return thread;
+    });
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void throwingHandlerDoesNotStopTheMessenger() throws Exception {
+        final CompletableFuture<Integer> handled = new CompletableFuture<>();
+        final VirtualMessenger messenger = new VirtualMessenger(mExecutor) {
+            @Override
+            protected void onMessage(final Message msg) {
+                if (msg.what() == 1) {
+                    throw new IllegalStateException("boom");
+                }
+                handled.complete(msg.what());
+            }
+        };
+
+        messenger.sendEmptyMessage(1);
+        assertEquals("boom", mUncaught.get(5, TimeUnit.SECONDS).getMessage());
+
+        messenger.sendMessageDelayed(Message.obtain(2), 10);
+        assertEquals(2, (int) handled.get(5, TimeUnit.SECONDS));
+        messenger.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.anmol.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WatchdogTest {
+
+    private final List<StallReport> mReports = new CopyOnWriteArrayList<>();
+    private final MessengerThread mThread = new MessengerThread("watched") {
+        @Override
+        protected void onRun() {
+        }
+    }.withStallDetection(50, TimeUnit.MILLISECONDS, mReports::add);
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mThread.close();
+        mThread.join(5000);
+    }
+
+    @Test(timeout = 10000)
+    public void slowCallbackIsReportedOnce() throws Exception {
+        MessageQueueTest.start(mThread);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Runnable slow = new Slow(done);
+        mThread.post(slow);
+        done.await();
+        Thread.sleep(150); // Let the watchdog check a few times after.
+
+        assertEquals(1, mReports.size());
+        final StallReport report = mReports.get(0);
+        assertEquals(Slow.class, report.getCallbackClass());
+        assertTrue(report.getStalledNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test(timeout = 10000)
+    public void idleOrQuickMessagesAreNotStalls() throws Exception {
+        MessageQueueTest.start(mThread);
+        for (int i = 0; i < 20; i++) {
+            mThread.post(() -> {
+            });
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+
+        assertTrue(mReports.isEmpty());
+    }
+
+    private static final class Slow implements Runnable {
+        private final CountDownLatch mDone;
+
+        Slow(final CountDownLatch done) {
+            mDone = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mDone.countDown();
+        }
+    }
+}
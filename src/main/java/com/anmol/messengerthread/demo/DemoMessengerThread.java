@@ -21,6 +21,11 @@ public class DemoMessengerThread extends MessengerThread {
 
         // Option 2: Send a message. onMessage of that ConsumerThread will handle the message.
         threadToSendTo.sendMessage(Message.obtain().withData("Sent by " + getName()));
+
+        // Option 3: Run a task there and get its result back. The future completes on this thread, as its a MessengerThread too.
+        threadToSendTo.submit(() -> Thread.currentThread().getName())
+                .thenAccept(name -> System.out.println("Submitted by " + getName() + ", run by " + name
+                        + ", and result received by: " + Thread.currentThread().getName()));
     }
 
     @Override